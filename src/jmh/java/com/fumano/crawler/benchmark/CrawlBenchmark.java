@@ -0,0 +1,61 @@
+package com.fumano.crawler.benchmark;
+
+import com.fumano.crawler.CrawlScheduler;
+import com.fumano.crawler.Crawler;
+import com.fumano.crawler.store.Database;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end {@link Crawler#crawlGames(int)} against {@link StubRiotApi}, reported in crawled matches per second.
+ * The stub latency stands in for the network round trip, which is what the pipelined crawl overlaps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class CrawlBenchmark {
+
+    private static final int MATCHES_PER_OPERATION = 200;
+    private static final long PLAYERS = 1_000_000;
+    private static final int MATCHES = 5_000_000;
+
+    @Param({"1", "8"})
+    public int concurrency;
+
+    @Param({"0", "2000"})
+    public long latencyMicros;
+
+    @Param({"wal-normal", "delete-full"})
+    public String profile;
+
+    private Path directory;
+    private Database database;
+    private CrawlScheduler crawler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Fixtures.temporaryDirectory("crawl-benchmark");
+        var config = Fixtures.config(Fixtures.profile(profile), concurrency);
+        database = Database.open(directory.resolve("data.sqlite").toString(), config.sqlite());
+        var api = new StubRiotApi(PLAYERS, MATCHES, latencyMicros);
+        crawler = CrawlScheduler.create(config, database, region -> api);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        crawler.close();
+        database.close();
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MATCHES_PER_OPERATION)
+    public void crawlGames() {
+        crawler.crawlGames(MATCHES_PER_OPERATION);
+    }
+}
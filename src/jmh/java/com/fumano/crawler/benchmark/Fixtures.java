@@ -0,0 +1,171 @@
+package com.fumano.crawler.benchmark;
+
+import com.fumano.crawler.Config;
+import com.fumano.crawler.metrics.Metrics;
+import com.fumano.crawler.store.Database;
+import com.fumano.crawler.store.SeenSet;
+import com.fumano.crawler.store.SqliteProfile;
+import com.fumano.crawler.store.Store;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Databases, configs and synthetic match payloads shared by the benchmarks. Everything is derived from fixed seeds so
+ * runs on different machines and commits operate on the same data.
+ */
+final class Fixtures {
+
+    static final Map<String, SqliteProfile> PROFILES = Map.of(
+            "wal-normal", SqliteProfile.DEFAULT,
+            "wal-full", new SqliteProfile("WAL", "FULL", 256L << 20, -64 << 10, "MEMORY", 4096,
+                    Duration.ofSeconds(60), 2),
+            "delete-full", new SqliteProfile("DELETE", "FULL", 0, -2000, "DEFAULT", 4096, Duration.ofSeconds(60), 2)
+    );
+
+    private static final String[] STATS = {
+            "assists", "baronKills", "champExperience", "champLevel", "championId", "damageDealtToBuildings",
+            "damageDealtToObjectives", "damageDealtToTurrets", "damageSelfMitigated", "deaths", "doubleKills",
+            "dragonKills", "goldEarned", "goldSpent", "inhibitorKills", "item0", "item1", "item2", "item3", "item4",
+            "item5", "item6", "kills", "largestKillingSpree", "largestMultiKill", "longestTimeSpentLiving",
+            "magicDamageDealt", "magicDamageDealtToChampions", "magicDamageTaken", "neutralMinionsKilled",
+            "physicalDamageDealt", "physicalDamageDealtToChampions", "physicalDamageTaken", "profileIcon",
+            "spell1Casts", "spell2Casts", "spell3Casts", "spell4Casts", "summoner1Id", "summoner2Id",
+            "timeCCingOthers", "timePlayed", "totalDamageDealt", "totalDamageDealtToChampions", "totalDamageTaken",
+            "totalHeal", "totalMinionsKilled", "totalTimeCCDealt", "trueDamageDealt", "trueDamageTaken",
+            "turretKills", "visionScore", "wardsKilled", "wardsPlaced"
+    };
+
+    static final String REGION = "EUW1";
+
+    private Fixtures() {
+    }
+
+    static SqliteProfile profile(String name) {
+        var profile = PROFILES.get(name);
+        if (profile == null) {
+            throw new IllegalArgumentException("unknown sqlite profile " + name);
+        }
+        return profile;
+    }
+
+    static String puuid(long player) {
+        return "sim-player-%010d".formatted(player);
+    }
+
+    static String matchId(long match) {
+        return "SIM_%d".formatted(match);
+    }
+
+    static Store store(Database database) {
+        var store = new Store(database, new SeenSet(100_000), new SeenSet(100_000), new Metrics());
+        store.addRegion(REGION, true);
+        return store;
+    }
+
+    /**
+     * Fills accounts and match ids of {@link #REGION} with {@code rows} rows each in bulk, much faster than going
+     * through the store. Priorities are spread over 1000 values so frontier queries do not degrade to id order. The
+     * schema has to exist already.
+     */
+    static void populate(Database database, long rows) throws SQLException {
+        var connection = database.writer();
+        try (var statement = connection.createStatement()) {
+            statement.execute("BEGIN IMMEDIATE");
+            statement.execute("""
+INSERT OR IGNORE INTO accounts (puuid, game_name, tag_line, region, priority)
+WITH RECURSIVE n(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM n WHERE i + 1 < %d)
+SELECT printf('sim-player-%%010d', i), 'Player' || i, 'SIM', '%s', i * 7919 %% 1000 FROM n
+""".formatted(rows, REGION));
+            statement.execute("""
+INSERT OR IGNORE INTO match_ids (match_id, region, priority)
+WITH RECURSIVE n(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM n WHERE i + 1 < %d)
+SELECT 'SIM_' || i, '%s', i * 7919 %% 1000 FROM n
+""".formatted(rows, REGION));
+            statement.execute("COMMIT");
+        }
+    }
+
+    static Config config(SqliteProfile sqlite, int concurrency) {
+        return config(sqlite, concurrency, new Config.Snapshot(false, ""));
+    }
+
+    static Config config(SqliteProfile sqlite, int concurrency, Config.Snapshot snapshot) {
+        return new Config("", List.of(new Config.Region(REGION, "Player0", "SIM")),
+                new Config.Pipeline(concurrency, 64),
+                new Config.RateLimits(List.of(), Map.of()),
+                new Config.Retry(4, Duration.ofMillis(1), Duration.ofMillis(10), 0.2, 10, Duration.ofSeconds(1)),
+                new Config.Batch(50, Duration.ofSeconds(2)),
+                sqlite,
+                new Config.Dedup(100_000),
+                new Config.Refresh(true, Duration.ofHours(6), Duration.ofHours(336)),
+                new Config.Payloads(false, 256L << 20),
+                new Config.Backfill(false, 4, 100),
+                new Config.MetricsExport(false, 9464, false),
+                new Config.Frontier(Map.of("recency", 1, "depth", 20), Map.of(), 1000),
+                new Config.Leasing("benchmark", Duration.ofSeconds(60), "benchmark"),
+                new Config.Daemon(Duration.ofMinutes(15), 100, Duration.ofMinutes(10), 0.25, Duration.ofMinutes(5),
+                        Duration.ofSeconds(30)),
+                new Config.Cache(false, 0, 0, Map.of()),
+                new Config.Graph(true),
+                new Config.Maintenance(false, Duration.ofSeconds(10), Duration.ofMillis(100), 64,
+                        Duration.ofMinutes(60), 1_000_000, 10_000, Duration.ofHours(24), 1000),
+                snapshot,
+                new Config.Simulation(42, 1_000_000, 20, Duration.ZERO, Duration.ZERO, 0, 0, 0, ""));
+    }
+
+    /**
+     * Builds a match in the shape of the match v5 response. Participants carry the full set of numeric stats so the
+     * payload size and its compressibility are close to real matches.
+     */
+    static String matchJson(long match, long players) {
+        var random = new SplittableRandom(match);
+        var json = new StringBuilder(16 << 10);
+        json.append("{\"matchId\":\"").append(matchId(match)).append("\",\"gameCreation\":")
+                .append(1_700_000_000_000L + match * 1000).append(",\"gameDuration\":")
+                .append(random.nextInt(900, 2700)).append(",\"gameMode\":\"CLASSIC\",\"queueId\":420,\"participants\":[");
+        for (int i = 0; i < 10; i++) {
+            long player = participant(match, i, players);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"puuid\":\"").append(puuid(player))
+                    .append("\",\"riotIdName\":\"Player").append(player)
+                    .append("\",\"riotIdGameName\":\"Player").append(player)
+                    .append("\",\"riotIdTagline\":\"SIM\",\"teamId\":").append(i < 5 ? 100 : 200)
+                    .append(",\"win\":").append(i < 5 == (match % 2 == 0));
+            for (var stat: STATS) {
+                json.append(",\"").append(stat).append("\":").append(random.nextInt(0, 30000));
+            }
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    static long participant(long match, int slot, long players) {
+        long hash = (match * 10 + slot) * 0x9E3779B97F4A7C15L;
+        return Math.floorMod(hash ^ (hash >>> 29), players);
+    }
+
+    static Path temporaryDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix);
+    }
+
+    static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (var files = Files.walk(directory)) {
+            for (var path: files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
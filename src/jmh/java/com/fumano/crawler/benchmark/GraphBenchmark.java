@@ -0,0 +1,86 @@
+package com.fumano.crawler.benchmark;
+
+import com.fumano.crawler.graph.PlayerGraph;
+import com.fumano.crawler.store.Database;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries of {@link PlayerGraph} on a synthetic co-play graph of 100k to 1M accounts with {@value #DEGREE} co-players
+ * each on average, up to 20M edges. The edges are inserted in bulk, not through the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GraphBenchmark {
+
+    private static final int DEGREE = 20;
+    private static final int TOP = 10;
+    private static final int MAX_DEPTH = 6;
+
+    @Param({"100000", "1000000"})
+    public long players;
+
+    private Path directory;
+    private Database database;
+    private PlayerGraph graph;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Fixtures.temporaryDirectory("graph-benchmark");
+        database = Database.open(directory.resolve("data.sqlite").toString(), Fixtures.profile("wal-normal"));
+        Fixtures.store(database);
+        Fixtures.populate(database, players);
+        try (var statement = database.writer().createStatement()) {
+            statement.execute("BEGIN IMMEDIATE");
+            statement.execute("""
+INSERT INTO co_plays (account_id, other_id, games)
+WITH RECURSIVE
+    n(i) AS (SELECT 0 UNION ALL SELECT i + 1 FROM n WHERE i + 1 < %1$d),
+    s(j) AS (SELECT 1 UNION ALL SELECT j + 1 FROM s WHERE j + 1 <= %2$d),
+    e(a, b) AS (SELECT i + 1, (i + j * j * 7919 + i * j) %% %1$d + 1 FROM n, s)
+SELECT a, b, 1 + (a * b) %% 5 FROM e WHERE a != b
+UNION ALL
+SELECT b, a, 1 + (a * b) %% 5 FROM e WHERE a != b
+ON CONFLICT (account_id, other_id) DO UPDATE SET games = games + excluded.games
+""".formatted(players, DEGREE / 2));
+            statement.execute("COMMIT");
+        }
+        graph = new PlayerGraph(database);
+        random = new SplittableRandom(42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public List<PlayerGraph.CoPlayer> topCoPlayers() {
+        return graph.topCoPlayers(Fixtures.puuid(random.nextLong(players)), TOP);
+    }
+
+    @Benchmark
+    public List<PlayerGraph.CoPlayer> neighbours() {
+        return graph.neighbours(Fixtures.puuid(random.nextLong(players)));
+    }
+
+    /**
+     * Distance between two random accounts, usually four to five matches apart.
+     */
+    @Benchmark
+    public OptionalInt distance() {
+        return graph.distance(Fixtures.puuid(random.nextLong(players)), Fixtures.puuid(random.nextLong(players)),
+                MAX_DEPTH);
+    }
+}
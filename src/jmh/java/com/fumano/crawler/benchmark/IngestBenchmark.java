@@ -0,0 +1,98 @@
+package com.fumano.crawler.benchmark;
+
+import com.fumano.crawler.FrontierScore;
+import com.fumano.crawler.ingest.MatchIngest;
+import com.fumano.crawler.store.Database;
+import com.fumano.crawler.store.PayloadStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Offline ingest of gzipped ndjson dumps of synthetic matches into an empty database, entirely without the api. The
+ * dumps are written once per trial, every invocation ingests them into a new database and payload store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IngestBenchmark {
+
+    private static final int DUMPS = 4;
+    private static final int MATCHES_PER_DUMP = 25_000;
+    private static final long PLAYERS = 1_000_000;
+
+    @Param({"1", "4"})
+    public int parsers;
+
+    @Param({"true", "false"})
+    public boolean payloads;
+
+    @Param({"true", "false"})
+    public boolean coPlays;
+
+    private Path dumps;
+    private Path directory;
+    private Database database;
+    private PayloadStore payloadStore;
+    private MatchIngest ingest;
+
+    @Setup(Level.Trial)
+    public void writeDumps() throws Exception {
+        dumps = Fixtures.temporaryDirectory("ingest-dumps");
+        for (int dump = 0; dump < DUMPS; dump++) {
+            try (var writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(
+                    Files.newOutputStream(dumps.resolve("matches-%d.ndjson.gz".formatted(dump)))),
+                    StandardCharsets.UTF_8))) {
+                for (int i = 0; i < MATCHES_PER_DUMP; i++) {
+                    writer.write(Fixtures.matchJson((long) dump * MATCHES_PER_DUMP + i, PLAYERS));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDumps() throws Exception {
+        Fixtures.delete(dumps);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Exception {
+        directory = Fixtures.temporaryDirectory("ingest-benchmark");
+        database = Database.open(directory.resolve("data.sqlite").toString(), Fixtures.profile("wal-normal"));
+        var store = Fixtures.store(database);
+        payloadStore = payloads ? PayloadStore.open(directory.resolve("payloads"), "benchmark", 256L << 20,
+                database) : null;
+        ingest = new MatchIngest(store, payloadStore, Fixtures.REGION,
+                FrontierScore.create(Fixtures.config(Fixtures.profile("wal-normal"), 1).frontier()), 1000,
+                parsers, coPlays);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws Exception {
+        if (payloadStore != null) {
+            payloadStore.close();
+        }
+        database.close();
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public MatchIngest.Result ingest() throws Exception {
+        var result = ingest.run(List.of(dumps));
+        if (result.ingested() != (long) DUMPS * MATCHES_PER_DUMP) {
+            throw new IllegalStateException("ingested " + result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package com.fumano.crawler.benchmark;
+
+import com.fumano.crawler.store.Database;
+import com.fumano.crawler.store.PayloadStore;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append and scan throughput of {@link PayloadStore} for synthetic matches of realistic size. The bytes stored per
+ * match are printed after each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PayloadStoreBenchmark {
+
+    private static final int FIXTURES = 1024;
+    private static final int SCANNED = 20_000;
+    private static final long PLAYERS = 1_000_000;
+
+    @Param({"67108864", "268435456"})
+    public long segmentSize;
+
+    private Path directory;
+    private Database database;
+    private PayloadStore payloads;
+    private PayloadStore scanned;
+    private byte[][] fixtures;
+    private long appended;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Fixtures.temporaryDirectory("payload-benchmark");
+        database = Database.open(directory.resolve("data.sqlite").toString(), Fixtures.profile("wal-normal"));
+        Fixtures.store(database);
+        fixtures = new byte[FIXTURES][];
+        for (int i = 0; i < FIXTURES; i++) {
+            fixtures[i] = Fixtures.matchJson(i, PLAYERS).getBytes(StandardCharsets.UTF_8);
+        }
+        payloads = PayloadStore.open(directory, "appended", segmentSize, database);
+        scanned = PayloadStore.open(directory, "scanned", segmentSize, database);
+        for (int i = 0; i < SCANNED; i++) {
+            scanned.append(Fixtures.matchId(i), fixtures[i % FIXTURES]);
+        }
+        scanned.sync();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.println();
+        System.out.println("appended: " + payloads.getStats());
+        System.out.println("scanned: " + scanned.getStats());
+        payloads.close();
+        scanned.close();
+        database.close();
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public PayloadStore.Entry append() throws Exception {
+        long match = appended++;
+        return payloads.append(Fixtures.matchId(match), fixtures[(int) (match % FIXTURES)]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCANNED)
+    public void scan(Blackhole blackhole) throws Exception {
+        scanned.scan((matchId, payload, length) -> {
+            blackhole.consume(matchId);
+            blackhole.consume(payload[length - 1]);
+        });
+    }
+}
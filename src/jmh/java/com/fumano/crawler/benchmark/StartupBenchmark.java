@@ -0,0 +1,79 @@
+package com.fumano.crawler.benchmark;
+
+import com.fumano.crawler.CrawlScheduler;
+import com.fumano.crawler.Config;
+import com.fumano.crawler.store.Database;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from opening the database to a crawler that is ready to crawl, on 1M and 10M accounts and match ids each, with
+ * and without a snapshot written by the previous close. Startup reads neither table, a snapshot restores the recent keys
+ * after scanning the rows added since it was written, none here, so the time should not grow with the rows. The seed
+ * account is resolved on the first crawl and not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public long rows;
+
+    @Param({"false", "true"})
+    public boolean snapshot;
+
+    private Path directory;
+    private Config config;
+    private Database database;
+    private CrawlScheduler crawler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Fixtures.temporaryDirectory("startup-benchmark");
+        config = Fixtures.config(Fixtures.profile("wal-normal"), 1,
+                new Config.Snapshot(snapshot, directory.resolve("crawler.snapshot").toString()));
+        try (var database = Database.open(directory.resolve("data.sqlite").toString(), config.sqlite())) {
+            Fixtures.store(database);
+            Fixtures.populate(database, rows);
+        }
+        if (snapshot) {
+            // the first start writes the snapshot on close
+            open();
+            close();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void openDatabase() throws Exception {
+        database = Database.open(directory.resolve("data.sqlite").toString(), config.sqlite());
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() throws Exception {
+        crawler.close();
+        database.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Fixtures.delete(directory);
+    }
+
+    private void open() throws Exception {
+        openDatabase();
+        start();
+    }
+
+    @Benchmark
+    public CrawlScheduler start() throws Exception {
+        var api = new StubRiotApi(rows, 1000, 0);
+        crawler = CrawlScheduler.create(config, database, region -> api);
+        return crawler;
+    }
+}
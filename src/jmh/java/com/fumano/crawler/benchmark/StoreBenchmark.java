@@ -0,0 +1,138 @@
+package com.fumano.crawler.benchmark;
+
+import com.fumano.crawler.model.Account;
+import com.fumano.crawler.store.AccountBuffer;
+import com.fumano.crawler.store.Count;
+import com.fumano.crawler.store.Database;
+import com.fumano.crawler.store.Lease;
+import com.fumano.crawler.store.Ranked;
+import com.fumano.crawler.store.RegionStats;
+import com.fumano.crawler.store.Row;
+import com.fumano.crawler.store.Store;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths of {@link Store} against tables of 10k to 10M rows under different sqlite profiles. Throughput and the
+ * latency percentiles (p99 among them) come from the two benchmark modes, the allocation rate from {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StoreBenchmark {
+
+    private static final int MATCH_IDS_PER_ACCOUNT = 20;
+    private static final int CLAIM_SIZE = 64;
+    private static final int PARTICIPANTS_PER_FLUSH = 500;
+    private static final String OWNER = "benchmark";
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public long rows;
+
+    @Param({"wal-normal", "wal-full", "delete-full"})
+    public String profile;
+
+    private Path directory;
+    private Database database;
+    private Store store;
+    private SplittableRandom random;
+    private AccountBuffer participants;
+    private long inserted;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Fixtures.temporaryDirectory("store-benchmark");
+        database = Database.open(directory.resolve("data.sqlite").toString(), Fixtures.profile(profile));
+        store = Fixtures.store(database);
+        Fixtures.populate(database, rows);
+        random = new SplittableRandom(42);
+        participants = new AccountBuffer(PARTICIPANTS_PER_FLUSH);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public void addOrIgnoreAccount() {
+        store.addOrIgnoreAccount(new Account("new-player-" + inserted++, "Player", "SIM"), Fixtures.REGION);
+    }
+
+    @Benchmark
+    public void addOrIgnoreKnownAccount() {
+        store.addOrIgnoreAccount(new Account(Fixtures.puuid(random.nextLong(rows)), "Player", "SIM"),
+                Fixtures.REGION);
+    }
+
+    @Benchmark
+    public void addOrIgnoreMatchIds() {
+        List<Ranked<String>> matchIds = new ArrayList<>(MATCH_IDS_PER_ACCOUNT);
+        for (int i = 0; i < MATCH_IDS_PER_ACCOUNT; i++) {
+            var matchId = i % 2 == 0 ? "NEW_" + inserted++ : Fixtures.matchId(random.nextLong(rows));
+            matchIds.add(new Ranked<>(matchId, random.nextInt(1000), 1));
+        }
+        store.addOrIgnoreMatchIds(matchIds, Fixtures.REGION);
+    }
+
+    /**
+     * One flush of the batch writer: the participants of 50 matches, half of them known already, in a reused buffer.
+     */
+    @Benchmark
+    public void addOrIgnoreAccounts() {
+        participants.clear();
+        for (int i = 0; i < PARTICIPANTS_PER_FLUSH; i++) {
+            var puuid = i % 2 == 0 ? "new-player-" + inserted++ : Fixtures.puuid(random.nextLong(rows));
+            participants.add(puuid, "Player", "SIM", random.nextInt(1000), 1);
+        }
+        store.addOrIgnoreAccounts(participants, List.of(), Fixtures.REGION, List.of());
+    }
+
+    /**
+     * Claims the best account and hands it back, so the frontier is the same for every invocation.
+     */
+    @Benchmark
+    public Optional<Row<Ranked<Account>>> claimAccount() {
+        var row = store.claimAccount(Fixtures.REGION, OWNER, Long.MAX_VALUE);
+        store.releaseLeases(Lease.Account, row.stream().map(Row::id).toList(), OWNER);
+        return row;
+    }
+
+    /**
+     * Claims a pipeline batch of match ids and hands it back, so the frontier is the same for every invocation.
+     */
+    @Benchmark
+    public List<Row<Ranked<String>>> claimMatchIds() {
+        var rows = store.claimMatchIds(Fixtures.REGION, CLAIM_SIZE, OWNER, Long.MAX_VALUE);
+        store.releaseLeases(Lease.MatchId, rows.stream().map(Row::id).toList(), OWNER);
+        return rows;
+    }
+
+    /**
+     * Row counts of every region as a dashboard polls them while the crawl writes.
+     */
+    @Benchmark
+    public List<RegionStats> getRegionStats() {
+        return store.getRegionStats();
+    }
+
+    @Benchmark
+    public long getPendingMatchIdsCount() {
+        return store.getPendingMatchIdsCount(Fixtures.REGION, -1);
+    }
+
+    @Benchmark
+    public void setCount() {
+        store.setCount(Count.BackfillCursor, random.nextLong(rows));
+    }
+}
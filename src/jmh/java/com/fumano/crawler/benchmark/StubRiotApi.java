@@ -0,0 +1,88 @@
+package com.fumano.crawler.benchmark;
+
+import com.fumano.crawler.api.RiotApi;
+import com.google.gson.Gson;
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
+import no.stelar7.api.r4j.pojo.shared.RiotAccount;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Serves a synthetic player graph in place of the riot api. Every player plays {@link #MATCHES_PER_PLAYER} matches
+ * and every match has ten participants drawn from the player pool. Responses are decoded once and cached, so the
+ * benchmark measures the crawler and not the fixture generation.
+ */
+class StubRiotApi implements RiotApi {
+
+    static final int MATCHES_PER_PLAYER = 20;
+
+    private final Gson gson = new Gson();
+    private final long players;
+    private final int matches;
+    private final long latencyNanos;
+    private final AtomicReferenceArray<LOLMatch> cache;
+
+    StubRiotApi(long players, int matches, long latencyMicros) {
+        this.players = players;
+        this.matches = matches;
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        this.cache = new AtomicReferenceArray<>(matches);
+    }
+
+    private void respond() {
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    private long player(String puuid) {
+        return Long.parseLong(puuid.substring(puuid.lastIndexOf('-') + 1));
+    }
+
+    private RiotAccount account(long player) {
+        return gson.fromJson("{\"puuid\":\"%s\",\"gameName\":\"Player%d\",\"tagLine\":\"SIM\"}"
+                .formatted(Fixtures.puuid(player), player), RiotAccount.class);
+    }
+
+    @Override
+    public RiotAccount getAccountByTag(String gameName, String tagLine) {
+        respond();
+        return account(0);
+    }
+
+    @Override
+    public RiotAccount getAccountByPuuid(String puuid) {
+        respond();
+        return account(player(puuid));
+    }
+
+    @Override
+    public List<String> getMatchIds(String puuid, int beginIndex, int count, long startTime) {
+        respond();
+        if (startTime > 0) {
+            return List.of();
+        }
+        long player = player(puuid);
+        List<String> matchIds = new ArrayList<>(MATCHES_PER_PLAYER);
+        for (int i = beginIndex; i < Math.min(MATCHES_PER_PLAYER, beginIndex + count); i++) {
+            matchIds.add(Fixtures.matchId(Math.floorMod(player * 7919 + i * 104729L, matches)));
+        }
+        return matchIds;
+    }
+
+    @Override
+    public LOLMatch getMatch(String matchId) {
+        respond();
+        int match = Integer.parseInt(matchId.substring(matchId.indexOf('_') + 1));
+        var cached = cache.get(match);
+        if (cached == null) {
+            cached = gson.fromJson(Fixtures.matchJson(match, players), LOLMatch.class);
+            cache.set(match, cached);
+        }
+        return cached;
+    }
+}
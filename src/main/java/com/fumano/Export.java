@@ -0,0 +1,41 @@
+package com.fumano;
+
+import com.fumano.crawler.Config;
+import com.fumano.crawler.export.DatasetExport;
+import com.fumano.crawler.store.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+
+public class Export {
+
+    public static void main(String[] args) {
+        Logger logger = LoggerFactory.getLogger(Export.class);
+
+        if (args.length == 0) {
+            logger.error("export directory not set");
+            return;
+        }
+        boolean full = args.length > 1 && args[1].equals("--full");
+
+        try {
+            var config = Config.Load();
+            try (var database = Database.open(Config.DATA_SOURCE_FILE, config.sqlite())) {
+                var export = new DatasetExport(database, Paths.get(args[0]), Paths.get(Config.PAYLOAD_FOLDER),
+                        Paths.get(Config.ARCHIVE_FOLDER));
+                for (var result: export.run(full)) {
+                    System.out.println(result);
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("failed to start sql connection: {}", e.getMessage());
+        } catch (IOException e) {
+            logger.error("export failed: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.error("unexpected error: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.fumano;
+
+import com.fumano.crawler.Config;
+import com.fumano.crawler.graph.PlayerGraph;
+import com.fumano.crawler.store.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+
+public class Graph {
+
+    private static final int TOP = 20;
+    private static final int MAX_DEPTH = 6;
+
+    public static void main(String[] args) {
+        Logger logger = LoggerFactory.getLogger(Graph.class);
+
+        if (args.length == 0) {
+            logger.error("puuid not set");
+            return;
+        }
+
+        try {
+            var config = Config.Load();
+            try (var database = Database.open(Config.DATA_SOURCE_FILE, config.sqlite())) {
+                var graph = new PlayerGraph(database);
+                if (args.length > 1) {
+                    var distance = graph.distance(args[0], args[1], MAX_DEPTH);
+                    System.out.println(distance.isPresent()
+                            ? "%d matches apart".formatted(distance.getAsInt())
+                            : "not linked within %d matches".formatted(MAX_DEPTH));
+                    return;
+                }
+                for (var coPlayer: graph.topCoPlayers(args[0], TOP)) {
+                    System.out.printf("%s#%s %s %d\n", coPlayer.gameName(), coPlayer.tagLine(), coPlayer.puuid(),
+                            coPlayer.games());
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("failed to start sql connection: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.error("unexpected error: {}", e.getMessage());
+        }
+    }
+}
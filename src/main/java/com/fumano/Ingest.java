@@ -0,0 +1,72 @@
+package com.fumano;
+
+import com.fumano.crawler.Config;
+import com.fumano.crawler.FrontierScore;
+import com.fumano.crawler.ingest.MatchIngest;
+import com.fumano.crawler.metrics.Metrics;
+import com.fumano.crawler.store.Database;
+import com.fumano.crawler.store.PayloadStore;
+import com.fumano.crawler.store.SeenSet;
+import com.fumano.crawler.store.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Ingest {
+
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] args) {
+        Logger logger = LoggerFactory.getLogger(Ingest.class);
+
+        if (args.length < 2) {
+            logger.error("region and dump files or directories not set");
+            return;
+        }
+        String region = args[0];
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            inputs.add(Paths.get(args[i]));
+        }
+
+        try {
+            var config = Config.Load();
+            if (config.regions().stream().noneMatch(configured -> configured.name().equals(region))) {
+                logger.error("region {} is not configured", region);
+                return;
+            }
+            var dedup = config.dedup();
+            try (var database = Database.open(Config.DATA_SOURCE_FILE, config.sqlite())) {
+                var store = new Store(database, new SeenSet(dedup.recentKeys()), new SeenSet(dedup.recentKeys()),
+                        new Metrics());
+                PayloadStore payloadStore = null;
+                if (config.payloads().enabled()) {
+                    payloadStore = PayloadStore.open(Paths.get(Config.PAYLOAD_FOLDER), config.leasing().fileName(),
+                            config.payloads().segmentSize(), database);
+                }
+                try {
+                    var ingest = new MatchIngest(store, payloadStore, region, FrontierScore.create(config.frontier()),
+                            BATCH_SIZE, Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                            config.graph().enabled());
+                    System.out.println(ingest.run(inputs));
+                } finally {
+                    if (payloadStore != null) {
+                        payloadStore.close();
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("failed to start sql connection: {}", e.getMessage());
+        } catch (IOException e) {
+            logger.error("ingest failed: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.error("unexpected error: {}", e.getMessage());
+        }
+    }
+}
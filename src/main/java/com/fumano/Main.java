@@ -1,13 +1,14 @@
 package com.fumano;
 
 import com.fumano.crawler.Config;
-import com.fumano.crawler.Crawler;
+import com.fumano.crawler.CrawlScheduler;
 import com.fumano.crawler.exception.CrawlerException;
+import com.fumano.crawler.store.Database;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.time.Duration;
 
 public class Main {
 
@@ -15,22 +16,34 @@ public class Main {
         Logger logger = LoggerFactory.getLogger(Main.class);
 
         if (args.length == 0) {
-            logger.error("amount of matches to crawl not set");
+            logger.error("amount of matches to crawl or --daemon not set");
             return;
         }
 
-        int matches;
-        try {
-            matches = Integer.parseInt(args[0]);
-        } catch (NumberFormatException e) {
-            logger.error("first argument needs to be an integer");
-            return;
+        boolean daemon = args[0].equals("--daemon");
+        int matches = 0;
+        if (!daemon) {
+            try {
+                matches = Integer.parseInt(args[0]);
+            } catch (NumberFormatException e) {
+                logger.error("first argument needs to be an integer or --daemon");
+                return;
+            }
         }
 
-        try (var connection = DriverManager.getConnection("jdbc:sqlite:" + Config.DATA_SOURCE_FILE)) {
-            var crawler = Crawler.create(Config.Load(), connection);
-            crawler.crawlGames(matches);
-            crawler.fillMissingData();
+        try {
+            var config = Config.Load();
+            try (var database = Database.open(Config.DATA_SOURCE_FILE, config.sqlite());
+                 var crawler = CrawlScheduler.create(config, database)) {
+                stopOnShutdown(crawler, config.daemon().shutdownTimeout());
+                if (daemon) {
+                    crawler.runDaemon(config.daemon());
+                } else {
+                    crawler.startBackfill();
+                    crawler.crawlGames(matches);
+                    crawler.fillMissingData();
+                }
+            }
         } catch (SQLException e) {
             logger.error("failed to start sql connection: {}", e.getMessage());
         } catch (CrawlerException e) {
@@ -39,4 +52,20 @@ public class Main {
             logger.error("unexpected error: {}", e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * On SIGTERM or SIGINT the crawl is stopped and the shutdown waits for the main thread to drain in-flight
+     * requests, flush pending writes and release its leases before the process exits.
+     */
+    private static void stopOnShutdown(CrawlScheduler crawler, Duration timeout) {
+        var main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            crawler.stop();
+            try {
+                main.join(timeout.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "shutdown"));
+    }
+}
@@ -0,0 +1,47 @@
+package com.fumano;
+
+import com.fumano.crawler.Config;
+import com.fumano.crawler.maintenance.Maintenance;
+import com.fumano.crawler.metrics.Metrics;
+import com.fumano.crawler.store.Database;
+import com.fumano.crawler.store.SeenSet;
+import com.fumano.crawler.store.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Duration;
+
+public class Maintain {
+
+    public static void main(String[] args) {
+        Logger logger = LoggerFactory.getLogger(Maintain.class);
+
+        boolean fullVacuum = args.length > 0 && args[0].equals("--vacuum");
+
+        try {
+            var config = Config.Load();
+            try (var database = Database.open(Config.DATA_SOURCE_FILE, config.sqlite())) {
+                var store = new Store(database, new SeenSet(0), new SeenSet(0), new Metrics());
+                var maintenance = new Maintenance(store, config.maintenance(),
+                        Paths.get(Config.ARCHIVE_FOLDER, config.leasing().fileName()), new Metrics());
+                System.out.println("archived %d match ids".formatted(maintenance.archive()));
+                if (fullVacuum) {
+                    store.vacuum();
+                    System.out.println("vacuumed the database");
+                } else {
+                    System.out.println("freed %d pages".formatted(maintenance.vacuum(Duration.ofDays(1))));
+                }
+                maintenance.analyze();
+            }
+        } catch (SQLException e) {
+            logger.error("failed to start sql connection: {}", e.getMessage());
+        } catch (IOException e) {
+            logger.error("maintenance failed: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.error("unexpected error: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.fumano;
+
+import com.fumano.crawler.Config;
+import com.fumano.crawler.CrawlScheduler;
+import com.fumano.crawler.api.Endpoint;
+import com.fumano.crawler.api.RiotApi;
+import com.fumano.crawler.exception.CrawlerException;
+import com.fumano.crawler.simulation.ReplayRiotApi;
+import com.fumano.crawler.simulation.SimulatedRiotApi;
+import com.fumano.crawler.simulation.SyntheticRiotApi;
+import com.fumano.crawler.store.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs the crawler of the config file against the simulated riot api instead of the real one: the synthetic player
+ * graph of the {@code simulation.*} settings, or the responses recorded to the folder given as second argument. The
+ * crawl writes to a temporary database and leaves payloads, the snapshot and the archive alone. Reports matches per
+ * second and the share of the rate limit used for the crawl and the account backfill after it.
+ */
+public class Simulate {
+
+    public static void main(String[] args) {
+        Logger logger = LoggerFactory.getLogger(Simulate.class);
+
+        if (args.length == 0) {
+            logger.error("amount of matches to crawl not set");
+            return;
+        }
+        int matches;
+        try {
+            matches = Integer.parseInt(args[0]);
+        } catch (NumberFormatException e) {
+            logger.error("first argument needs to be an integer");
+            return;
+        }
+
+        Path directory = null;
+        try {
+            var config = isolated(Config.Load());
+            var simulation = config.simulation();
+            Map<String, SimulatedRiotApi> apis = new LinkedHashMap<>();
+            Map<String, ReplayRiotApi> replays = new LinkedHashMap<>();
+            for (var region: config.regions()) {
+                RiotApi api;
+                if (args.length > 1) {
+                    var replay = ReplayRiotApi.load(Paths.get(args[1], CrawlScheduler.recordingFile(region)));
+                    replays.put(region.name(), replay);
+                    api = replay;
+                } else {
+                    api = new SyntheticRiotApi(region.name(), simulation.seed(), simulation.players(),
+                            simulation.matchesPerPlayer());
+                }
+                apis.put(region.name(), new SimulatedRiotApi(api, simulation, config.rateLimits()));
+            }
+            directory = Files.createTempDirectory("simulation");
+            try (var database = Database.open(directory.resolve("data.sqlite").toString(), config.sqlite());
+                 var crawler = CrawlScheduler.create(config, database, region -> apis.get(region.name()))) {
+                apis.values().forEach(SimulatedRiotApi::reset);
+                long start = System.nanoTime();
+                crawler.startBackfill();
+                crawler.crawlGames(matches);
+                report("crawl", start, apis);
+                apis.values().forEach(SimulatedRiotApi::reset);
+                start = System.nanoTime();
+                crawler.fillMissingData();
+                report("backfill", start, apis);
+            }
+            replays.forEach((region, replay) ->
+                    System.out.printf("%s: %d requests were not recorded\n", region, replay.getMisses()));
+        } catch (SQLException e) {
+            logger.error("failed to start sql connection: {}", e.getMessage());
+        } catch (CrawlerException e) {
+            logger.error(e.getMessage());
+        } catch (IOException e) {
+            logger.error("simulation failed: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.error("unexpected error: {}", e.getMessage());
+        } finally {
+            delete(directory, logger);
+        }
+    }
+
+    private static void report(String phase, long start, Map<String, SimulatedRiotApi> apis) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        for (var entry: apis.entrySet()) {
+            var api = entry.getValue();
+            long matches = 0;
+            var lines = new StringBuilder();
+            for (var usage: api.getUsage()) {
+                if (usage.endpoint() == Endpoint.Match) {
+                    matches = usage.requests() - usage.notFound() - usage.throttled() - usage.errors();
+                }
+                lines.append("  %-16s %9d requests %7d not found %7d throttled %7d errors %6d ms mean latency\n"
+                        .formatted(usage.endpoint(), usage.requests(), usage.notFound(), usage.throttled(),
+                                usage.errors(), usage.meanLatency().toMillis()));
+            }
+            System.out.printf("%s %s: %.1fs, %d matches, %.1f matches/s, %.0f%% of the rate limit used\n%s", phase,
+                    entry.getKey(), seconds, matches, seconds > 0 ? matches / seconds : 0,
+                    api.getUtilisation() * 100, lines);
+        }
+    }
+
+    /**
+     * The crawler settings of {@code config} without the parts that would touch the files or ports of the real
+     * crawler.
+     */
+    private static Config isolated(Config config) {
+        var metrics = config.metrics();
+        return new Config(config.riotApiKey(), config.regions(), config.pipeline(), config.rateLimits(),
+                config.retry(), config.batch(), config.sqlite(), config.dedup(), config.refresh(),
+                new Config.Payloads(false, config.payloads().segmentSize()), config.backfill(),
+                new Config.MetricsExport(false, metrics.httpPort(), false), config.frontier(), config.leasing(),
+                config.daemon(), config.cache(), config.graph(),
+                new Config.Maintenance(false, config.maintenance().vacuumInterval(),
+                        config.maintenance().vacuumSlice(), config.maintenance().vacuumPages(),
+                        config.maintenance().archiveInterval(), config.maintenance().archiveKeep(),
+                        config.maintenance().archiveBatch(), config.maintenance().analyzeInterval(),
+                        config.maintenance().analyzeLimit()),
+                new Config.Snapshot(false, config.snapshot().file()), config.simulation());
+    }
+
+    private static void delete(Path directory, Logger logger) {
+        if (directory == null) {
+            return;
+        }
+        try (var files = Files.walk(directory)) {
+            for (var path: files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            logger.error("failed to delete '{}': {}", directory, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.fumano;
+
+import com.fumano.crawler.Config;
+import com.fumano.crawler.metrics.Metrics;
+import com.fumano.crawler.store.Database;
+import com.fumano.crawler.store.SeenSet;
+import com.fumano.crawler.store.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+
+public class Stats {
+
+    private static final int DAYS = 14;
+
+    public static void main(String[] args) {
+        Logger logger = LoggerFactory.getLogger(Stats.class);
+
+        int days = DAYS;
+        if (args.length > 0) {
+            try {
+                days = Integer.parseInt(args[0]);
+            } catch (NumberFormatException e) {
+                logger.error("'{}' is not a number of days", args[0]);
+                return;
+            }
+        }
+
+        try {
+            var config = Config.Load();
+            try (var database = Database.open(Config.DATA_SOURCE_FILE, config.sqlite())) {
+                var store = new Store(database, new SeenSet(0), new SeenSet(0), new Metrics());
+                for (var region: store.getRegionStats()) {
+                    System.out.printf("%s: %d accounts (%d pending, %d leased, %d crawled, %.1f%% with riot id), "
+                                    + "%d match ids (%d pending, %d leased, %d crawled, %d archived), %.1f match ids per account\n",
+                            region.region().isEmpty() ? "unassigned" : region.region(), region.accounts(),
+                            region.pendingAccounts(), region.leasedAccounts(), region.crawledAccounts(),
+                            region.completeness() * 100, region.matchIds(), region.pendingMatchIds(),
+                            region.leasedMatchIds(), region.crawledMatchIds(), region.archivedMatchIds(),
+                            region.matchIdsPerAccount());
+                }
+                for (var day: store.getDailyStats(days)) {
+                    System.out.printf("%s %s: %d accounts discovered, %d matches crawled\n", day.day(), day.region(),
+                            day.accounts(), day.matches());
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("failed to start sql connection: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.error("unexpected error: {}", e.getMessage());
+        }
+    }
+}
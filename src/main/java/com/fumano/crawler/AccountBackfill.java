@@ -0,0 +1,103 @@
+package com.fumano.crawler;
+
+import com.fumano.crawler.exception.CrawlerException;
+import com.fumano.crawler.model.Account;
+import com.fumano.crawler.store.Row;
+import com.fumano.crawler.store.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Completes accounts that were stored without a riot id. Incomplete accounts are paged by id through a partial
+ * index, looked up concurrently and written back one page per transaction together with the backfill cursor, so an
+ * interrupted run resumes at the last committed page. In follow mode the backfill keeps polling for accounts added
+ * by a concurrent crawl until it is told to stop. A stopped backfill drops the page it was looking up, the page is
+ * looked up again by the next run.
+ */
+class AccountBackfill {
+
+    private static final long IDLE_POLL_MILLIS = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(AccountBackfill.class);
+    private final Store store;
+    private final Lookup lookup;
+    private final int concurrency;
+    private final int batchSize;
+    private final BooleanSupplier stopping;
+
+    AccountBackfill(Store store, Lookup lookup, Config.Backfill config, BooleanSupplier stopping) {
+        this.store = store;
+        this.lookup = lookup;
+        this.stopping = stopping;
+        this.concurrency = config.concurrency();
+        this.batchSize = config.batchSize();
+    }
+
+    int run(long cursor, BooleanSupplier follow, Progress progress) throws CrawlerException {
+        var lookups = Executors.newFixedThreadPool(concurrency);
+        int completed = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted() && !stopping.getAsBoolean()) {
+                var page = store.getIncompleteAccountsAfter(cursor, batchSize);
+                if (page.isEmpty()) {
+                    if (!follow.getAsBoolean()) {
+                        break;
+                    }
+                    Thread.sleep(IDLE_POLL_MILLIS);
+                    continue;
+                }
+                List<Future<Account>> pending = new ArrayList<>(page.size());
+                for (var row: page) {
+                    pending.add(lookups.submit(() -> lookup.lookup(row.value())));
+                }
+                List<Account> accounts = new ArrayList<>(page.size());
+                List<String> missing = new ArrayList<>();
+                for (int i = 0; i < page.size(); i++) {
+                    var account = await(page.get(i), pending.get(i));
+                    if (account == null) {
+                        logger.error("account with puuid '%s' not found, deleting account".formatted(page.get(i).value()));
+                        missing.add(page.get(i).value());
+                    } else {
+                        accounts.add(account);
+                    }
+                    if (progress != null) {
+                        progress.increase();
+                    }
+                }
+                cursor = page.get(page.size() - 1).id();
+                store.completeAccounts(accounts, missing, cursor);
+                completed += page.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (CrawlerException e) {
+            if (!stopping.getAsBoolean()) {
+                throw e;
+            }
+        } finally {
+            lookups.shutdownNow();
+        }
+        return completed;
+    }
+
+    private Account await(Row<String> row, Future<Account> account) throws CrawlerException, InterruptedException {
+        try {
+            return account.get();
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof CrawlerException crawlerException) {
+                throw crawlerException;
+            }
+            throw new CrawlerException("failed to look up account '%s': %s".formatted(row.value(), cause));
+        }
+    }
+
+    interface Lookup {
+        Account lookup(String puuid) throws CrawlerException;
+    }
+}
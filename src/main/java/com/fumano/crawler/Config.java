@@ -1,21 +1,222 @@
 package com.fumano.crawler;
 
+import com.fumano.crawler.api.Endpoint;
+import com.fumano.crawler.api.RateLimit;
+import com.fumano.crawler.exception.InvalidConfigFieldException;
 import com.fumano.crawler.exception.MissingConfigFieldException;
+import com.fumano.crawler.store.SqliteProfile;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
-public record Config(String riotApiKey, String riotApiRegion, String crawlerSeedGameName, String crawlerSeedTagLine) {
+public record Config(String riotApiKey, List<Region> regions, Pipeline pipeline, RateLimits rateLimits, Retry retry, Batch batch,
+                     SqliteProfile sqlite, Dedup dedup, Refresh refresh, Payloads payloads,
+                     Backfill backfill, MetricsExport metrics, Frontier frontier, Leasing leasing,
+                     Daemon daemon, Cache cache, Graph graph, Maintenance maintenance, Snapshot snapshot,
+                     Simulation simulation) {
 
     public static final String RIOTAPI_KEY_FIELD = "riotapi.key";
     public static final String RIOTAPI_REGION_FIELD = "riotapi.region";
     public static final String CRAWLER_SEED_GAMENAME = "crawler.seed.gamename";
     public static final String CRAWLER_SEED_TAGLINE = "crawler.seed.tagline";
+    public static final String CRAWLER_CONCURRENCY = "crawler.concurrency";
+    public static final String CRAWLER_QUEUE_DEPTH = "crawler.queue.depth";
+    public static final String CRAWLER_RETRY_ATTEMPTS = "crawler.retry.attempts";
+    public static final String CRAWLER_RETRY_DELAY_BASE = "crawler.retry.delay.base.ms";
+    public static final String CRAWLER_RETRY_DELAY_MAX = "crawler.retry.delay.max.ms";
+    public static final String CRAWLER_RETRY_BUDGET = "crawler.retry.budget";
+    public static final String CRAWLER_BREAKER_FAILURES = "crawler.breaker.failures";
+    public static final String CRAWLER_BREAKER_COOLDOWN = "crawler.breaker.cooldown.ms";
+    public static final String STORE_FLUSH_SIZE = "store.flush.size";
+    public static final String STORE_FLUSH_INTERVAL = "store.flush.interval.ms";
+    public static final String SQLITE_JOURNAL_MODE = "sqlite.journal_mode";
+    public static final String SQLITE_SYNCHRONOUS = "sqlite.synchronous";
+    public static final String SQLITE_MMAP_SIZE = "sqlite.mmap_size";
+    public static final String SQLITE_CACHE_SIZE = "sqlite.cache_size";
+    public static final String SQLITE_TEMP_STORE = "sqlite.temp_store";
+    public static final String SQLITE_PAGE_SIZE = "sqlite.page_size";
+    public static final String SQLITE_CHECKPOINT_INTERVAL = "sqlite.checkpoint.interval.ms";
+    public static final String SQLITE_READ_CONNECTIONS = "sqlite.read.connections";
+    public static final String DEDUP_RECENT_KEYS = "dedup.recent.keys";
+    public static final String CRAWLER_REFRESH_ENABLED = "crawler.refresh.enabled";
+    public static final String CRAWLER_REFRESH_INTERVAL_MIN = "crawler.refresh.interval.min.hours";
+    public static final String CRAWLER_REFRESH_INTERVAL_MAX = "crawler.refresh.interval.max.hours";
+    public static final String CRAWLER_BACKFILL_ALONGSIDE = "crawler.backfill.alongside";
+    public static final String CRAWLER_BACKFILL_CONCURRENCY = "crawler.backfill.concurrency";
+    public static final String CRAWLER_BACKFILL_BATCH = "crawler.backfill.batch";
+    public static final String CRAWLER_FRONTIER_SCORE = "crawler.frontier.score";
+    public static final String CRAWLER_FRONTIER_QUEUES = "crawler.frontier.queues";
+    public static final String CRAWLER_FRONTIER_WATERMARK = "crawler.frontier.watermark";
+    public static final String CRAWLER_NODE = "crawler.node";
+    public static final String CRAWLER_LEASE_TTL = "crawler.lease.ttl.ms";
+    public static final String CRAWLER_DAEMON_REFRESH_INTERVAL = "crawler.daemon.refresh.interval.minutes";
+    public static final String CRAWLER_DAEMON_REFRESH_BATCH = "crawler.daemon.refresh.batch";
+    public static final String CRAWLER_DAEMON_BACKFILL_INTERVAL = "crawler.daemon.backfill.interval.minutes";
+    public static final String CRAWLER_DAEMON_HEADROOM = "crawler.daemon.headroom";
+    public static final String CRAWLER_DAEMON_BACKOFF_MAX = "crawler.daemon.backoff.max.seconds";
+    public static final String CRAWLER_DAEMON_SHUTDOWN_TIMEOUT = "crawler.daemon.shutdown.timeout.seconds";
+    public static final String CACHE_ENABLED = "cache.enabled";
+    public static final String CACHE_SIZE = "cache.size.mb";
+    public static final String CACHE_MEMORY_ENTRIES = "cache.memory.entries";
+    public static final String CACHE_TTL_PREFIX = "cache.ttl.";
+    public static final String GRAPH_ENABLED = "graph.enabled";
+    public static final String MAINTENANCE_ENABLED = "maintenance.enabled";
+    public static final String MAINTENANCE_VACUUM_INTERVAL = "maintenance.vacuum.interval.seconds";
+    public static final String MAINTENANCE_VACUUM_SLICE = "maintenance.vacuum.slice.ms";
+    public static final String MAINTENANCE_VACUUM_PAGES = "maintenance.vacuum.pages";
+    public static final String MAINTENANCE_ARCHIVE_INTERVAL = "maintenance.archive.interval.minutes";
+    public static final String MAINTENANCE_ARCHIVE_KEEP = "maintenance.archive.keep";
+    public static final String MAINTENANCE_ARCHIVE_BATCH = "maintenance.archive.batch";
+    public static final String MAINTENANCE_ANALYZE_INTERVAL = "maintenance.analyze.interval.hours";
+    public static final String MAINTENANCE_ANALYZE_LIMIT = "maintenance.analyze.limit";
+    public static final String SNAPSHOT_ENABLED = "snapshot.enabled";
+    public static final String SNAPSHOT_FILE = "snapshot.file";
+    public static final String SIMULATION_SEED = "simulation.seed";
+    public static final String SIMULATION_PLAYERS = "simulation.players";
+    public static final String SIMULATION_MATCHES_PER_PLAYER = "simulation.matches.per.player";
+    public static final String SIMULATION_LATENCY_MEDIAN = "simulation.latency.median.ms";
+    public static final String SIMULATION_LATENCY_P99 = "simulation.latency.p99.ms";
+    public static final String SIMULATION_NOT_FOUND = "simulation.fault.notfound";
+    public static final String SIMULATION_RATE_LIMITED = "simulation.fault.ratelimited";
+    public static final String SIMULATION_ERROR = "simulation.fault.error";
+    public static final String SIMULATION_RECORD_FOLDER = "simulation.record.folder";
+    public static final String METRICS_HTTP_ENABLED = "metrics.http.enabled";
+    public static final String METRICS_HTTP_PORT = "metrics.http.port";
+    public static final String METRICS_JMX_ENABLED = "metrics.jmx.enabled";
+    public static final String PAYLOADS_ENABLED = "payloads.enabled";
+    public static final String PAYLOADS_SEGMENT_SIZE = "payloads.segment.size.mb";
+    public static final String RIOTAPI_RATELIMIT_PREFIX = "riotapi.ratelimit.";
+    public static final String RIOTAPI_RATELIMIT_APP = RIOTAPI_RATELIMIT_PREFIX + "app";
     public static final String CRAWLER_FOLDER = Paths.get(System.getProperty("user.home"), "lol-tools", "crawler").toString();
     public static final String DATA_SOURCE_FILE = Paths.get(CRAWLER_FOLDER, "data.sqlite").toString();
+    public static final String PAYLOAD_FOLDER = Paths.get(CRAWLER_FOLDER, "payloads").toString();
+    public static final String ARCHIVE_FOLDER = Paths.get(CRAWLER_FOLDER, "archive").toString();
+    public static final String SNAPSHOT_FOLDER = Paths.get(CRAWLER_FOLDER, "snapshots").toString();
     public static final String CONFIG_FILE = Paths.get(CRAWLER_FOLDER, "application.properties").toString();
 
+    /**
+     * A platform crawled by this process, e.g. EUW1, with the account the crawl of that platform starts from.
+     */
+    public record Region(String name, String seedGameName, String seedTagLine) {
+    }
+
+    public record Pipeline(int concurrency, int queueDepth) {
+    }
+
+    public record Retry(int attempts, Duration baseDelay, Duration maxDelay, double budgetRatio,
+                        int breakerFailures, Duration breakerCooldown) {
+    }
+
+    public record Batch(int flushSize, Duration flushInterval) {
+    }
+
+    public record Dedup(int recentKeys) {
+    }
+
+    public record Refresh(boolean enabled, Duration minInterval, Duration maxInterval) {
+    }
+
+    public record Payloads(boolean enabled, long segmentSize) {
+    }
+
+    public record Backfill(boolean alongside, int concurrency, int batchSize) {
+    }
+
+    public record MetricsExport(boolean httpEnabled, int httpPort, boolean jmxEnabled) {
+    }
+
+    /**
+     * Weights of the {@link FrontierScore} strategies, the score added per queue name for participants of matches of
+     * that queue and the number of pending match ids below which accounts are expanded.
+     */
+    public record Frontier(Map<String, Integer> score, Map<String, Integer> queues, int matchWatermark) {
+    }
+
+    /**
+     * Name under which this process leases work from a dataset shared with other crawler processes, and how long a
+     * lease outlives the last heartbeat of its owner. {@code storage} names what the node keeps across restarts, the
+     * node itself if {@value #CRAWLER_NODE} is set and the host name otherwise.
+     */
+    public record Leasing(String node, Duration ttl, String storage) {
+
+        /**
+         * The storage name as a file name, for the payload segments, archive files and snapshot only this node writes.
+         */
+        public String fileName() {
+            return fileName(storage);
+        }
+
+        private static String fileName(String node) {
+            return node.replaceAll("[^\\w.-]|^\\.", "_");
+        }
+    }
+
+    /**
+     * Schedule of the background jobs of daemon mode. The crawl leaves {@code headroom} of every rate limit window
+     * free for the jobs, a region that stops making progress waits up to {@code maxBackoff} before it tries again and
+     * a shutdown waits up to {@code shutdownTimeout} for in-flight requests and writes.
+     */
+    public record Daemon(Duration refreshInterval, int refreshBatch, Duration backfillInterval, double headroom,
+                         Duration maxBackoff, Duration shutdownTimeout) {
+    }
+
+    /**
+     * Riot api responses cached on disk up to {@code maxBytes}, the most recently used ones also in memory, and how
+     * long the responses of each endpoint stay valid, {@link Duration#ZERO} for forever.
+     */
+    public record Cache(boolean enabled, long maxBytes, int memoryEntries, Map<Endpoint, Duration> ttls) {
+    }
+
+    /**
+     * Whether the co-plays between accounts are counted as matches are committed.
+     */
+    public record Graph(boolean enabled) {
+    }
+
+    /**
+     * Background upkeep of the database in daemon mode. Every {@code vacuumInterval} free pages are returned to the
+     * file system for up to {@code vacuumSlice}, {@code vacuumPages} per transaction. Every {@code archiveInterval}
+     * crawled match ids older than the newest {@code archiveKeep} move to archive files, {@code archiveBatch} per
+     * file, and every {@code analyzeInterval} the planner statistics are refreshed from {@code analyzeLimit} rows per
+     * index.
+     */
+    public record Maintenance(boolean enabled, Duration vacuumInterval, Duration vacuumSlice, int vacuumPages,
+                              Duration archiveInterval, int archiveKeep, int archiveBatch, Duration analyzeInterval,
+                              int analyzeLimit) {
+    }
+
+    /**
+     * Warm start state written to {@code file} when the crawler shuts down and read back when it starts, by default a
+     * file per node in {@value #SNAPSHOT_FOLDER}.
+     */
+    public record Snapshot(boolean enabled, String file) {
+    }
+
+    /**
+     * Synthetic riot api of the simulation: {@code players} accounts generated from {@code seed} that play
+     * {@code matchesPerPlayer} matches each, response latencies drawn from a log-normal distribution with the given
+     * median and 99th percentile, and the share of requests failing with 404, 429 or 503. Responses of the real api
+     * are recorded to one file per region in {@code recordFolder} unless it is empty, responses served from the
+     * response cache are not, so a session meant for replay is recorded with the cache disabled.
+     */
+    public record Simulation(long seed, long players, int matchesPerPlayer, Duration latencyMedian,
+                             Duration latencyP99, double notFoundRate, double rateLimitedRate, double errorRate,
+                             String recordFolder) {
+    }
+
+    public record RateLimits(List<RateLimit> application, Map<Endpoint, List<RateLimit>> methods) {
+    }
+
     public static Config Load() {
         Properties properties = new Properties();
         File file = new File(CONFIG_FILE);
@@ -33,7 +234,10 @@ public record Config(String riotApiKey, String riotApiRegion, String crawlerSeed
                         RIOTAPI_KEY_FIELD + "=",
                         RIOTAPI_REGION_FIELD + "=",
                         CRAWLER_SEED_GAMENAME + "=",
-                        CRAWLER_SEED_TAGLINE + "="
+                        CRAWLER_SEED_TAGLINE + "=",
+                        CRAWLER_CONCURRENCY + "=1",
+                        CRAWLER_QUEUE_DEPTH + "=64",
+                        RIOTAPI_RATELIMIT_APP + "=20:1,100:120"
                         ));
             } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -45,13 +249,100 @@ public record Config(String riotApiKey, String riotApiRegion, String crawlerSeed
             throw new RuntimeException(e);
         }
         try {
+            String storage = getOrDefault(properties, CRAWLER_NODE, getHostName());
+            String node = getOrDefault(properties, CRAWLER_NODE, storage + "-" + ProcessHandle.current().pid());
             return new Config(
                     getOrThrowMissing(properties, RIOTAPI_KEY_FIELD),
-                    getOrThrowMissing(properties, RIOTAPI_REGION_FIELD),
-                    getOrThrowMissing(properties, CRAWLER_SEED_GAMENAME),
-                    getOrThrowMissing(properties, CRAWLER_SEED_TAGLINE)
+                    getRegions(properties),
+                    new Pipeline(
+                            getPositiveIntOrDefault(properties, CRAWLER_CONCURRENCY, 1),
+                            getPositiveIntOrDefault(properties, CRAWLER_QUEUE_DEPTH, 64)
+                    ),
+                    getRateLimits(properties),
+                    new Retry(
+                            getPositiveIntOrDefault(properties, CRAWLER_RETRY_ATTEMPTS, 4),
+                            Duration.ofMillis(getPositiveIntOrDefault(properties, CRAWLER_RETRY_DELAY_BASE, 500)),
+                            Duration.ofMillis(getPositiveIntOrDefault(properties, CRAWLER_RETRY_DELAY_MAX, 30000)),
+                            getPositiveDoubleOrDefault(properties, CRAWLER_RETRY_BUDGET, 0.2),
+                            getPositiveIntOrDefault(properties, CRAWLER_BREAKER_FAILURES, 10),
+                            Duration.ofMillis(getPositiveIntOrDefault(properties, CRAWLER_BREAKER_COOLDOWN, 30000))
+                    ),
+                    new Batch(
+                            getPositiveIntOrDefault(properties, STORE_FLUSH_SIZE, 50),
+                            Duration.ofMillis(getPositiveIntOrDefault(properties, STORE_FLUSH_INTERVAL, 2000))
+                    ),
+                    getSqliteProfile(properties),
+                    new Dedup(getPositiveIntOrDefault(properties, DEDUP_RECENT_KEYS, 100_000)),
+                    new Refresh(
+                            getBooleanOrDefault(properties, CRAWLER_REFRESH_ENABLED, true),
+                            Duration.ofHours(getPositiveIntOrDefault(properties, CRAWLER_REFRESH_INTERVAL_MIN, 6)),
+                            Duration.ofHours(getPositiveIntOrDefault(properties, CRAWLER_REFRESH_INTERVAL_MAX, 336))
+                    ),
+                    new Payloads(
+                            getBooleanOrDefault(properties, PAYLOADS_ENABLED, true),
+                            (long) getPositiveIntOrDefault(properties, PAYLOADS_SEGMENT_SIZE, 256) << 20
+                    ),
+                    new Backfill(
+                            getBooleanOrDefault(properties, CRAWLER_BACKFILL_ALONGSIDE, true),
+                            getPositiveIntOrDefault(properties, CRAWLER_BACKFILL_CONCURRENCY, 4),
+                            getPositiveIntOrDefault(properties, CRAWLER_BACKFILL_BATCH, 100)
+                    ),
+                    new MetricsExport(
+                            getBooleanOrDefault(properties, METRICS_HTTP_ENABLED, false),
+                            getPositiveIntOrDefault(properties, METRICS_HTTP_PORT, 9464),
+                            getBooleanOrDefault(properties, METRICS_JMX_ENABLED, true)
+                    ),
+                    new Frontier(
+                            getWeightsOrDefault(properties, CRAWLER_FRONTIER_SCORE, "recency:1,depth:20,queue:1",
+                                    FrontierScore.STRATEGIES),
+                            getWeightsOrDefault(properties, CRAWLER_FRONTIER_QUEUES,
+                                    "TEAM_BUILDER_RANKED_SOLO:100,RANKED_FLEX_SR:50", null),
+                            getPositiveIntOrDefault(properties, CRAWLER_FRONTIER_WATERMARK, 1000)
+                    ),
+                    new Leasing(
+                            node,
+                            Duration.ofMillis(getPositiveIntOrDefault(properties, CRAWLER_LEASE_TTL, 60000)),
+                            storage
+                    ),
+                    new Daemon(
+                            Duration.ofMinutes(
+                                    getPositiveIntOrDefault(properties, CRAWLER_DAEMON_REFRESH_INTERVAL, 15)),
+                            getPositiveIntOrDefault(properties, CRAWLER_DAEMON_REFRESH_BATCH, 100),
+                            Duration.ofMinutes(
+                                    getPositiveIntOrDefault(properties, CRAWLER_DAEMON_BACKFILL_INTERVAL, 10)),
+                            getFractionOrDefault(properties, CRAWLER_DAEMON_HEADROOM, 0.25),
+                            Duration.ofSeconds(getPositiveIntOrDefault(properties, CRAWLER_DAEMON_BACKOFF_MAX, 300)),
+                            Duration.ofSeconds(
+                                    getPositiveIntOrDefault(properties, CRAWLER_DAEMON_SHUTDOWN_TIMEOUT, 30))
+                    ),
+                    new Cache(
+                            getBooleanOrDefault(properties, CACHE_ENABLED, true),
+                            (long) getPositiveIntOrDefault(properties, CACHE_SIZE, 1024) << 20,
+                            getPositiveIntOrDefault(properties, CACHE_MEMORY_ENTRIES, 1000),
+                            getCacheTtls(properties)
+                    ),
+                    new Graph(
+                            getBooleanOrDefault(properties, GRAPH_ENABLED, true)
+                    ),
+                    new Maintenance(
+                            getBooleanOrDefault(properties, MAINTENANCE_ENABLED, true),
+                            Duration.ofSeconds(getPositiveIntOrDefault(properties, MAINTENANCE_VACUUM_INTERVAL, 10)),
+                            Duration.ofMillis(getPositiveIntOrDefault(properties, MAINTENANCE_VACUUM_SLICE, 100)),
+                            getPositiveIntOrDefault(properties, MAINTENANCE_VACUUM_PAGES, 64),
+                            Duration.ofMinutes(getPositiveIntOrDefault(properties, MAINTENANCE_ARCHIVE_INTERVAL, 60)),
+                            getPositiveIntOrDefault(properties, MAINTENANCE_ARCHIVE_KEEP, 1_000_000),
+                            getPositiveIntOrDefault(properties, MAINTENANCE_ARCHIVE_BATCH, 10_000),
+                            Duration.ofHours(getPositiveIntOrDefault(properties, MAINTENANCE_ANALYZE_INTERVAL, 24)),
+                            getPositiveIntOrDefault(properties, MAINTENANCE_ANALYZE_LIMIT, 1000)
+                    ),
+                    new Snapshot(
+                            getBooleanOrDefault(properties, SNAPSHOT_ENABLED, true),
+                            getOrDefault(properties, SNAPSHOT_FILE,
+                                    Paths.get(SNAPSHOT_FOLDER, Leasing.fileName(storage) + ".snapshot").toString())
+                    ),
+                    getSimulation(properties)
             );
-        } catch (MissingConfigFieldException e) {
+        } catch (MissingConfigFieldException | InvalidConfigFieldException e) {
             throw new RuntimeException(e);
         }
     }
@@ -63,4 +354,244 @@ public record Config(String riotApiKey, String riotApiRegion, String crawlerSeed
         }
         return value;
     }
+
+    private static String getOrDefault(Properties properties, String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    /**
+     * Host name the payload segments, archive and snapshot of a node without {@value #CRAWLER_NODE} are kept under,
+     * the same on every start. Its lease owner adds the pid, so leases of a crashed run expire instead of being released
+     * on the next start. Processes sharing a host need {@value #CRAWLER_NODE} set to keep their files apart.
+     */
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    /**
+     * Reads the comma separated platforms of {@value #RIOTAPI_REGION_FIELD}. Every platform can set its own seed
+     * account by suffixing the seed keys with the platform, e.g. {@code crawler.seed.gamename.NA1}, and falls back to
+     * the unsuffixed seed otherwise.
+     */
+    private static List<Region> getRegions(Properties properties)
+            throws MissingConfigFieldException, InvalidConfigFieldException {
+        String value = getOrThrowMissing(properties, RIOTAPI_REGION_FIELD);
+        List<Region> regions = new ArrayList<>();
+        for (String part: value.split(",")) {
+            String name = part.trim().toUpperCase();
+            if (name.isEmpty() || regions.stream().anyMatch(region -> region.name().equals(name))) {
+                throw new InvalidConfigFieldException(RIOTAPI_REGION_FIELD, value);
+            }
+            regions.add(new Region(name,
+                    getSeedOrThrowMissing(properties, CRAWLER_SEED_GAMENAME, name),
+                    getSeedOrThrowMissing(properties, CRAWLER_SEED_TAGLINE, name)));
+        }
+        return regions;
+    }
+
+    private static String getSeedOrThrowMissing(Properties properties, String key, String region)
+            throws MissingConfigFieldException {
+        String value = properties.getProperty(key + "." + region);
+        if (value == null || value.isEmpty()) {
+            return getOrThrowMissing(properties, key);
+        }
+        return value;
+    }
+
+    private static SqliteProfile getSqliteProfile(Properties properties) throws InvalidConfigFieldException {
+        var defaults = SqliteProfile.DEFAULT;
+        return new SqliteProfile(
+                getOneOfOrDefault(properties, SQLITE_JOURNAL_MODE, SqliteProfile.JOURNAL_MODES, defaults.journalMode()),
+                getOneOfOrDefault(properties, SQLITE_SYNCHRONOUS, SqliteProfile.SYNCHRONOUS_LEVELS,
+                        defaults.synchronous()),
+                getLongOrDefault(properties, SQLITE_MMAP_SIZE, defaults.mmapSize()),
+                (int) getLongOrDefault(properties, SQLITE_CACHE_SIZE, defaults.cacheSize()),
+                getOneOfOrDefault(properties, SQLITE_TEMP_STORE, SqliteProfile.TEMP_STORES, defaults.tempStore()),
+                getPositiveIntOrDefault(properties, SQLITE_PAGE_SIZE, defaults.pageSize()),
+                Duration.ofMillis(getPositiveIntOrDefault(properties, SQLITE_CHECKPOINT_INTERVAL,
+                        (int) defaults.checkpointInterval().toMillis())),
+                getPositiveIntOrDefault(properties, SQLITE_READ_CONNECTIONS, defaults.readConnections())
+        );
+    }
+
+    private static String getOneOfOrDefault(Properties properties, String key, Set<String> allowed,
+                                            String defaultValue) throws InvalidConfigFieldException {
+        String value = properties.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        String normalized = value.trim().toUpperCase();
+        if (!allowed.contains(normalized)) {
+            throw new InvalidConfigFieldException(key, value);
+        }
+        return normalized;
+    }
+
+    private static boolean getBooleanOrDefault(Properties properties, String key, boolean defaultValue)
+            throws InvalidConfigFieldException {
+        String value = properties.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return switch (value.trim().toLowerCase()) {
+            case "true" -> true;
+            case "false" -> false;
+            default -> throw new InvalidConfigFieldException(key, value);
+        };
+    }
+
+    private static long getLongOrDefault(Properties properties, String key, long defaultValue)
+            throws InvalidConfigFieldException {
+        String value = properties.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new InvalidConfigFieldException(key, value);
+        }
+    }
+
+    /**
+     * Reads comma separated {@code name:weight} pairs, restricted to the {@code allowed} names unless it is null.
+     */
+    private static Map<String, Integer> getWeightsOrDefault(Properties properties, String key, String defaultValue,
+                                                            Set<String> allowed) throws InvalidConfigFieldException {
+        String value = properties.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            value = defaultValue;
+        }
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part: value.split(",")) {
+            String[] pair = part.trim().split(":");
+            if (pair.length != 2 || (allowed != null && !allowed.contains(pair[0].trim()))) {
+                throw new InvalidConfigFieldException(key, value);
+            }
+            try {
+                weights.put(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+            } catch (NumberFormatException e) {
+                throw new InvalidConfigFieldException(key, value);
+            }
+        }
+        return weights;
+    }
+
+    private static Map<Endpoint, Duration> getCacheTtls(Properties properties) throws InvalidConfigFieldException {
+        Map<Endpoint, Duration> ttls = new EnumMap<>(Endpoint.class);
+        for (var endpoint: Endpoint.values()) {
+            String key = CACHE_TTL_PREFIX + endpoint + ".minutes";
+            long minutes = getLongOrDefault(properties, key, endpoint.getDefaultCacheMinutes());
+            if (minutes < 0) {
+                throw new InvalidConfigFieldException(key, properties.getProperty(key));
+            }
+            ttls.put(endpoint, Duration.ofMinutes(minutes));
+        }
+        return ttls;
+    }
+
+    private static RateLimits getRateLimits(Properties properties) throws InvalidConfigFieldException {
+        Map<Endpoint, List<RateLimit>> methods = new EnumMap<>(Endpoint.class);
+        for (var endpoint: Endpoint.values()) {
+            methods.put(endpoint, getRateLimitsOrDefault(properties, RIOTAPI_RATELIMIT_PREFIX + endpoint,
+                    endpoint.getDefaultLimits()));
+        }
+        return new RateLimits(getRateLimitsOrDefault(properties, RIOTAPI_RATELIMIT_APP, "20:1,100:120"), methods);
+    }
+
+    private static List<RateLimit> getRateLimitsOrDefault(Properties properties, String key, String defaultValue)
+            throws InvalidConfigFieldException {
+        String value = properties.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            value = defaultValue;
+        }
+        try {
+            return RateLimit.parse(value);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidConfigFieldException(key, value);
+        }
+    }
+
+    private static Simulation getSimulation(Properties properties) throws InvalidConfigFieldException {
+        long players = getLongOrDefault(properties, SIMULATION_PLAYERS, 1_000_000);
+        if (players < 10) {
+            throw new InvalidConfigFieldException(SIMULATION_PLAYERS, properties.getProperty(SIMULATION_PLAYERS));
+        }
+        long median = getLongOrDefault(properties, SIMULATION_LATENCY_MEDIAN, 50);
+        long p99 = getLongOrDefault(properties, SIMULATION_LATENCY_P99, 250);
+        if (median < 0 || p99 < median) {
+            throw new InvalidConfigFieldException(SIMULATION_LATENCY_P99,
+                    properties.getProperty(SIMULATION_LATENCY_P99));
+        }
+        return new Simulation(
+                getLongOrDefault(properties, SIMULATION_SEED, 1),
+                players,
+                getPositiveIntOrDefault(properties, SIMULATION_MATCHES_PER_PLAYER, 20),
+                Duration.ofMillis(median),
+                Duration.ofMillis(p99),
+                getFractionOrDefault(properties, SIMULATION_NOT_FOUND, 0.001),
+                getFractionOrDefault(properties, SIMULATION_RATE_LIMITED, 0.001),
+                getFractionOrDefault(properties, SIMULATION_ERROR, 0.002),
+                getOrDefault(properties, SIMULATION_RECORD_FOLDER, "")
+        );
+    }
+
+    private static double getFractionOrDefault(Properties properties, String key, double defaultValue)
+            throws InvalidConfigFieldException {
+        String value = properties.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            double parsed = Double.parseDouble(value.trim());
+            if (!(parsed >= 0 && parsed <= 1)) {
+                throw new InvalidConfigFieldException(key, value);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new InvalidConfigFieldException(key, value);
+        }
+    }
+
+    private static int getPositiveIntOrDefault(Properties properties, String key, int defaultValue)
+            throws InvalidConfigFieldException {
+        String value = properties.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed <= 0) {
+                throw new InvalidConfigFieldException(key, value);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new InvalidConfigFieldException(key, value);
+        }
+    }
+
+    private static double getPositiveDoubleOrDefault(Properties properties, String key, double defaultValue)
+            throws InvalidConfigFieldException {
+        String value = properties.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            double parsed = Double.parseDouble(value.trim());
+            if (!(parsed > 0)) {
+                throw new InvalidConfigFieldException(key, value);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new InvalidConfigFieldException(key, value);
+        }
+    }
 }
@@ -0,0 +1,418 @@
+package com.fumano.crawler;
+
+import com.fumano.crawler.api.R4JRiotApi;
+import com.fumano.crawler.api.RateLimiter;
+import com.fumano.crawler.api.RiotApi;
+import com.fumano.crawler.cache.ResponseCache;
+import com.fumano.crawler.exception.CrawlerException;
+import com.fumano.crawler.exception.InvalidConfigFieldException;
+import com.fumano.crawler.maintenance.Maintenance;
+import com.fumano.crawler.metrics.Metrics;
+import com.fumano.crawler.metrics.MetricsMBean;
+import com.fumano.crawler.metrics.MetricsServer;
+import com.fumano.crawler.simulation.RecordingRiotApi;
+import com.fumano.crawler.store.BatchWriter;
+import com.fumano.crawler.store.Database;
+import com.fumano.crawler.store.PayloadStore;
+import com.fumano.crawler.store.SeenSet;
+import com.fumano.crawler.store.SqliteWorkLease;
+import com.fumano.crawler.store.Store;
+import com.fumano.crawler.store.WorkLease;
+import no.stelar7.api.r4j.basic.APICredentials;
+import no.stelar7.api.r4j.basic.cache.impl.EmptyCacheProvider;
+import no.stelar7.api.r4j.basic.calling.DataCall;
+import no.stelar7.api.r4j.basic.constants.api.regions.LeagueShard;
+import no.stelar7.api.r4j.impl.R4J;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs one {@link Crawler} per configured region over the shared store. Every region has its own rate limiter,
+ * retry handler and frontier, so the regions use their quotas independently and at the same time. Matches are handed
+ * out in small chunks to whichever region asks next, so a region held back by its limits or by errors simply takes
+ * fewer of them. In daemon mode every region crawls until the scheduler is stopped, while refreshes and account
+ * backfills run as scheduled jobs in the rate limit budget the crawl leaves over, next to the {@link Maintenance} of
+ * the database.
+ */
+public class CrawlScheduler implements AutoCloseable {
+
+    private static final int CHUNK_SIZE = 25;
+    private static final long MIN_BACKOFF_MILLIS = 1000;
+    private static final long REPORT_MINUTES = 1;
+
+    private final Logger logger = LoggerFactory.getLogger(CrawlScheduler.class);
+    private final List<Crawler> crawlers = new ArrayList<>();
+    private final Store store;
+    private final PayloadStore payloadStore;
+    private final WorkLease workLease;
+    private final Map<String, RateLimiter> rateLimiters = new LinkedHashMap<>();
+    private final List<RecordingRiotApi> recordings = new ArrayList<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final SeenSet seenAccounts;
+    private final SeenSet seenMatchIds;
+    private MetricsServer metricsServer;
+    private Maintenance maintenance;
+    private Path snapshot;
+
+    private CrawlScheduler(Store store, PayloadStore payloadStore, WorkLease workLease, SeenSet seenAccounts,
+                           SeenSet seenMatchIds) {
+        this.store = store;
+        this.payloadStore = payloadStore;
+        this.workLease = workLease;
+        this.seenAccounts = seenAccounts;
+        this.seenMatchIds = seenMatchIds;
+    }
+
+    public static CrawlScheduler create(Config config, Database database) throws CrawlerException {
+        R4J api = new R4J(new APICredentials(config.riotApiKey()));
+        DataCall.setCacheProvider(EmptyCacheProvider.INSTANCE);
+        Map<String, RiotApi> apis = new HashMap<>();
+        List<RecordingRiotApi> recordings = new ArrayList<>();
+        String recordFolder = config.simulation().recordFolder();
+        try {
+            for (var region: config.regions()) {
+                LeagueShard leagueShard = LeagueShard.fromString(region.name()).orElseThrow(() ->
+                        new RuntimeException(new InvalidConfigFieldException(Config.RIOTAPI_REGION_FIELD,
+                                region.name())));
+                RiotApi regionApi = new R4JRiotApi(api, leagueShard);
+                if (!recordFolder.isEmpty()) {
+                    RecordingRiotApi recording;
+                    try {
+                        recording = RecordingRiotApi.open(regionApi, Paths.get(recordFolder, recordingFile(region)));
+                    } catch (IOException e) {
+                        throw new CrawlerException("failed to open the recording: " + e.getMessage());
+                    }
+                    recordings.add(recording);
+                    regionApi = recording;
+                }
+                apis.put(region.name(), regionApi);
+            }
+            var scheduler = create(config, database, region -> apis.get(region.name()));
+            scheduler.recordings.addAll(recordings);
+            return scheduler;
+        } catch (CrawlerException | RuntimeException e) {
+            closeRecordings(recordings);
+            throw e;
+        }
+    }
+
+    private static void closeRecordings(List<RecordingRiotApi> recordings) {
+        for (var recording: recordings) {
+            try {
+                recording.close();
+            } catch (IOException e) {
+                LoggerFactory.getLogger(CrawlScheduler.class).error("failed to close the recording: "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Name of the file in the record folder that the responses of {@code region} are recorded to.
+     */
+    public static String recordingFile(Config.Region region) {
+        return region.name() + ".jsonl.gz";
+    }
+
+    public static CrawlScheduler create(Config config, Database database, Function<Config.Region, RiotApi> apis)
+            throws CrawlerException {
+        var dedup = config.dedup();
+        var metrics = new Metrics();
+        var seenAccounts = new SeenSet(dedup.recentKeys());
+        var seenMatchIds = new SeenSet(dedup.recentKeys());
+        var store = new Store(database, seenAccounts, seenMatchIds, metrics);
+        Map<String, RateLimiter> rateLimiters = new LinkedHashMap<>();
+        for (var region: config.regions()) {
+            rateLimiters.put(region.name(),
+                    new RateLimiter(config.rateLimits().application(), config.rateLimits().methods()));
+        }
+        Path snapshot = config.snapshot().enabled() ? Paths.get(config.snapshot().file()) : null;
+        if (snapshot != null) {
+            StateSnapshot.restore(snapshot, store, seenAccounts, seenMatchIds, rateLimiters);
+        }
+        PayloadStore payloadStore = null;
+        if (config.payloads().enabled()) {
+            try {
+                payloadStore = PayloadStore.open(Paths.get(Config.PAYLOAD_FOLDER), config.leasing().fileName(),
+                        config.payloads().segmentSize(), database);
+            } catch (IOException e) {
+                throw new CrawlerException("failed to open payload store: " + e.getMessage());
+            }
+        }
+        var workLease = SqliteWorkLease.open(store, config.leasing().node(), config.leasing().ttl());
+        var cache = new ResponseCache(store, config.cache(), metrics);
+        var scheduler = new CrawlScheduler(store, payloadStore, workLease, seenAccounts, seenMatchIds);
+        scheduler.rateLimiters.putAll(rateLimiters);
+        scheduler.snapshot = snapshot;
+        if (config.maintenance().enabled()) {
+            scheduler.maintenance = new Maintenance(store, config.maintenance(),
+                    Paths.get(Config.ARCHIVE_FOLDER, config.leasing().fileName()), metrics);
+        }
+        for (var region: config.regions()) {
+            store.addRegion(region.name(), scheduler.crawlers.isEmpty());
+            var retryHandler = RetryHandler.create(config.retry());
+            retryHandler.register(metrics, region.name());
+            var frontier = new PriorityFrontier(store, workLease, region.name(),
+                    FrontierScore.create(config.frontier()), config.frontier().matchWatermark());
+            var batchWriter = new BatchWriter(store, payloadStore, region.name(), config.batch().flushSize(),
+                    config.batch().flushInterval(), config.graph().enabled());
+            scheduler.crawlers.add(new Crawler(region.name(), apis.apply(region), rateLimiters.get(region.name()),
+                    retryHandler, cache, region.seedGameName(), region.seedTagLine(), store, frontier, batchWriter,
+                    config.pipeline(), config.refresh(), config.backfill(), metrics));
+        }
+        var export = config.metrics();
+        try {
+            if (export.jmxEnabled()) {
+                MetricsMBean.register(metrics);
+            }
+            if (export.httpEnabled()) {
+                scheduler.metricsServer = MetricsServer.start(metrics, export.httpPort());
+            }
+        } catch (IOException | JMException e) {
+            throw new CrawlerException("failed to export metrics: " + e.getMessage());
+        }
+        return scheduler;
+    }
+
+    public void crawlGames(int total) {
+        if (crawlers.size() == 1) {
+            crawlers.get(0).crawlGames(total);
+            return;
+        }
+        System.out.println("crawling %d games in %d regions".formatted(total, crawlers.size()));
+        var progress = new Progress(total);
+        var remaining = new AtomicInteger(total);
+        List<Thread> workers = new ArrayList<>();
+        for (var crawler: crawlers) {
+            var worker = new Thread(() -> crawlChunks(crawler, remaining, progress),
+                    "crawler-" + crawler.getRegion());
+            worker.start();
+            workers.add(worker);
+        }
+        try {
+            for (var worker: workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            workers.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+        }
+        System.out.println();
+        if (remaining.get() > 0 && stopped.getCount() > 0) {
+            logger.error("every region stopped making progress, %d games were not crawled".formatted(
+                    remaining.get()));
+        }
+        System.out.println("dedup accounts: " + store.getSeenAccountsStats());
+        System.out.println("dedup match ids: " + store.getSeenMatchIdsStats());
+    }
+
+    private void crawlChunks(Crawler crawler, AtomicInteger remaining, Progress progress) {
+        while (!Thread.currentThread().isInterrupted()) {
+            int left = remaining.getAndUpdate(value -> Math.max(0, value - CHUNK_SIZE));
+            int chunk = Math.min(CHUNK_SIZE, left);
+            if (chunk <= 0) {
+                return;
+            }
+            int crawled = crawler.crawl(chunk, progress);
+            if (crawled < chunk) {
+                remaining.addAndGet(chunk - crawled);
+            }
+            if (crawled == 0) {
+                if (!crawler.isStopping()) {
+                    logger.error("region %s stopped making progress".formatted(crawler.getRegion()));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Crawls every region until {@link #stop()} is called. A region that stops making progress, because its
+     * frontier ran dry or its requests keep failing, waits with an exponential backoff and tries again instead of
+     * giving up. Refreshes of accounts that are due and passes of the account backfill run on a schedule, and the
+     * crawl leaves the configured headroom of every rate limit free for them, so they get their permits while the
+     * crawl uses up the rest.
+     */
+    public void runDaemon(Config.Daemon daemon) {
+        System.out.println("crawling %d regions until stopped".formatted(crawlers.size()));
+        for (var crawler: crawlers) {
+            crawler.keepFreeForJobs(daemon.headroom());
+        }
+        var jobs = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "daemon-jobs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long refreshMillis = daemon.refreshInterval().toMillis();
+        long backfillMillis = daemon.backfillInterval().toMillis();
+        jobs.scheduleWithFixedDelay(() -> refreshDueAccounts(daemon), refreshMillis, refreshMillis,
+                TimeUnit.MILLISECONDS);
+        jobs.scheduleWithFixedDelay(() -> backfillAccounts(daemon), backfillMillis, backfillMillis,
+                TimeUnit.MILLISECONDS);
+        long[] reported = {0, System.nanoTime()};
+        jobs.scheduleAtFixedRate(() -> report(reported), REPORT_MINUTES, REPORT_MINUTES, TimeUnit.MINUTES);
+        if (maintenance != null) {
+            maintenance.schedule(jobs);
+        }
+        List<Thread> workers = new ArrayList<>();
+        for (var crawler: crawlers) {
+            var worker = new Thread(() -> crawlUntilStopped(crawler, daemon), "crawler-" + crawler.getRegion());
+            worker.start();
+            workers.add(worker);
+        }
+        try {
+            for (var worker: workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            stop();
+            Thread.currentThread().interrupt();
+        } finally {
+            shutdownJobs(jobs, daemon);
+        }
+        report(reported);
+    }
+
+    private void crawlUntilStopped(Crawler crawler, Config.Daemon daemon) {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (!crawler.isStopping()) {
+            if (crawler.crawl(Integer.MAX_VALUE, null) > 0) {
+                backoff = MIN_BACKOFF_MILLIS;
+                continue;
+            }
+            if (crawler.isStopping()) {
+                return;
+            }
+            logger.warn("region %s made no progress, retrying in %ds".formatted(crawler.getRegion(),
+                    backoff / 1000));
+            try {
+                if (stopped.await(backoff, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoff = Math.min(backoff * 2, daemon.maxBackoff().toMillis());
+        }
+    }
+
+    private void refreshDueAccounts(Config.Daemon daemon) {
+        for (var crawler: crawlers) {
+            if (crawler.isStopping()) {
+                return;
+            }
+            try {
+                int refreshed = crawler.refreshDueAccounts(daemon.refreshBatch());
+                if (refreshed > 0) {
+                    logger.info("refreshed %d accounts of %s".formatted(refreshed, crawler.getRegion()));
+                }
+            } catch (CrawlerException | RuntimeException e) {
+                logger.error("refresh of %s failed: %s".formatted(crawler.getRegion(), e.getMessage()));
+            }
+        }
+    }
+
+    private void backfillAccounts(Config.Daemon daemon) {
+        var crawler = crawlers.get(0);
+        if (crawler.isStopping()) {
+            return;
+        }
+        try {
+            int completed = crawler.backfillPass();
+            if (completed > 0) {
+                logger.info("completed %d accounts".formatted(completed));
+            }
+        } catch (CrawlerException | RuntimeException e) {
+            logger.error("account backfill failed: " + e.getMessage());
+        }
+    }
+
+    private void report(long[] reported) {
+        long crawled = crawlers.stream().mapToLong(Crawler::getCrawledMatches).sum();
+        long now = System.nanoTime();
+        double seconds = (now - reported[1]) / 1e9;
+        System.out.printf("crawled %d matches, %.1f/s\n", crawled, seconds > 0 ? (crawled - reported[0]) / seconds : 0);
+        reported[0] = crawled;
+        reported[1] = now;
+    }
+
+    /**
+     * Jobs are interrupted, a running refresh or backfill has already seen the stop and only finishes its in-flight
+     * requests.
+     */
+    private void shutdownJobs(ScheduledExecutorService jobs, Config.Daemon daemon) {
+        jobs.shutdownNow();
+        try {
+            if (!jobs.awaitTermination(daemon.shutdownTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                logger.error("scheduled jobs did not finish within the shutdown timeout");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops every region and job: requests that were not sent yet are dropped, requests in flight are awaited and
+     * their matches written, so {@link #crawlGames(int)} or {@link #runDaemon(Config.Daemon)} return soon after.
+     * Safe to call from any thread, such as a shutdown hook.
+     */
+    public void stop() {
+        crawlers.forEach(Crawler::stop);
+        stopped.countDown();
+    }
+
+    /**
+     * The account backfill is not region bound, it runs on the crawler of the first configured region.
+     */
+    public void startBackfill() throws CrawlerException {
+        crawlers.get(0).startBackfill();
+    }
+
+    public void fillMissingData() throws CrawlerException {
+        crawlers.get(0).fillMissingData();
+    }
+
+    @Override
+    public void close() {
+        for (var crawler: crawlers) {
+            crawler.close();
+        }
+        workLease.close();
+        if (snapshot != null) {
+            try {
+                StateSnapshot.write(snapshot, store, seenAccounts, seenMatchIds, rateLimiters);
+            } catch (IOException e) {
+                logger.error("failed to write the snapshot: " + e.getMessage());
+            }
+        }
+        closeRecordings(recordings);
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+        if (payloadStore != null) {
+            try {
+                payloadStore.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -1,150 +1,489 @@
 package com.fumano.crawler;
 
+import com.fumano.crawler.api.Endpoint;
+import com.fumano.crawler.api.RateLimiter;
+import com.fumano.crawler.api.RiotApi;
+import com.fumano.crawler.cache.ResponseCache;
 import com.fumano.crawler.exception.*;
 import com.fumano.crawler.mapper.Mapper;
+import com.fumano.crawler.metrics.Counter;
+import com.fumano.crawler.metrics.Histogram;
+import com.fumano.crawler.metrics.Metrics;
+import com.fumano.crawler.model.Account;
+import com.fumano.crawler.model.AccountState;
+import com.fumano.crawler.store.BatchWriter;
 import com.fumano.crawler.store.Count;
+import com.fumano.crawler.store.Ranked;
+import com.fumano.crawler.store.Row;
 import com.fumano.crawler.store.Store;
-import no.stelar7.api.r4j.basic.APICredentials;
-import no.stelar7.api.r4j.basic.cache.impl.EmptyCacheProvider;
-import no.stelar7.api.r4j.basic.calling.DataCall;
-import no.stelar7.api.r4j.basic.constants.api.regions.LeagueShard;
-import no.stelar7.api.r4j.basic.constants.api.regions.RegionShard;
-import no.stelar7.api.r4j.impl.R4J;
-import no.stelar7.api.r4j.impl.lol.builders.matchv5.match.MatchListBuilder;
+import com.google.gson.reflect.TypeToken;
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
+import no.stelar7.api.r4j.pojo.shared.RiotAccount;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.sql.Connection;
+import java.lang.reflect.Type;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 
-public class Crawler {
+public class Crawler implements AutoCloseable {
+
+    private static final int MATCH_LIST_PAGE_SIZE = 100;
+    private static final int REFRESH_MAX_PAGES = 10;
+    private static final long REFRESH_OVERLAP_SECONDS = 3600;
+    private static final Type MATCH_IDS = new TypeToken<List<String>>() {}.getType();
 
     private final Logger logger;
-    private final RegionShard regionShard;
-    private final LeagueShard leagueShard;
-    private final R4J api;
+    private final String region;
+    private final RiotApi api;
+    private final RateLimiter rateLimiter;
+    private final RetryHandler retryHandler;
+    private final ResponseCache cache;
     private final Store store;
-    private int accountRow;
-    private int matchIdRow;
+    private final Frontier frontier;
+    private final BatchWriter batchWriter;
+    private final Config.Pipeline pipeline;
+    private final Config.Refresh refresh;
+    private final Config.Backfill backfill;
+    private final String seedGameName;
+    private final String seedTagLine;
+    private volatile boolean seeded;
+    private Thread backfillThread;
+    private volatile boolean backfillFollow;
+    private volatile boolean stopping;
+    private final Map<Endpoint, Counter> apiRequests = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Histogram> apiLatency = new EnumMap<>(Endpoint.class);
+    private final Counter crawledMatches;
+    private final Counter crawledAccounts;
+    private final Counter refreshedAccounts;
 
-    public Crawler(RegionShard regionShard, LeagueShard leagueShard, R4J api, String seedGameName, String seedTagLine, Store store)
-            throws CrawlerException {
-        this.regionShard = regionShard;
-        this.leagueShard = leagueShard;
+    public Crawler(String region, RiotApi api, RateLimiter rateLimiter, RetryHandler retryHandler,
+                   ResponseCache cache, String seedGameName, String seedTagLine, Store store, Frontier frontier,
+                   BatchWriter batchWriter, Config.Pipeline pipeline, Config.Refresh refresh, Config.Backfill backfill,
+                   Metrics metrics) {
+        this.region = region;
         this.api = api;
+        this.rateLimiter = rateLimiter;
+        this.retryHandler = retryHandler;
+        this.cache = cache;
         this.store = store;
+        this.frontier = frontier;
+        this.batchWriter = batchWriter;
+        this.pipeline = pipeline;
+        this.refresh = refresh;
+        this.backfill = backfill;
+        this.seedGameName = seedGameName;
+        this.seedTagLine = seedTagLine;
         logger = LoggerFactory.getLogger(Crawler.class);
+        for (var endpoint: Endpoint.values()) {
+            apiRequests.put(endpoint, metrics.counter("api_requests_total", "requests sent to the riot api",
+                    "region", region, "endpoint", endpoint.toString()));
+            apiLatency.put(endpoint, metrics.histogram("api_request_seconds", "latency of riot api requests",
+                    "region", region, "endpoint", endpoint.toString()));
+        }
+        crawledMatches = metrics.counter("crawler_matches_total", "crawled matches", "region", region);
+        crawledAccounts = metrics.counter("crawler_accounts_total", "accounts whose match list was crawled",
+                "region", region);
+        refreshedAccounts = metrics.counter("crawler_refreshes_total", "incremental match list refreshes",
+                "region", region);
+        metrics.gauge("crawler_frontier", "rows not visited by the crawler yet",
+                () -> store.getPendingAccountsCount(region), "region", region, "table", "accounts");
+        metrics.gauge("crawler_frontier", "rows not visited by the crawler yet",
+                () -> store.getPendingMatchIdsCount(region, -1), "region", region, "table", "match_ids");
+    }
 
-        var count = store.getAccountsCount().orElseThrow(() ->
+    /**
+     * Adds the seed account of the config file if the region has no account yet. Runs before the first crawl instead
+     * of at construction, so starting the crawler sends no request and regions that are never crawled never look up
+     * their seed.
+     */
+    private synchronized void seedIfEmpty() throws CrawlerException {
+        if (seeded) {
+            return;
+        }
+        var count = store.getAccountsCount(region).orElseThrow(() ->
                 new CrawlerException("failed to retrieve the amount of accounts from database"));
         if (count == 0) {
-            var riotAccount = RetryHandler.get( () -> api.getAccountAPI().getAccountByTag(regionShard, seedGameName, seedTagLine));
+            RiotAccount riotAccount = cachedCall(Endpoint.AccountByTag, true, seedGameName + "#" + seedTagLine,
+                    RiotAccount.class, () -> api.getAccountByTag(seedGameName, seedTagLine));
             if (riotAccount == null) {
-                throw new CrawlerException("failed to fetch the seed account specified int the config file");
+                throw new CrawlerException("failed to fetch the seed account of %s specified int the config file"
+                        .formatted(region));
             }
-            store.addOrIgnoreAccount(Mapper.RiotAccount.map(riotAccount));
+            store.addOrIgnoreAccount(Mapper.RiotAccount.map(riotAccount), region);
+        }
+        seeded = true;
+    }
+
+    /**
+     * Calls the api once the rate limiter grants a permit. Requests of the crawl itself set {@code crawl} and stay
+     * within the share of the rate limit left by {@link #keepFreeForJobs(double)}. After {@link #stop()} requests that
+     * were not sent yet fail with a {@link CancellationException}, which is never retried, also when they were
+     * already waiting for a permit.
+     */
+    private <T> T call(Endpoint endpoint, boolean crawl, RetryHandler.Method<T> method) throws CrawlerException {
+        var requests = apiRequests.get(endpoint);
+        var latency = apiLatency.get(endpoint);
+        return retryHandler.get(endpoint, () -> rateLimiter.call(endpoint, crawl, () -> {
+            if (stopping) {
+                throw new CancellationException("crawler of %s is stopping".formatted(region));
+            }
+            long start = System.nanoTime();
+            try {
+                return method.get();
+            } finally {
+                latency.recordSince(start);
+                requests.increment();
+            }
+        }));
+    }
+
+    /**
+     * Answers from the response cache if it can, so only misses are rate limited and sent.
+     */
+    private <T> T cachedCall(Endpoint endpoint, boolean crawl, String key, Type type, RetryHandler.Method<T> method)
+            throws CrawlerException {
+        T cached = cache.get(endpoint, key, type);
+        if (cached != null) {
+            return cached;
         }
-        accountRow = store.getCount(Count.AccountRow).orElseThrow(() ->
-                new CrawlerException("failed to retrieve accountRow from database"));
-        matchIdRow = store.getCount(Count.MatchIdRow).orElseThrow(() ->
-                new CrawlerException("failed to retrieve matchIdRow from database"));
+        T response = call(endpoint, crawl, method);
+        cache.put(endpoint, key, response, batchWriter);
+        return response;
+    }
+
+    private LOLMatch fetchMatch(String matchId) throws CrawlerException {
+        return cachedCall(Endpoint.Match, true, matchId, LOLMatch.class, () -> api.getMatch(matchId));
     }
 
-    private void crawlNextMatch() throws CrawlerException {
-        var matchId = store.getMatchIdAtRow(matchIdRow).orElseThrow(() ->
-                new CrawlerException("failed to retrieve matchId at row " + matchIdRow));
-        var match = RetryHandler.get(() -> api.getLoLAPI().getMatchAPI().getMatch(regionShard, matchId));
+    private boolean writeMatch(Row<Ranked<String>> row, LOLMatch match) {
+        var matchId = row.value().value();
         if (match == null) {
             logger.error("match with id '%s' not found, deleting match".formatted(matchId));
             store.deleteMatchId(matchId);
-            crawlNextMatch();
-            return;
+            return false;
         }
+        List<Account> participants = new ArrayList<>();
         for (var participant :match.getParticipants()) {
             if (participant.getPuuid().equals("BOT")) {
                 continue;
             }
-            store.addOrIgnoreAccount(Mapper.Participant.map(participant));
+            participants.add(Mapper.Participant.map(participant));
         }
-        matchIdRow++;
-        store.setCount(Count.MatchIdRow, matchIdRow);
-    }
-
-    private void crawlNextAccount() throws CrawlerException {
-        var account = store.getAccountAtRow(accountRow).orElseThrow(() ->
-                new CrawlerException("failed to retrieve account at row " + accountRow));
-        var matchIds = RetryHandler.get(() -> new MatchListBuilder()
-                .withCount(100)
-                .withBeginIndex(0)
-                .withPlatform(leagueShard)
-                .withPuuid(account.getPuuid())
-                .get());
-        store.addOrIgnoreMatchIds(matchIds);
-        accountRow++;
-        store.setCount(Count.AccountRow, accountRow);
+        batchWriter.addMatch(row.id(), frontier.rankParticipants(match, participants, row.value().depth() + 1),
+                matchId, batchWriter.storesPayloads() ? Mapper.MatchPayload.map(match) : null);
+        crawledMatches.increment();
+        return true;
     }
 
-    private void crawlNext() throws CrawlerException {
+    /**
+     * Expands the next account of the frontier, or refreshes an account that is due once the frontier has none left.
+     * Returns false if there was nothing to expand, a failed request is thrown.
+     */
+    private boolean crawlNextAccount() throws CrawlerException {
+        batchWriter.flush();
+        var row = frontier.nextAccount();
+        if (row.isEmpty()) {
+            return refresh.enabled() && refreshNextAccountIfDue(true);
+        }
+        var account = row.get().value().value();
+        int depth = row.get().value().depth();
+        List<String> matchIds;
         try {
-            crawlNextMatch();
-            return;
-        } catch (CrawlerException ignored) {
+            matchIds = getMatchIds(account.getPuuid(), 0, 0, true);
+        } catch (CrawlerException e) {
+            frontier.releaseAccount(row.get());
+            throw e;
         }
+        long now = Instant.now().getEpochSecond();
+        long interval = Math.min(refresh.maxInterval().toSeconds(), refresh.minInterval().toSeconds() * 4);
+        store.addOrIgnoreMatchIds(frontier.rankMatchIds(matchIds, depth), region, new AccountState(row.get().id(),
+                account.getPuuid(), matchIds.isEmpty() ? null : matchIds.get(0), now, now + interval, interval, depth));
+        crawledAccounts.increment();
+        return true;
+    }
+
+    /**
+     * Expands the next account ahead of the pending match ids. Those are crawled either way, so a failed request is
+     * only logged and counts as nothing expanded.
+     */
+    private boolean expandAhead() {
         try {
-            crawlNextAccount();
+            return crawlNextAccount();
         } catch (CrawlerException e) {
-            throw new CrawlerException("crawled all accounts and matches");
+            logger.error("failed to expand the next account of %s: %s".formatted(region, e.getMessage()));
+            return false;
         }
-        crawlNext();
+    }
+
+    private boolean refreshNextAccountIfDue(boolean crawl) throws CrawlerException {
+        long now = Instant.now().getEpochSecond();
+        var next = frontier.nextRefresh(now);
+        if (next.isEmpty()) {
+            return false;
+        }
+        var state = next.get();
+        List<String> fresh = new ArrayList<>();
+        if (state.lastMatchId() == null) {
+            fresh.addAll(getMatchIds(state.puuid(), 0, 0, crawl));
+        } else {
+            long startTime = Math.max(0, state.lastRefresh() - REFRESH_OVERLAP_SECONDS);
+            for (int page = 0; page < REFRESH_MAX_PAGES; page++) {
+                var matchIds = getMatchIds(state.puuid(), page * MATCH_LIST_PAGE_SIZE, startTime, crawl);
+                int known = matchIds.indexOf(state.lastMatchId());
+                fresh.addAll(known < 0 ? matchIds : matchIds.subList(0, known));
+                if (known >= 0 || matchIds.size() < MATCH_LIST_PAGE_SIZE) {
+                    break;
+                }
+            }
+        }
+        long interval = state.refreshInterval();
+        if (fresh.isEmpty()) {
+            interval = Math.min(refresh.maxInterval().toSeconds(), interval * 2);
+        } else if (fresh.size() >= 10) {
+            interval = Math.max(refresh.minInterval().toSeconds(), interval / 2);
+        }
+        store.addOrIgnoreMatchIds(frontier.rankMatchIds(fresh, state.depth()), region, new AccountState(
+                state.accountId(), state.puuid(), fresh.isEmpty() ? state.lastMatchId() : fresh.get(0), now,
+                now + interval, interval, state.depth()));
+        refreshedAccounts.increment();
+        return true;
+    }
+
+    private List<String> getMatchIds(String puuid, int beginIndex, long startTime, boolean crawl)
+            throws CrawlerException {
+        return cachedCall(Endpoint.MatchList, crawl, "%s:%d:%d:%d".formatted(puuid, beginIndex, MATCH_LIST_PAGE_SIZE,
+                startTime), MATCH_IDS, () -> api.getMatchIds(puuid, beginIndex, MATCH_LIST_PAGE_SIZE, startTime));
+    }
+
+    /**
+     * Crawls the next match of the frontier. While the frontier asks for it, one account is expanded per crawled
+     * match, otherwise accounts are only expanded once no match id is pending.
+     */
+    private void crawlNext() throws CrawlerException {
+        boolean expanded = false;
+        while (true) {
+            if (!expanded && frontier.shouldExpand()) {
+                expanded = expandAhead();
+            }
+            var rows = frontier.claimMatches(1);
+            if (rows.isEmpty()) {
+                if (!crawlNextAccount()) {
+                    throw new CrawlerException("crawled all accounts and matches");
+                }
+                continue;
+            }
+            LOLMatch match;
+            try {
+                match = fetchMatch(rows.get(0).value().value());
+            } catch (CrawlerException e) {
+                frontier.release(rows);
+                throw e;
+            }
+            if (writeMatch(rows.get(0), match)) {
+                return;
+            }
+        }
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    /**
+     * Lets the running crawl finish the matches it already fetched and return, no further request is sent. Safe to
+     * call from any thread, such as a shutdown hook.
+     */
+    public void stop() {
+        stopping = true;
+        backfillFollow = false;
+    }
+
+    public boolean isStopping() {
+        return stopping;
+    }
+
+    long getCrawledMatches() {
+        return crawledMatches.get();
+    }
+
+    /**
+     * Keeps {@code share} of every rate limit free of the crawl for the refreshes and the account backfill, see
+     * {@link RateLimiter#keepFree(double)}.
+     */
+    void keepFreeForJobs(double share) {
+        rateLimiter.keepFree(share);
+    }
+
+    /**
+     * Refreshes up to {@code limit} accounts whose refresh is due and returns how many were refreshed.
+     */
+    int refreshDueAccounts(int limit) throws CrawlerException {
+        if (!refresh.enabled()) {
+            return 0;
+        }
+        int refreshed = 0;
+        while (refreshed < limit && !stopping) {
+            if (!refreshNextAccountIfDue(false)) {
+                break;
+            }
+            refreshed++;
+        }
+        batchWriter.flush();
+        return refreshed;
     }
 
     public void crawlGames(int total) {
         System.out.println("crawling %d games".formatted(total));
-        Progress progress = new Progress(total);
+        crawl(total, new Progress(total));
+        System.out.println();
+        System.out.println("dedup accounts: " + store.getSeenAccountsStats());
+        System.out.println("dedup match ids: " + store.getSeenMatchIdsStats());
+    }
+
+    /**
+     * Crawls up to {@code total} matches of this crawler's region and returns how many were crawled. The crawl gives
+     * up early after five failures in a row or once the crawler is stopped.
+     */
+    int crawl(int total, Progress progress) {
+        try {
+            seedIfEmpty();
+        } catch (CrawlerException | RuntimeException e) {
+            logger.error("failed to seed %s: %s".formatted(region, e.getMessage()));
+            return 0;
+        }
+        int crawled = pipeline.concurrency() > 1
+                ? crawlGamesPipelined(total, progress)
+                : crawlGamesSequential(total, progress);
+        batchWriter.flush();
+        return crawled;
+    }
+
+    private int crawlGamesSequential(int total, Progress progress) {
+        int crawled = 0;
         int chainedErrors = 0;
-        for (int i = 0; i < total; i++) {
+        for (int i = 0; i < total && !stopping; i++) {
             chainedErrors++;
             try {
                 crawlNext();
-                progress.increase();
+                if (progress != null) {
+                    progress.increase();
+                }
+                crawled++;
                 chainedErrors = 0;
             } catch (CrawlerException e) {
-                logger.error(e.getMessage());
+                if (!stopping) {
+                    logger.error(e.getMessage());
+                }
             }
             if (chainedErrors >= 5) {
-                logger.error("5 errors in a row, to prevent damage the program ends");
-                System.exit(1);
+                logger.error("5 errors in a row in %s, to prevent damage the crawl stops".formatted(region));
+                break;
             }
         }
-        System.out.println();
+        return crawled;
     }
 
-    public void fillMissingData() throws CrawlerException {
-        var puuids = store.getIncompleteAccountPuuids();
-        System.out.println("filling %d accounts".formatted(puuids.size()));
-        var progress = new Progress(puuids.size());
-        for (var puuid: puuids) {
-            var riotAccount = RetryHandler.get(() -> api.getAccountAPI().getAccountByPUUID(regionShard, puuid));
-            progress.increase();
-            if (riotAccount == null) {
-                logger.error("account with puuid '%s' not found, deleting account");
-                store.deleteAccount(puuid);
-                continue;
+    private int crawlGamesPipelined(int total, Progress progress) {
+        var matchPipeline = new MatchPipeline(frontier, this::fetchMatch, this::writeMatch, this::expandAhead,
+                this::crawlNextAccount, () -> stopping, pipeline);
+        int crawled = 0;
+        int chainedErrors = 0;
+        while (crawled < total && !stopping) {
+            try {
+                crawled += matchPipeline.run(total - crawled, progress);
+                chainedErrors = 0;
+            } catch (CrawlerException e) {
+                if (!stopping) {
+                    logger.error(e.getMessage());
+                }
+                chainedErrors++;
+            }
+            if (chainedErrors >= 5) {
+                logger.error("5 errors in a row in %s, to prevent damage the crawl stops".formatted(region));
+                break;
             }
-            store.updateAccount(Mapper.RiotAccount.map(riotAccount));
         }
+        return crawled;
+    }
+
+    private Account lookupAccount(String puuid) throws CrawlerException {
+        RiotAccount riotAccount = cachedCall(Endpoint.AccountByPuuid, false, puuid, RiotAccount.class,
+                () -> api.getAccountByPuuid(puuid));
+        return riotAccount == null ? null : Mapper.RiotAccount.map(riotAccount);
+    }
+
+    private long getBackfillCursor() throws CrawlerException {
+        return store.getCount(Count.BackfillCursor).orElseThrow(() ->
+                new CrawlerException("failed to retrieve backfillCursor from database"));
+    }
+
+    /**
+     * Starts completing accounts in the background while matches are crawled, if enabled in the config. The
+     * background backfill follows newly added accounts until {@link #fillMissingData()} is called.
+     */
+    public void startBackfill() throws CrawlerException {
+        if (!backfill.alongside() || backfillThread != null) {
+            return;
+        }
+        long cursor = getBackfillCursor();
+        backfillFollow = true;
+        backfillThread = new Thread(() -> {
+            try {
+                new AccountBackfill(store, this::lookupAccount, backfill, () -> stopping)
+                        .run(cursor, () -> backfillFollow, null);
+            } catch (CrawlerException e) {
+                logger.error("background backfill stopped: %s".formatted(e.getMessage()));
+            }
+        }, "account-backfill");
+        backfillThread.start();
+    }
+
+    private void stopBackfill() {
+        if (backfillThread == null) {
+            return;
+        }
+        backfillFollow = false;
+        try {
+            backfillThread.join();
+        } catch (InterruptedException e) {
+            backfillThread.interrupt();
+            Thread.currentThread().interrupt();
+        }
+        backfillThread = null;
+    }
+
+    public void fillMissingData() throws CrawlerException {
+        stopBackfill();
+        if (stopping) {
+            return;
+        }
+        long cursor = getBackfillCursor();
+        int total = store.getIncompleteAccountsCount(cursor);
+        System.out.println("filling %d accounts".formatted(total));
+        new AccountBackfill(store, this::lookupAccount, backfill, () -> stopping)
+                .run(cursor, () -> false, new Progress(total));
         System.out.println();
     }
 
-    public static Crawler create(Config config, Connection connection) throws CrawlerException {
-        R4J api = new R4J(new APICredentials(config.riotApiKey()));
-        DataCall.setCacheProvider(EmptyCacheProvider.INSTANCE);
-        String region = config.riotApiRegion();
-        LeagueShard leagueShard = LeagueShard.fromString(region).orElseThrow( () -> new RuntimeException(
-                new InvalidConfigFieldException(Config.RIOTAPI_REGION_FIELD, region)));
-        RegionShard regionShard = leagueShard.toRegionShard();
-        return new Crawler(regionShard, leagueShard, api,
-                config.crawlerSeedGameName(), config.crawlerSeedTagLine(), new Store(connection));
+    /**
+     * Completes the accounts stored without a riot id since the last pass and returns how many were completed.
+     */
+    int backfillPass() throws CrawlerException {
+        return new AccountBackfill(store, this::lookupAccount, backfill, () -> stopping)
+                .run(getBackfillCursor(), () -> false, null);
+    }
 
+    @Override
+    public void close() {
+        if (backfillThread != null) {
+            backfillThread.interrupt();
+            stopBackfill();
+        }
+        batchWriter.flush();
     }
 }
-
@@ -0,0 +1,47 @@
+package com.fumano.crawler;
+
+import com.fumano.crawler.model.Account;
+import com.fumano.crawler.model.AccountState;
+import com.fumano.crawler.store.Ranked;
+import com.fumano.crawler.store.Row;
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Decides what the crawler of a region visits next: which match ids to fetch, which account to expand and how the
+ * crawl balances the two.
+ */
+public interface Frontier {
+
+    /**
+     * Claims up to {@code limit} match ids to fetch. A claimed match id is handed out once until it is written by the
+     * {@link com.fumano.crawler.store.BatchWriter} or {@linkplain #release released}.
+     */
+    List<Row<Ranked<String>>> claimMatches(int limit);
+
+    void release(List<Row<Ranked<String>>> rows);
+
+    /**
+     * Claims the next account to expand, it is handed out once until its match ids are stored or it is
+     * {@linkplain #releaseAccount released}.
+     */
+    Optional<Row<Ranked<Account>>> nextAccount();
+
+    void releaseAccount(Row<Ranked<Account>> row);
+
+    /**
+     * Claims the next account due for a refresh at {@code now}, in epoch seconds.
+     */
+    Optional<AccountState> nextRefresh(long now);
+
+    /**
+     * Whether the crawler should expand an account before it fetches the next matches.
+     */
+    boolean shouldExpand();
+
+    List<Ranked<String>> rankMatchIds(List<String> matchIds, int depth);
+
+    List<Ranked<Account>> rankParticipants(LOLMatch match, List<Account> participants, int depth);
+}
@@ -0,0 +1,93 @@
+package com.fumano.crawler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * Scores the rows discovered by the crawler, the frontier visits higher scores first. The configured strategies are
+ * weighted and summed into one priority that is stored with the row, so scoring never has to be repeated.
+ */
+public interface FrontierScore {
+
+    Set<String> STRATEGIES = Set.of("recency", "depth", "queue");
+
+    /**
+     * Number of match list positions or days of match age that still raise the recency score.
+     */
+    int RECENCY_RANGE = 100;
+
+    int match(MatchCandidate candidate);
+
+    int account(AccountCandidate candidate);
+
+    /**
+     * A match id at {@code position} of the match list of an account, 0 being its most recent match.
+     */
+    record MatchCandidate(String matchId, int position, int depth) {
+    }
+
+    /**
+     * A participant of a crawled match of the named queue that was created at {@code gameCreation} epoch millis.
+     */
+    record AccountCandidate(String puuid, String queue, long gameCreation, int depth) {
+    }
+
+    static FrontierScore of(ToIntFunction<MatchCandidate> match, ToIntFunction<AccountCandidate> account) {
+        return new FrontierScore() {
+            @Override
+            public int match(MatchCandidate candidate) {
+                return match.applyAsInt(candidate);
+            }
+
+            @Override
+            public int account(AccountCandidate candidate) {
+                return account.applyAsInt(candidate);
+            }
+        };
+    }
+
+    /**
+     * Prefers the head of match lists and the participants of recently played matches.
+     */
+    static FrontierScore recency(int weight) {
+        return of(match -> weight * Math.max(0, RECENCY_RANGE - match.position()), account -> {
+            long days = Duration.ofMillis(System.currentTimeMillis() - account.gameCreation()).toDays();
+            return weight * (int) Math.max(0, RECENCY_RANGE - days);
+        });
+    }
+
+    /**
+     * Prefers rows close to the seed account.
+     */
+    static FrontierScore depth(int weight) {
+        return of(match -> -weight * match.depth(), account -> -weight * account.depth());
+    }
+
+    /**
+     * Prefers the participants of matches of the given queues. The queue of a match id is not known before the match
+     * is fetched, so match ids are not scored.
+     */
+    static FrontierScore queue(int weight, Map<String, Integer> queues) {
+        return of(match -> 0, account -> weight * queues.getOrDefault(account.queue(), 0));
+    }
+
+    static FrontierScore sum(List<FrontierScore> scores) {
+        return of(match -> scores.stream().mapToInt(score -> score.match(match)).sum(),
+                account -> scores.stream().mapToInt(score -> score.account(account)).sum());
+    }
+
+    static FrontierScore create(Config.Frontier config) {
+        List<FrontierScore> scores = new ArrayList<>();
+        config.score().forEach((strategy, weight) -> scores.add(switch (strategy) {
+            case "recency" -> recency(weight);
+            case "depth" -> depth(weight);
+            case "queue" -> queue(weight, config.queues());
+            default -> throw new IllegalArgumentException("unknown frontier score " + strategy);
+        }));
+        return sum(scores);
+    }
+}
@@ -0,0 +1,213 @@
+package com.fumano.crawler;
+
+import com.fumano.crawler.exception.CrawlerException;
+import com.fumano.crawler.store.Ranked;
+import com.fumano.crawler.store.Row;
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Crawls matches in three stages: a producer claiming match ids from the frontier, a bounded pool of fetchers and
+ * the calling thread as the single writer. Match ids that were claimed but not written when the pipeline stops are
+ * released to the frontier again, and a crash leaves them claimed until the next start releases them. Once told to
+ * stop, the pipeline claims nothing more and drains: matches whose fetch already went out are awaited and written,
+ * the fetches that were still waiting for their turn fail fast and are released. A failed fetch only releases its own
+ * match id, after {@value #MAX_FAILURES} failures in a row the pipeline drains the same way and reports the last one.
+ */
+class MatchPipeline {
+
+    static final int MAX_FAILURES = 5;
+
+    private final Logger logger = LoggerFactory.getLogger(MatchPipeline.class);
+
+    private final Frontier frontier;
+    private final Fetcher fetcher;
+    private final Writer writer;
+    private final Expander ahead;
+    private final Expander expander;
+    private final BooleanSupplier stopping;
+    private final int concurrency;
+    private final int queueDepth;
+
+    /**
+     * @param ahead expands an account while match ids are still pending, when the frontier asks for it
+     * @param expander expands an account once no match id is pending, a failure stops the pipeline
+     */
+    MatchPipeline(Frontier frontier, Fetcher fetcher, Writer writer, Expander ahead, Expander expander,
+                  BooleanSupplier stopping, Config.Pipeline config) {
+        this.frontier = frontier;
+        this.fetcher = fetcher;
+        this.writer = writer;
+        this.ahead = ahead;
+        this.expander = expander;
+        this.stopping = stopping;
+        this.concurrency = config.concurrency();
+        this.queueDepth = config.queueDepth();
+    }
+
+    int run(int total, Progress progress) throws CrawlerException {
+        var fetchers = Executors.newFixedThreadPool(concurrency);
+        var queue = new ArrayBlockingQueue<Pending>(queueDepth);
+        var producerError = new AtomicReference<CrawlerException>();
+        var producer = new Thread(() -> produce(queue, fetchers, producerError), "match-producer");
+        producer.start();
+        int written = 0;
+        int failures = 0;
+        CrawlerException failure = null;
+        Pending pending = null;
+        try {
+            while (written < total && !stopping.getAsBoolean() && failures < MAX_FAILURES) {
+                pending = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (pending == null) {
+                    if (!producer.isAlive() && queue.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                LOLMatch match;
+                try {
+                    match = await(pending);
+                } catch (CrawlerException e) {
+                    // the rest of the queue was fetched already, only this match id goes back to the frontier
+                    logger.error(e.getMessage());
+                    frontier.release(List.of(pending.row()));
+                    pending = null;
+                    failure = e;
+                    failures++;
+                    continue;
+                }
+                failures = 0;
+                if (writer.write(pending.row(), match)) {
+                    written++;
+                    increase(progress);
+                }
+                pending = null;
+            }
+            if (stopping.getAsBoolean() || failures >= MAX_FAILURES) {
+                producer.interrupt();
+                producer.join();
+                fetchers.shutdown();
+                while ((pending = queue.poll()) != null) {
+                    written += drain(pending, progress);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CrawlerException("match pipeline interrupted");
+        } finally {
+            producer.interrupt();
+            fetchers.shutdownNow();
+            release(producer, pending, queue);
+        }
+        if (written < total && failures >= MAX_FAILURES) {
+            throw new CrawlerException("%d match fetches failed in a row, the last one: %s"
+                    .formatted(failures, failure.getMessage()));
+        }
+        if (written < total && producerError.get() != null) {
+            throw producerError.get();
+        }
+        return written;
+    }
+
+    private int drain(Pending pending, Progress progress) throws InterruptedException {
+        LOLMatch match;
+        try {
+            match = await(pending);
+        } catch (CrawlerException | CancellationException e) {
+            frontier.release(List.of(pending.row()));
+            return 0;
+        }
+        if (!writer.write(pending.row(), match)) {
+            return 0;
+        }
+        increase(progress);
+        return 1;
+    }
+
+    private static void increase(Progress progress) {
+        if (progress != null) {
+            progress.increase();
+        }
+    }
+
+    private void release(Thread producer, Pending pending, BlockingQueue<Pending> queue) {
+        try {
+            producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Row<Ranked<String>>> unwritten = new ArrayList<>();
+        if (pending != null) {
+            unwritten.add(pending.row());
+        }
+        for (var left: queue) {
+            unwritten.add(left.row());
+        }
+        frontier.release(unwritten);
+    }
+
+    private LOLMatch await(Pending pending) throws CrawlerException, InterruptedException {
+        try {
+            return pending.match().get();
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof CrawlerException crawlerException) {
+                throw crawlerException;
+            }
+            throw new CrawlerException("failed to fetch match '%s': %s".formatted(pending.row().value(), cause));
+        }
+    }
+
+    private void produce(BlockingQueue<Pending> queue, ExecutorService fetchers,
+                         AtomicReference<CrawlerException> error) {
+        List<Row<Ranked<String>>> batch = List.of();
+        int enqueued = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted() && !stopping.getAsBoolean()) {
+                boolean expanded = frontier.shouldExpand() && ahead.expand();
+                batch = frontier.claimMatches(queueDepth);
+                enqueued = 0;
+                if (batch.isEmpty()) {
+                    if (!expanded && !expander.expand()) {
+                        throw new CrawlerException("crawled all accounts and matches");
+                    }
+                    continue;
+                }
+                for (var row: batch) {
+                    queue.put(new Pending(row, fetchers.submit(() -> fetcher.fetch(row.value().value()))));
+                    enqueued++;
+                }
+            }
+        } catch (InterruptedException | RejectedExecutionException ignored) {
+        } catch (CrawlerException e) {
+            error.set(e);
+        } finally {
+            frontier.release(batch.subList(enqueued, batch.size()));
+        }
+    }
+
+    private record Pending(Row<Ranked<String>> row, Future<LOLMatch> match) {
+    }
+
+    interface Fetcher {
+        LOLMatch fetch(String matchId) throws CrawlerException;
+    }
+
+    interface Writer {
+        boolean write(Row<Ranked<String>> row, LOLMatch match);
+    }
+
+    interface Expander {
+        /**
+         * Expands the next account of the frontier and returns whether there was one.
+         */
+        boolean expand() throws CrawlerException;
+    }
+}
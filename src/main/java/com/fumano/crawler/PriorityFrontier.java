@@ -0,0 +1,90 @@
+package com.fumano.crawler;
+
+import com.fumano.crawler.model.Account;
+import com.fumano.crawler.model.AccountState;
+import com.fumano.crawler.store.Lease;
+import com.fumano.crawler.store.Ranked;
+import com.fumano.crawler.store.Row;
+import com.fumano.crawler.store.Store;
+import com.fumano.crawler.store.WorkLease;
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Frontier kept in the store as a priority column with a partial index over the pending rows of every region, so
+ * taking the best row costs one index seek and memory does not grow with the frontier. Accounts are expanded while
+ * fewer match ids than the watermark are pending, which keeps the match frontier short and fed from the best
+ * accounts instead of expanding every account in discovery order. Rows are claimed through a {@link WorkLease}, so
+ * several processes can crawl the same region.
+ */
+public class PriorityFrontier implements Frontier {
+
+    private final Store store;
+    private final WorkLease lease;
+    private final String region;
+    private final FrontierScore score;
+    private final int matchWatermark;
+
+    public PriorityFrontier(Store store, WorkLease lease, String region, FrontierScore score, int matchWatermark) {
+        this.store = store;
+        this.lease = lease;
+        this.region = region;
+        this.score = score;
+        this.matchWatermark = matchWatermark;
+    }
+
+    @Override
+    public List<Row<Ranked<String>>> claimMatches(int limit) {
+        return lease.claimMatchIds(region, limit);
+    }
+
+    @Override
+    public void release(List<Row<Ranked<String>>> rows) {
+        lease.release(Lease.MatchId, rows.stream().map(Row::id).toList());
+    }
+
+    @Override
+    public Optional<Row<Ranked<Account>>> nextAccount() {
+        return lease.claimAccount(region);
+    }
+
+    @Override
+    public void releaseAccount(Row<Ranked<Account>> row) {
+        lease.release(Lease.Account, List.of(row.id()));
+    }
+
+    @Override
+    public Optional<AccountState> nextRefresh(long now) {
+        return lease.claimRefresh(region, now);
+    }
+
+    @Override
+    public boolean shouldExpand() {
+        return store.getPendingMatchIdsCount(region, matchWatermark) < matchWatermark;
+    }
+
+    @Override
+    public List<Ranked<String>> rankMatchIds(List<String> matchIds, int depth) {
+        List<Ranked<String>> ranked = new ArrayList<>(matchIds.size());
+        for (int i = 0; i < matchIds.size(); i++) {
+            var matchId = matchIds.get(i);
+            ranked.add(new Ranked<>(matchId, score.match(new FrontierScore.MatchCandidate(matchId, i, depth)), depth));
+        }
+        return ranked;
+    }
+
+    @Override
+    public List<Ranked<Account>> rankParticipants(LOLMatch match, List<Account> participants, int depth) {
+        String queue = match.getQueue() == null ? "" : match.getQueue().name();
+        List<Ranked<Account>> ranked = new ArrayList<>(participants.size());
+        for (var account: participants) {
+            var candidate = new FrontierScore.AccountCandidate(account.getPuuid(), queue, match.getGameCreation(),
+                    depth);
+            ranked.add(new Ranked<>(account, score.account(candidate), depth));
+        }
+        return ranked;
+    }
+}
@@ -4,18 +4,24 @@ public class Progress {
 
     private final int total;
     private final int stepSize;
+    private final long start;
     private int completed;
 
     public Progress(int total) {
         this.total = total;
         completed = 0;
         stepSize = total <= 100 ? 1: total / 100;
+        start = System.nanoTime();
     }
 
-    public void increase() {
+    public synchronized void increase() {
         completed++;
         if (completed % stepSize == 0) {
-            System.out.printf("%d%c\n",completed * 100 / total, '%');
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double rate = seconds > 0 ? completed / seconds : 0;
+            long eta = rate > 0 ? (long) ((total - completed) / rate) : 0;
+            System.out.printf("%d%c %.1f/s eta %d:%02d:%02d\n", completed * 100 / total, '%', rate,
+                    eta / 3600, eta / 60 % 60, eta % 60);
         }
     }
 }
@@ -1,23 +1,182 @@
 package com.fumano.crawler;
 
+import com.fumano.crawler.api.Endpoint;
 import com.fumano.crawler.exception.CrawlerException;
+import com.fumano.crawler.metrics.Metrics;
+import com.fumano.crawler.retry.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
 public class RetryHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(RetryHandler.class);
-    private static final int tries = 3;
-
-    public static <T> T get(Method<T> method) throws CrawlerException {
-        for (int i = 1; i <= tries; i++) {
-            try {
-                return method.get();
-            } catch (Exception e) {
-                logger.error("try %d: %s".formatted(i, e.getMessage()));
+    private static final int BUDGET_RESERVE = 20;
+
+    private final RetryPolicy policy;
+    private final FailureClassifier classifier;
+    private final RetryBudget budget;
+    private final Executor executor;
+    private final Map<Endpoint, CircuitBreaker> breakers = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, LongAdder> retries = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, LongAdder> failures = new EnumMap<>(Endpoint.class);
+    private final LongAdder budgetExhausted = new LongAdder();
+
+    public RetryHandler(RetryPolicy policy, FailureClassifier classifier, RetryBudget budget,
+                        Map<Endpoint, CircuitBreaker> breakers) {
+        this.policy = policy;
+        this.classifier = classifier;
+        this.budget = budget;
+        this.breakers.putAll(breakers);
+        for (var endpoint: Endpoint.values()) {
+            this.breakers.computeIfAbsent(endpoint, e -> new CircuitBreaker(Integer.MAX_VALUE, Duration.ZERO));
+            retries.put(endpoint, new LongAdder());
+            failures.put(endpoint, new LongAdder());
+        }
+        var threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "retry-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static RetryHandler create(Config.Retry config) {
+        Map<Endpoint, CircuitBreaker> breakers = new EnumMap<>(Endpoint.class);
+        for (var endpoint: Endpoint.values()) {
+            breakers.put(endpoint, new CircuitBreaker(config.breakerFailures(), config.breakerCooldown()));
+        }
+        return new RetryHandler(
+                new ExponentialBackoff(config.attempts(), config.baseDelay(), config.maxDelay()),
+                FailureClassifier.DEFAULT,
+                new RetryBudget(config.budgetRatio(), BUDGET_RESERVE),
+                breakers);
+    }
+
+    public <T> T get(Endpoint endpoint, Method<T> method) throws CrawlerException {
+        var result = call(endpoint, method);
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CrawlerException crawlerException) {
+                throw crawlerException;
             }
+            throw new CrawlerException(String.valueOf(e.getCause()));
+        } catch (InterruptedException e) {
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new CrawlerException("interrupted while calling " + endpoint);
         }
-        throw new CrawlerException("retryhandler tried method %d times, limit reached");
+    }
+
+    public <T> CompletableFuture<T> call(Endpoint endpoint, Method<T> method) {
+        var result = new CompletableFuture<T>();
+        budget.deposit();
+        schedule(endpoint, method, 1, result, 0);
+        return result;
+    }
+
+    private <T> void schedule(Endpoint endpoint, Method<T> method, int attempt, CompletableFuture<T> result,
+                              long delayNanos) {
+        var target = delayNanos > 0
+                ? CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS, executor)
+                : executor;
+        target.execute(() -> attempt(endpoint, method, attempt, result));
+    }
+
+    private <T> void attempt(Endpoint endpoint, Method<T> method, int attempt, CompletableFuture<T> result) {
+        if (result.isDone()) {
+            return;
+        }
+        var breaker = breakers.get(endpoint);
+        long wait = breaker.permit();
+        if (wait > 0) {
+            schedule(endpoint, method, attempt, result, wait);
+            return;
+        }
+        T value;
+        try {
+            value = method.get();
+        } catch (Exception e) {
+            onFailure(endpoint, method, attempt, result, e);
+            return;
+        }
+        breaker.onSuccess();
+        result.complete(value);
+    }
+
+    private <T> void onFailure(Endpoint endpoint, Method<T> method, int attempt, CompletableFuture<T> result,
+                               Exception e) {
+        var breaker = breakers.get(endpoint);
+        var failure = classifier.classify(e);
+        switch (failure) {
+            case Retryable -> breaker.onFailure();
+            case Throttled -> breaker.onThrottled();
+            case Terminal -> breaker.onSuccess();
+        }
+        failures.get(endpoint).increment();
+        logger.error("try %d on %s: %s".formatted(attempt, endpoint, e.getMessage()));
+        if (failure == Failure.Terminal) {
+            result.completeExceptionally(new CrawlerException(
+                    "%s failed with a terminal error: %s".formatted(endpoint, e.getMessage())));
+            return;
+        }
+        var delay = policy.delay(attempt, e);
+        if (delay.isEmpty()) {
+            result.completeExceptionally(new CrawlerException(
+                    "retryhandler tried %s %d times, limit reached".formatted(endpoint, attempt)));
+            return;
+        }
+        if (!budget.withdraw()) {
+            budgetExhausted.increment();
+            result.completeExceptionally(new CrawlerException(
+                    "retry budget exhausted after %d tries on %s".formatted(attempt, endpoint)));
+            return;
+        }
+        retries.get(endpoint).increment();
+        schedule(endpoint, method, attempt + 1, result, delay.get().toNanos());
+    }
+
+    public void register(Metrics metrics, String region) {
+        for (var endpoint: Endpoint.values()) {
+            String name = endpoint.toString();
+            metrics.counter("retry_retries_total", "retries scheduled after a failed api call",
+                    retries.get(endpoint)::sum, "region", region, "endpoint", name);
+            metrics.counter("retry_failures_total", "failed api calls", failures.get(endpoint)::sum,
+                    "region", region, "endpoint", name);
+            metrics.gauge("retry_breaker_state", "circuit breaker state, 0 closed, 1 open, 2 half open",
+                    () -> getBreakerState(endpoint).ordinal(), "region", region, "endpoint", name);
+        }
+        metrics.counter("retry_budget_exhausted_total", "calls failed because the retry budget was exhausted",
+                budgetExhausted::sum, "region", region);
+        metrics.gauge("retry_budget_balance", "retries currently affordable from the retry budget",
+                () -> (long) budget.getBalance(), "region", region);
+    }
+
+    public long getRetries(Endpoint endpoint) {
+        return retries.get(endpoint).sum();
+    }
+
+    public long getFailures(Endpoint endpoint) {
+        return failures.get(endpoint).sum();
+    }
+
+    public long getBudgetExhausted() {
+        return budgetExhausted.sum();
+    }
+
+    public double getBudgetBalance() {
+        return budget.getBalance();
+    }
+
+    public CircuitBreaker.State getBreakerState(Endpoint endpoint) {
+        return breakers.get(endpoint).getState();
     }
 
     public interface Method<T> {
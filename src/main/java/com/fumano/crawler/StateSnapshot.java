@@ -0,0 +1,118 @@
+package com.fumano.crawler;
+
+import com.fumano.crawler.api.RateLimiter;
+import com.fumano.crawler.store.SeenSet;
+import com.fumano.crawler.store.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Warm start state of the crawler in one binary file: the rate limit windows of every region, so a restarted crawler
+ * does not spend the permits its previous run already used, and the recent key tables of both seen sets together
+ * with the last row id and row count of their table. A recent key is skipped without asking the database, so the
+ * tables are only restored if no row up to that id was deleted since, checked by scanning the rows added after it. A
+ * snapshot that cannot be read is ignored, recent keys of another size or of a database that changed are dropped.
+ */
+final class StateSnapshot {
+
+    private static final long MAGIC = 0x4C4F4C534E415031L;
+    private static final int VERSION = 3;
+
+    private static final Logger logger = LoggerFactory.getLogger(StateSnapshot.class);
+
+    private StateSnapshot() {
+    }
+
+    /**
+     * Writes the state under a temporary name and moves it into place once it is on disk.
+     */
+    static void write(Path file, Store store, SeenSet accounts, SeenSet matchIds, Map<String, RateLimiter> limiters)
+            throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var output = new FileOutputStream(temporary.toFile())) {
+            var out = new DataOutputStream(new BufferedOutputStream(output, 1 << 20));
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(limiters.size());
+            for (var limiter: limiters.entrySet()) {
+                byte[] region = limiter.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(region.length);
+                out.write(region);
+                limiter.getValue().writeWindows(out);
+            }
+            long lastAccountRow = store.getLastAccountRow();
+            long lastMatchIdRow = store.getLastMatchIdRow();
+            out.writeLong(lastAccountRow);
+            out.writeLong(store.getAccountsUpTo(lastAccountRow));
+            out.writeLong(lastMatchIdRow);
+            out.writeLong(store.getMatchIdsUpTo(lastMatchIdRow));
+            accounts.write(out);
+            matchIds.write(out);
+            out.flush();
+            output.getChannel().force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores the rate limit windows and, if the tables still hold every row they covered, the recent keys from the
+     * snapshot. Returns false if there is no usable snapshot.
+     */
+    static boolean restore(Path file, Store store, SeenSet accounts, SeenSet matchIds,
+                           Map<String, RateLimiter> limiters) {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getLong() != MAGIC || buffer.getInt() != VERSION) {
+                logger.warn("ignoring snapshot '%s' of another version".formatted(file));
+                return false;
+            }
+            int regions = buffer.getInt();
+            for (int i = 0; i < regions; i++) {
+                byte[] region = new byte[buffer.getInt()];
+                buffer.get(region);
+                var limiter = limiters.get(new String(region, StandardCharsets.UTF_8));
+                if (limiter == null) {
+                    // windows of a region that is not crawled anymore, read into a limiter without limits to skip
+                    new RateLimiter(List.of(), Map.of()).readWindows(buffer);
+                } else {
+                    limiter.readWindows(buffer);
+                }
+            }
+            long lastAccountRow = buffer.getLong();
+            long accountRows = buffer.getLong();
+            long lastMatchIdRow = buffer.getLong();
+            long matchIdRows = buffer.getLong();
+            if (lastAccountRow > store.getLastAccountRow() || lastMatchIdRow > store.getLastMatchIdRow()
+                    || store.getAccountsUpTo(lastAccountRow) != accountRows
+                    || store.getMatchIdsUpTo(lastMatchIdRow) != matchIdRows) {
+                logger.warn("not restoring the recent keys of snapshot '%s', rows were deleted since".formatted(file));
+                return true;
+            }
+            if (!accounts.read(buffer) | !matchIds.read(buffer)) {
+                logger.warn("not restoring the recent keys of snapshot '%s' of another size".formatted(file));
+            }
+            return true;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            logger.warn("ignoring unreadable snapshot '%s': %s".formatted(file, e.getMessage()));
+            return false;
+        }
+    }
+}
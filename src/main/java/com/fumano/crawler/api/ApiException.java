@@ -0,0 +1,15 @@
+package com.fumano.crawler.api;
+
+public class ApiException extends RuntimeException {
+
+    private final int status;
+
+    public ApiException(int status, String message) {
+        super("status %d: %s".formatted(status, message));
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,34 @@
+package com.fumano.crawler.api;
+
+public enum Endpoint {
+    Match("match", "2000:10", 0),
+    MatchList("matchlist", "2000:10", 10),
+    AccountByTag("account.bytag", "1000:60", 1440),
+    AccountByPuuid("account.bypuuid", "1000:60", 1440);
+
+    private final String name;
+    private final String defaultLimits;
+    private final long defaultCacheMinutes;
+
+    Endpoint(String name, String defaultLimits, long defaultCacheMinutes) {
+        this.name = name;
+        this.defaultLimits = defaultLimits;
+        this.defaultCacheMinutes = defaultCacheMinutes;
+    }
+
+    public String getDefaultLimits() {
+        return defaultLimits;
+    }
+
+    /**
+     * How long a response of this endpoint is cached by default, 0 for responses that never change.
+     */
+    public long getDefaultCacheMinutes() {
+        return defaultCacheMinutes;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
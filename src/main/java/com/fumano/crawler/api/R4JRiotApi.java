@@ -0,0 +1,101 @@
+package com.fumano.crawler.api;
+
+import no.stelar7.api.r4j.basic.constants.api.regions.LeagueShard;
+import no.stelar7.api.r4j.basic.constants.api.regions.RegionShard;
+import no.stelar7.api.r4j.impl.R4J;
+import no.stelar7.api.r4j.impl.lol.builders.matchv5.match.MatchListBuilder;
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
+import no.stelar7.api.r4j.pojo.shared.RiotAccount;
+
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Riot api backed by R4J. R4J reports failed requests with its own exceptions that carry the http status and, for a
+ * 429, the {@code Retry-After} and limit type only in their message. They are translated here into
+ * {@link RateLimitedException} and {@link ApiException}, so the rate limiter and the retry handler see the status on
+ * live traffic; a 404 is the null the {@link RiotApi} contract asks for.
+ */
+public class R4JRiotApi implements RiotApi {
+
+    private static final String R4J_PACKAGE = "no.stelar7.api.r4j";
+    private static final Pattern STATUS = Pattern.compile("(?<!\\d)([45]\\d\\d)(?!\\d)");
+    private static final Pattern RETRY_AFTER = Pattern.compile("(?i)retry[- ]?after\\D{0,3}(\\d+)");
+    private static final Pattern LIMIT_TYPE = Pattern.compile("(?i)\\b(application|method|service)\\b");
+
+    private final R4J api;
+    private final LeagueShard leagueShard;
+    private final RegionShard regionShard;
+
+    public R4JRiotApi(R4J api, LeagueShard leagueShard) {
+        this.api = api;
+        this.leagueShard = leagueShard;
+        this.regionShard = leagueShard.toRegionShard();
+    }
+
+    @Override
+    public RiotAccount getAccountByTag(String gameName, String tagLine) {
+        return call(() -> api.getAccountAPI().getAccountByTag(regionShard, gameName, tagLine), null);
+    }
+
+    @Override
+    public RiotAccount getAccountByPuuid(String puuid) {
+        return call(() -> api.getAccountAPI().getAccountByPUUID(regionShard, puuid), null);
+    }
+
+    @Override
+    public List<String> getMatchIds(String puuid, int beginIndex, int count, long startTime) {
+        var builder = new MatchListBuilder()
+                .withCount(count)
+                .withBeginIndex(beginIndex)
+                .withPlatform(leagueShard)
+                .withPuuid(puuid);
+        if (startTime > 0) {
+            builder = builder.withStartTime(startTime);
+        }
+        var request = builder;
+        return call(request::get, List.of());
+    }
+
+    @Override
+    public LOLMatch getMatch(String matchId) {
+        return call(() -> api.getLoLAPI().getMatchAPI().getMatch(regionShard, matchId), null);
+    }
+
+    static <T> T call(Supplier<T> request, T notFound) {
+        try {
+            return request.get();
+        } catch (RuntimeException e) {
+            if (!e.getClass().getName().startsWith(R4J_PACKAGE)) {
+                throw e;
+            }
+            var translated = translate(e.getMessage());
+            translated.initCause(e);
+            if (translated instanceof ApiException apiException && apiException.getStatus() == 404) {
+                return notFound;
+            }
+            throw translated;
+        }
+    }
+
+    /**
+     * Translates the message of an R4J exception. A message without a status comes from R4J giving up on getting a
+     * valid response and is a 503.
+     */
+    static RuntimeException translate(String message) {
+        String text = message == null ? "" : message;
+        var status = STATUS.matcher(text);
+        if (!status.find()) {
+            return new ApiException(503, text);
+        }
+        int code = Integer.parseInt(status.group(1));
+        if (code == 429) {
+            var retryAfter = RETRY_AFTER.matcher(text);
+            var limitType = LIMIT_TYPE.matcher(text);
+            return RateLimitedException.fromHeaders(retryAfter.find() ? retryAfter.group(1) : null,
+                    limitType.find() ? limitType.group(1) : null);
+        }
+        return new ApiException(code, text);
+    }
+}
@@ -0,0 +1,34 @@
+package com.fumano.crawler.api;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+public record RateLimit(int permits, Duration window) {
+
+    /**
+     * Parses limits in the format riot uses for its rate limit headers, e.g. {@code 20:1,100:120}
+     * for 20 requests per second and 100 requests per two minutes.
+     */
+    public static List<RateLimit> parse(String value) {
+        List<RateLimit> limits = new ArrayList<>();
+        for (String limit: value.split(",")) {
+            String[] parts = limit.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("invalid rate limit '%s'".formatted(limit));
+            }
+            int permits = Integer.parseInt(parts[0].trim());
+            int seconds = Integer.parseInt(parts[1].trim());
+            if (permits <= 0 || seconds <= 0) {
+                throw new IllegalArgumentException("invalid rate limit '%s'".formatted(limit));
+            }
+            limits.add(new RateLimit(permits, Duration.ofSeconds(seconds)));
+        }
+        return limits;
+    }
+
+    @Override
+    public String toString() {
+        return permits + ":" + window.toSeconds();
+    }
+}
@@ -0,0 +1,44 @@
+package com.fumano.crawler.api;
+
+import java.time.Duration;
+
+public class RateLimitedException extends RuntimeException {
+
+    public static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final Duration retryAfter;
+    private final boolean application;
+
+    public RateLimitedException(Duration retryAfter, boolean application) {
+        super("rate limited, retry after %d ms".formatted(retryAfter.toMillis()));
+        this.retryAfter = retryAfter;
+        this.application = application;
+    }
+
+    /**
+     * Builds the exception from the {@code Retry-After} and {@code X-Rate-Limit-Type} headers of a 429 response. Riot
+     * sends the delay in seconds; a missing or malformed header waits {@link #DEFAULT_RETRY_AFTER}, as riot does for
+     * 429s of the underlying service.
+     */
+    public static RateLimitedException fromHeaders(String retryAfter, String limitType) {
+        Duration delay = DEFAULT_RETRY_AFTER;
+        if (retryAfter != null) {
+            try {
+                long seconds = Long.parseLong(retryAfter.trim());
+                if (seconds >= 0) {
+                    delay = Duration.ofSeconds(seconds);
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return new RateLimitedException(delay, limitType != null && limitType.trim().equalsIgnoreCase("application"));
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    public boolean isApplication() {
+        return application;
+    }
+}
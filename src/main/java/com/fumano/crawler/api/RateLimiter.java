@@ -0,0 +1,202 @@
+package com.fumano.crawler.api;
+
+import com.fumano.crawler.RetryHandler;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+public class RateLimiter {
+
+    private static final long MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final LongSupplier clock;
+    private final List<RateLimit> applicationLimits;
+    private final Map<Endpoint, List<RateLimit>> methodLimits;
+    private final RateWindow[] application;
+    private final Map<Endpoint, RateWindow[]> methods = new EnumMap<>(Endpoint.class);
+    private volatile Cap cap;
+
+    public RateLimiter(List<RateLimit> application, Map<Endpoint, List<RateLimit>> methods) {
+        this(application, methods, System::nanoTime);
+    }
+
+    public RateLimiter(List<RateLimit> application, Map<Endpoint, List<RateLimit>> methods, LongSupplier clock) {
+        this.clock = clock;
+        this.applicationLimits = application;
+        this.methodLimits = methods;
+        long now = clock.getAsLong();
+        this.application = windows(application, now);
+        for (var endpoint: Endpoint.values()) {
+            this.methods.put(endpoint, windows(methods.getOrDefault(endpoint, List.of()), now));
+        }
+    }
+
+    private static RateWindow[] windows(List<RateLimit> limits, long now) {
+        return limits.stream().map(limit -> new RateWindow(limit, MARGIN_NANOS, now)).toArray(RateWindow[]::new);
+    }
+
+    /**
+     * Keeps {@code share} of every rate limit free of capped calls. A capped call also takes a permit of a window with
+     * the rest of the permits, so capped calls that use up their part of the limit still leave {@code share} of it to
+     * the other calls, such as the background jobs next to a crawl. A share of 0 lifts the cap, capped calls always
+     * keep at least one permit per window.
+     */
+    public void keepFree(double share) {
+        if (share <= 0) {
+            cap = null;
+            return;
+        }
+        long now = clock.getAsLong();
+        Map<Endpoint, RateWindow[]> cappedMethods = new EnumMap<>(Endpoint.class);
+        for (var endpoint: Endpoint.values()) {
+            cappedMethods.put(endpoint, windows(capped(methodLimits.getOrDefault(endpoint, List.of()), share), now));
+        }
+        cap = new Cap(windows(capped(applicationLimits, share), now), cappedMethods);
+    }
+
+    private static List<RateLimit> capped(List<RateLimit> limits, double share) {
+        return limits.stream()
+                .map(limit -> new RateLimit(Math.max(1, (int) (limit.permits() * (1 - share))), limit.window()))
+                .toList();
+    }
+
+    public <T> T call(Endpoint endpoint, RetryHandler.Method<T> method) {
+        return call(endpoint, false, method);
+    }
+
+    /**
+     * Calls {@code method} once a permit is granted, within the cap of {@link #keepFree(double)} if {@code capped}.
+     * A rate limited call holds back the windows the 429 was for.
+     */
+    public <T> T call(Endpoint endpoint, boolean capped, RetryHandler.Method<T> method) {
+        acquire(endpoint, capped);
+        try {
+            return method.get();
+        } catch (RateLimitedException e) {
+            penalize(endpoint, e);
+            throw e;
+        }
+    }
+
+    public void acquire(Endpoint endpoint) {
+        acquire(endpoint, false);
+    }
+
+    /**
+     * Waits until a permit of {@code endpoint} is granted. An interrupted wait throws, with the interrupt kept, so
+     * the request is never sent before its window.
+     */
+    public void acquire(Endpoint endpoint, boolean capped) {
+        long start = reserve(endpoint, capped);
+        long wait;
+        while ((wait = start - clock.getAsLong()) > 0) {
+            LockSupport.parkNanos(wait);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("interrupted while waiting for a permit of " + endpoint);
+            }
+        }
+    }
+
+    public long reserve(Endpoint endpoint) {
+        return reserve(endpoint, false);
+    }
+
+    /**
+     * Takes a permit of every window of {@code endpoint}, and of the capped windows if {@code capped}, and returns
+     * when the request may start. The capped windows come first, so a capped request only queues for the shared
+     * windows once its own share admits it.
+     */
+    public long reserve(Endpoint endpoint, boolean capped) {
+        var cap = capped ? this.cap : null;
+        var windows = cap == null
+                ? new RateWindow[][] {application, methods.get(endpoint)}
+                : new RateWindow[][] {
+                        cap.application(), cap.methods().get(endpoint), application, methods.get(endpoint)};
+        int[][] lanes = new int[windows.length][];
+        long start = clock.getAsLong();
+        for (int group = 0; group < windows.length; group++) {
+            lanes[group] = new int[windows[group].length];
+            for (int i = 0; i < windows[group].length; i++) {
+                lanes[group][i] = windows[group][i].nextLane();
+                start = windows[group][i].reserve(lanes[group][i], start);
+            }
+        }
+        for (int group = 0; group < windows.length; group++) {
+            for (int i = 0; i < windows[group].length; i++) {
+                windows[group][i].extend(lanes[group][i], start);
+            }
+        }
+        return start;
+    }
+
+    public void penalize(Endpoint endpoint, RateLimitedException e) {
+        long until = clock.getAsLong() + e.getRetryAfter().toNanos();
+        for (var window: e.isApplication() ? application : methods.get(endpoint)) {
+            window.blockUntil(until);
+        }
+    }
+
+    /**
+     * Writes when the permits of every window free up again in wall clock time, so a restarted crawler does not send
+     * a burst the api still counts against the last run.
+     */
+    public void writeWindows(DataOutputStream out) throws IOException {
+        long now = clock.getAsLong();
+        long epochMillis = System.currentTimeMillis();
+        var windows = windows();
+        out.writeInt(windows.size());
+        for (var window: windows) {
+            long[] deadlines = window.deadlines(now, epochMillis);
+            out.writeInt(deadlines.length);
+            for (long deadline: deadlines) {
+                out.writeLong(deadline);
+            }
+        }
+    }
+
+    /**
+     * Restores windows written by {@link #writeWindows(DataOutputStream)}, returns false if they were written for
+     * other rate limits, whose windows are then left alone. The buffer is positioned after the windows either way.
+     */
+    public boolean readWindows(ByteBuffer buffer) {
+        long now = clock.getAsLong();
+        long epochMillis = System.currentTimeMillis();
+        var windows = windows();
+        int count = buffer.getInt();
+        boolean matches = count == windows.size();
+        for (int i = 0; i < count; i++) {
+            long[] deadlines = new long[buffer.getInt()];
+            for (int lane = 0; lane < deadlines.length; lane++) {
+                deadlines[lane] = buffer.getLong();
+            }
+            matches &= i < windows.size() && deadlines.length == windows.get(i).getLimit().permits();
+            if (matches) {
+                windows.get(i).restore(deadlines, now, epochMillis);
+            }
+        }
+        return matches;
+    }
+
+    private List<RateWindow> windows() {
+        List<RateWindow> windows = new ArrayList<>(List.of(application));
+        for (var endpoint: Endpoint.values()) {
+            windows.addAll(List.of(methods.get(endpoint)));
+        }
+        return windows;
+    }
+
+    /**
+     * Windows with the permits left to capped calls by {@link #keepFree(double)}.
+     */
+    private record Cap(RateWindow[] application, Map<Endpoint, RateWindow[]> methods) {
+    }
+}
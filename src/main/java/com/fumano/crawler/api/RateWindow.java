@@ -0,0 +1,78 @@
+package com.fumano.crawler.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sliding window limiter admitting at most {@code permits} requests in any interval of one window. Request n is
+ * assigned lane {@code n % permits} and each lane holds the earliest time its next request may start, so request n
+ * waits for request n - permits to be a full window old. Lanes are updated with CAS only, there are no locks.
+ */
+class RateWindow {
+
+    private final RateLimit limit;
+    private final long windowNanos;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLongArray lanes;
+
+    RateWindow(RateLimit limit, long marginNanos, long now) {
+        this.limit = limit;
+        this.windowNanos = limit.window().toNanos() + marginNanos;
+        this.lanes = new AtomicLongArray(limit.permits());
+        for (int i = 0; i < limit.permits(); i++) {
+            lanes.set(i, now);
+        }
+    }
+
+    RateLimit getLimit() {
+        return limit;
+    }
+
+    int nextLane() {
+        return (int) (sequence.getAndIncrement() % lanes.length());
+    }
+
+    long reserve(int lane, long notBefore) {
+        while (true) {
+            long next = lanes.get(lane);
+            long start = Math.max(next, notBefore);
+            if (lanes.compareAndSet(lane, next, start + windowNanos)) {
+                return start;
+            }
+        }
+    }
+
+    void extend(int lane, long start) {
+        lanes.accumulateAndGet(lane, start + windowNanos, Math::max);
+    }
+
+    void blockUntil(long time) {
+        for (int i = 0; i < lanes.length(); i++) {
+            lanes.accumulateAndGet(i, time, Math::max);
+        }
+    }
+
+    /**
+     * Returns when each lane admits its next request as epoch milliseconds, 0 for lanes that are free at {@code now}.
+     */
+    long[] deadlines(long now, long epochMillis) {
+        long[] deadlines = new long[lanes.length()];
+        for (int i = 0; i < deadlines.length; i++) {
+            long wait = lanes.get(i) - now;
+            deadlines[i] = wait > 0 ? epochMillis + TimeUnit.NANOSECONDS.toMillis(wait) + 1 : 0;
+        }
+        return deadlines;
+    }
+
+    /**
+     * Holds back the lanes until the deadlines returned by {@link #deadlines(long, long)}, usually of another process.
+     */
+    void restore(long[] deadlines, long now, long epochMillis) {
+        for (int i = 0; i < deadlines.length && i < lanes.length(); i++) {
+            if (deadlines[i] > epochMillis) {
+                lanes.accumulateAndGet(i, now + TimeUnit.MILLISECONDS.toNanos(deadlines[i] - epochMillis), Math::max);
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.fumano.crawler.api;
+
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
+import no.stelar7.api.r4j.pojo.shared.RiotAccount;
+
+import java.util.List;
+
+/**
+ * The riot endpoints the crawler depends on. Lookups return null when the requested resource does not exist.
+ * Rate limiting and retries are applied by the caller, so implementations only perform the request itself.
+ */
+public interface RiotApi {
+
+    RiotAccount getAccountByTag(String gameName, String tagLine);
+
+    RiotAccount getAccountByPuuid(String puuid);
+
+    /**
+     * @param startTime epoch second of the oldest match to include, 0 for no lower bound
+     */
+    List<String> getMatchIds(String puuid, int beginIndex, int count, long startTime);
+
+    LOLMatch getMatch(String matchId);
+}
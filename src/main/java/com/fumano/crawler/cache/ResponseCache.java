@@ -0,0 +1,170 @@
+package com.fumano.crawler.cache;
+
+import com.fumano.crawler.Config;
+import com.fumano.crawler.api.Endpoint;
+import com.fumano.crawler.metrics.Counter;
+import com.fumano.crawler.metrics.Metrics;
+import com.fumano.crawler.store.BatchWriter;
+import com.fumano.crawler.store.CachedResponse;
+import com.fumano.crawler.store.Store;
+import com.google.gson.Gson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Caches riot api responses in front of the rate limiter, so a hit costs no quota. Responses are stored as gzipped
+ * json in the {@code response_cache} table, queued into the next transaction of the {@link BatchWriter} of the crawler
+ * that fetched them instead of a write of their own. A match whose payload is stored is only kept in memory, it is
+ * committed together with its payload and never fetched again. The most recently used responses are also kept in
+ * memory. Every endpoint has its own time to live: matches never change, match lists and riot ids do. Once the table
+ * outgrows its size the oldest responses are evicted first.
+ */
+public class ResponseCache {
+
+    private static final double EVICT_TO = 0.9;
+
+    private final Logger logger = LoggerFactory.getLogger(ResponseCache.class);
+    private final Gson gson = new Gson();
+    private final Store store;
+    private final boolean enabled;
+    private final long maxBytes;
+    private final Map<Endpoint, Long> ttls = new EnumMap<>(Endpoint.class);
+    private final Map<String, Entry> memory;
+    private final AtomicLong size = new AtomicLong();
+    private final Map<Endpoint, Counter> memoryHits = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Counter> diskHits = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Counter> misses = new EnumMap<>(Endpoint.class);
+
+    public ResponseCache(Store store, Config.Cache config, Metrics metrics) {
+        this.store = store;
+        this.enabled = config.enabled();
+        this.maxBytes = config.maxBytes();
+        int memoryEntries = config.memoryEntries();
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+        for (var endpoint: Endpoint.values()) {
+            ttls.put(endpoint, config.ttls().getOrDefault(endpoint, Duration.ZERO).toMillis());
+            memoryHits.put(endpoint, requests(metrics, endpoint, "memory"));
+            diskHits.put(endpoint, requests(metrics, endpoint, "disk"));
+            misses.put(endpoint, requests(metrics, endpoint, "miss"));
+        }
+        if (enabled) {
+            size.set(store.getCachedResponsesSize());
+            metrics.gauge("cache_bytes", "size of the cached riot api responses on disk", size::get);
+        }
+    }
+
+    private static Counter requests(Metrics metrics, Endpoint endpoint, String result) {
+        return metrics.counter("cache_requests_total", "riot api responses looked up in the cache",
+                "endpoint", endpoint.toString(), "result", result);
+    }
+
+    /**
+     * Returns the cached response of {@code endpoint} for {@code key}, or null if there is none or it expired.
+     */
+    public <T> T get(Endpoint endpoint, String key, Type type) {
+        if (!enabled) {
+            return null;
+        }
+        String cacheKey = endpoint + ":" + key;
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            var entry = memory.get(cacheKey);
+            if (entry != null && entry.isValid(now)) {
+                memoryHits.get(endpoint).increment();
+                return cast(entry.value());
+            }
+        }
+        var stored = store.getCachedResponse(cacheKey, now);
+        if (stored.isEmpty()) {
+            misses.get(endpoint).increment();
+            return null;
+        }
+        T value;
+        try {
+            value = gson.fromJson(new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(stored.get())),
+                    StandardCharsets.UTF_8), type);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("dropping unreadable cached response '%s': %s".formatted(cacheKey, e.getMessage()));
+            misses.get(endpoint).increment();
+            return null;
+        }
+        diskHits.get(endpoint).increment();
+        remember(endpoint, cacheKey, value, now);
+        return value;
+    }
+
+    /**
+     * Caches a response of {@code endpoint} for {@code key}, to be stored with the next batch of {@code batchWriter}.
+     * Responses for resources that do not exist are not cached.
+     */
+    public void put(Endpoint endpoint, String key, Object value, BatchWriter batchWriter) {
+        if (!enabled || value == null) {
+            return;
+        }
+        String cacheKey = endpoint + ":" + key;
+        long now = System.currentTimeMillis();
+        remember(endpoint, cacheKey, value, now);
+        if (endpoint == Endpoint.Match && batchWriter.storesPayloads()) {
+            return;
+        }
+        var bytes = new ByteArrayOutputStream();
+        try (var writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+            gson.toJson(value, writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long ttl = ttls.get(endpoint);
+        batchWriter.addCachedResponse(new CachedResponse(cacheKey, bytes.toByteArray(), ttl == 0 ? 0 : now + ttl));
+        // counts a response that replaces an expired one twice, evict resyncs the size from the table
+        if (size.addAndGet(bytes.size()) > maxBytes) {
+            evict(now);
+        }
+    }
+
+    private void remember(Endpoint endpoint, String cacheKey, Object value, long now) {
+        long ttl = ttls.get(endpoint);
+        synchronized (memory) {
+            memory.put(cacheKey, new Entry(value, ttl == 0 ? 0 : now + ttl));
+        }
+    }
+
+    private synchronized void evict(long now) {
+        if (size.get() <= maxBytes) {
+            return;
+        }
+        size.set(store.evictCachedResponses(now, (long) (maxBytes * EVICT_TO)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object value) {
+        return (T) value;
+    }
+
+    private record Entry(Object value, long expires) {
+
+        boolean isValid(long now) {
+            return expires == 0 || expires > now;
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.fumano.crawler.export;
+
+import com.fumano.crawler.store.Database;
+import com.fumano.crawler.store.PayloadStore;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the crawled dataset into gzipped files: crawled accounts and match ids as CSV, match payloads as newline
+ * delimited JSON. Every table is exported on its own thread and paged by the order its rows were crawled in, in short
+ * read transactions on the pooled read connections, so memory stays constant and neither the crawler's writer nor its
+ * wal checkpoints are held up. Only crawled rows are exported, and of those only the columns that never change
+ * again, so the frontier's priorities, its leases and riot ids that are completed later never show up. Each export
+ * continues at the watermark the previous one left in the export directory and contains the rows crawled since.
+ * Match ids archived before an export picked them up are only in the archive files, a full export merges those in.
+ */
+public class DatasetExport {
+
+    private static final int PAGE_SIZE = 10_000;
+    private static final long REPORT_ROWS = 1_000_000;
+    private static final String WATERMARKS_FILE = "watermarks.properties";
+    private static final List<Table> TABLES = List.of(
+            new Table("accounts", List.of("id", "puuid", "region", "depth"), false),
+            new Table("match_ids", List.of("id", "match_id", "region", "depth"), true)
+    );
+    private static final String PAYLOADS = "match_payloads";
+
+    private final Database database;
+    private final Path directory;
+    private final Path payloadDirectory;
+    private final Path archiveDirectory;
+    private final Properties watermarks = new Properties();
+
+    public DatasetExport(Database database, Path directory, Path payloadDirectory, Path archiveDirectory) {
+        this.database = database;
+        this.directory = directory;
+        this.payloadDirectory = payloadDirectory;
+        this.archiveDirectory = archiveDirectory;
+    }
+
+    /**
+     * Exports every table, starting over together with the archived match ids when {@code full} is set, and returns
+     * the rows exported per table.
+     */
+    public List<Result> run(boolean full) throws IOException {
+        Files.createDirectories(directory);
+        var watermarksFile = directory.resolve(WATERMARKS_FILE);
+        if (!full && Files.exists(watermarksFile)) {
+            try (var reader = Files.newBufferedReader(watermarksFile)) {
+                watermarks.load(reader);
+            }
+        }
+        var exporters = Executors.newFixedThreadPool(TABLES.size() + 1);
+        try {
+            List<Future<Result>> results = new ArrayList<>();
+            for (var table: TABLES) {
+                results.add(exporters.submit(() -> exportTable(table, full)));
+            }
+            if (Files.isDirectory(payloadDirectory)) {
+                results.add(exporters.submit(this::exportPayloads));
+            }
+            List<Result> exported = new ArrayList<>();
+            for (var result: results) {
+                exported.add(await(result));
+            }
+            return exported;
+        } finally {
+            exporters.shutdownNow();
+        }
+    }
+
+    private Result await(Future<Result> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("export interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw new IOException("export failed", e.getCause());
+        }
+    }
+
+    /**
+     * Exports the rows of {@code table} crawled since the last export, the watermark is the crawl sequence of the
+     * last one exported.
+     */
+    private Result exportTable(Table table, boolean full) throws IOException {
+        long start = System.nanoTime();
+        String watermark = table.name() + ".crawled_seq";
+        long after = Long.parseLong(watermarks.getProperty(watermark, "0"));
+        long until = database.read(connection -> {
+            try (var statement = connection.createStatement();
+                 var resultSet = statement.executeQuery(
+                         "SELECT MAX(crawled_seq) FROM %s WHERE crawled_seq IS NOT NULL".formatted(table.name()))) {
+                return resultSet.next() ? resultSet.getLong(1) : 0L;
+            }
+        });
+        boolean archived = full && table.archived() && Files.isDirectory(archiveDirectory);
+        if (until <= after && !archived) {
+            return new Result(table.name(), 0, Duration.ofNanos(System.nanoTime() - start));
+        }
+        var file = directory.resolve("%s-%d-%d.csv.gz".formatted(table.name(), after + 1, until));
+        long rows = 0;
+        try (var output = new Output(file)) {
+            output.writer().write(String.join(",", table.columns()));
+            output.writer().newLine();
+            long cursor = after;
+            while (cursor < until) {
+                long from = cursor;
+                long[] page = {from, 0};
+                database.read(connection -> {
+                    try (var statement = connection.prepareStatement(
+                            "SELECT %s, crawled_seq FROM %s WHERE crawled_seq > ? AND crawled_seq <= ? "
+                                    .formatted(String.join(", ", table.columns()), table.name())
+                                    + "ORDER BY crawled_seq LIMIT ?")) {
+                        statement.setLong(1, from);
+                        statement.setLong(2, until);
+                        statement.setInt(3, PAGE_SIZE);
+                        try (var resultSet = statement.executeQuery()) {
+                            while (resultSet.next()) {
+                                writeCsvRow(output.writer(), resultSet, table.columns().size());
+                                page[0] = resultSet.getLong(table.columns().size() + 1);
+                                page[1]++;
+                            }
+                        }
+                    }
+                    return null;
+                });
+                if (page[1] == 0) {
+                    break;
+                }
+                cursor = page[0];
+                rows = report(table.name(), rows, page[1], start);
+            }
+            if (archived) {
+                rows = exportArchive(table, output.writer(), rows, start);
+            }
+            output.commit();
+        }
+        saveWatermark(watermark, Long.toString(until));
+        return new Result(table.name(), rows, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Appends the rows of every archive file of {@code table}, of every node, in the export's columns. The files are
+     * listed once the table is exported, so a batch archived meanwhile can be in both, never in neither, the row id
+     * tells the copies apart.
+     */
+    private long exportArchive(Table table, BufferedWriter writer, long rows, long start) throws IOException {
+        List<Path> files;
+        try (var found = Files.find(archiveDirectory, 4, (path, attributes) -> attributes.isRegularFile()
+                && path.getFileName().toString().endsWith(".csv.gz")
+                && archiveDirectory.relativize(path).getNameCount() == 4
+                && archiveDirectory.relativize(path).getName(1).toString().equals(table.name()))) {
+            files = found.sorted().toList();
+        }
+        for (var file: files) {
+            try (var reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(Files.newInputStream(file), 64 * 1024), StandardCharsets.UTF_8))) {
+                var header = List.of(reader.readLine().split(","));
+                int[] columns = table.columns().stream().mapToInt(header::indexOf).toArray();
+                long added = 0;
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    var fields = line.split(",", -1);
+                    for (int i = 0; i < columns.length; i++) {
+                        if (i > 0) {
+                            writer.write(',');
+                        }
+                        writer.write(fields[columns[i]]);
+                    }
+                    writer.newLine();
+                    added++;
+                }
+                rows = report(table.name(), rows, added, start);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Exports the payloads of every crawler node on its own, each node appends to its own segments and keeps its own
+     * watermark.
+     */
+    private Result exportPayloads() throws IOException {
+        long start = System.nanoTime();
+        List<String> nodes = database.read(connection -> {
+            try (var statement = connection.createStatement();
+                 var resultSet = statement.executeQuery("""
+WITH RECURSIVE nodes (node) AS (
+    SELECT MIN(node) FROM match_payloads
+    UNION ALL SELECT (SELECT MIN(node) FROM match_payloads WHERE node > nodes.node) FROM nodes WHERE node IS NOT NULL
+)
+SELECT node FROM nodes WHERE node IS NOT NULL
+""")) {
+                List<String> found = new ArrayList<>();
+                while (resultSet.next()) {
+                    found.add(resultSet.getString(1));
+                }
+                return found;
+            }
+        });
+        long rows = 0;
+        try (var reader = PayloadStore.openReader(payloadDirectory)) {
+            for (var node: nodes) {
+                rows = exportNodePayloads(node, reader, rows, start);
+            }
+        }
+        return new Result(PAYLOADS, rows, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private long exportNodePayloads(String node, PayloadStore.Reader reader, long rows, long start) throws IOException {
+        String name = node.isEmpty() ? PAYLOADS : PAYLOADS + "-" + node;
+        var after = Position.parse(watermarks.getProperty(name, "0:0"));
+        var until = database.read(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT segment, position FROM match_payloads WHERE node = ? "
+                            + "ORDER BY segment DESC, position DESC LIMIT 1")) {
+                statement.setString(1, node);
+                try (var resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? new Position(resultSet.getInt(1), resultSet.getLong(2))
+                            : new Position(0, 0);
+                }
+            }
+        });
+        if (until.compareTo(after) <= 0) {
+            return rows;
+        }
+        var file = directory.resolve("%s-%s-%s.ndjson.gz".formatted(name, after.fileName(), until.fileName()));
+        try (var output = new Output(file)) {
+            var cursor = after;
+            while (cursor.compareTo(until) < 0) {
+                var from = cursor;
+                List<PayloadStore.Entry> page = database.read(connection -> {
+                    try (var statement = connection.prepareStatement("""
+SELECT match_id, segment, position, length FROM match_payloads
+WHERE node = ? AND (segment, position) > (?, ?) AND (segment, position) <= (?, ?) ORDER BY segment, position LIMIT ?
+""")) {
+                        statement.setString(1, node);
+                        statement.setInt(2, from.segment());
+                        statement.setLong(3, from.position());
+                        statement.setInt(4, until.segment());
+                        statement.setLong(5, until.position());
+                        statement.setInt(6, PAGE_SIZE);
+                        try (var resultSet = statement.executeQuery()) {
+                            List<PayloadStore.Entry> entries = new ArrayList<>(PAGE_SIZE);
+                            while (resultSet.next()) {
+                                entries.add(new PayloadStore.Entry(resultSet.getString(1), node, resultSet.getInt(2),
+                                        resultSet.getLong(3), resultSet.getInt(4)));
+                            }
+                            return entries;
+                        }
+                    }
+                });
+                if (page.isEmpty()) {
+                    break;
+                }
+                for (var entry: page) {
+                    reader.read(entry, (matchId, payload, length) -> {
+                        output.stream().write(payload, 0, length);
+                        output.stream().write('\n');
+                    });
+                }
+                var last = page.get(page.size() - 1);
+                cursor = new Position(last.segment(), last.position());
+                rows = report(PAYLOADS, rows, page.size(), start);
+            }
+            output.commit();
+        }
+        saveWatermark(name, until.toString());
+        return rows;
+    }
+
+    private static long report(String name, long rows, long added, long start) {
+        if ((rows + added) / REPORT_ROWS > rows / REPORT_ROWS) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s: %d rows %.0f/s\n", name, rows + added, seconds > 0 ? (rows + added) / seconds : 0);
+        }
+        return rows + added;
+    }
+
+    private static void writeCsvRow(BufferedWriter writer, ResultSet resultSet, int columns)
+            throws SQLException {
+        try {
+            for (int column = 1; column <= columns; column++) {
+                if (column > 1) {
+                    writer.write(',');
+                }
+                String value = resultSet.getString(column);
+                if (value != null) {
+                    writeCsvField(writer, value);
+                }
+            }
+            writer.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    /**
+     * Watermarks are written once the file of a table is complete, so an interrupted export repeats the table.
+     */
+    private synchronized void saveWatermark(String name, String value) throws IOException {
+        watermarks.setProperty(name, value);
+        var temporary = directory.resolve(WATERMARKS_FILE + ".tmp");
+        try (var writer = Files.newBufferedWriter(temporary)) {
+            watermarks.store(writer, "last exported row per table");
+        }
+        Files.move(temporary, directory.resolve(WATERMARKS_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param archived whether maintenance moves crawled rows of the table to archive files
+     */
+    private record Table(String name, List<String> columns, boolean archived) {
+    }
+
+    private record Position(int segment, long position) implements Comparable<Position> {
+
+        static Position parse(String value) {
+            var parts = value.split(":");
+            return new Position(Integer.parseInt(parts[0]), Long.parseLong(parts[1]));
+        }
+
+        String fileName() {
+            return segment + "_" + position;
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            int segments = Integer.compare(segment, other.segment);
+            return segments != 0 ? segments : Long.compare(position, other.position);
+        }
+
+        @Override
+        public String toString() {
+            return segment + ":" + position;
+        }
+    }
+
+    /**
+     * A gzipped export file written under a temporary name and moved into place by {@link #commit()}, so the export
+     * directory never holds a partial file.
+     */
+    private static class Output implements AutoCloseable {
+
+        private final Path file;
+        private final Path temporary;
+        private final OutputStream stream;
+        private final BufferedWriter writer;
+        private boolean committed;
+
+        Output(Path file) throws IOException {
+            this.file = file;
+            this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            this.stream = new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temporary), 64 * 1024),
+                    64 * 1024);
+            this.writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 64 * 1024);
+        }
+
+        BufferedWriter writer() {
+            return writer;
+        }
+
+        OutputStream stream() {
+            return stream;
+        }
+
+        void commit() throws IOException {
+            writer.close();
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                writer.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    public record Result(String name, long rows, Duration elapsed) {
+
+        public double rowsPerSecond() {
+            return elapsed.isZero() ? 0 : rows / (elapsed.toNanos() / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return "%s: %d rows in %.1fs, %.0f rows/s".formatted(name, rows, elapsed.toNanos() / 1e9,
+                    rowsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.fumano.crawler.graph;
+
+import com.fumano.crawler.store.Database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+
+/**
+ * Queries the co-plays between accounts that the store counts as matches are committed. Every pair of accounts that
+ * played a match together is an edge in both directions of the {@code co_plays} table, keyed by the account ids, so the
+ * neighbours of an account are one range of the primary key. Queries run on the pooled read connections and never hold
+ * up the crawler's writer.
+ */
+public class PlayerGraph {
+
+    private static final int IN_LIMIT = 500;
+
+    private final Database database;
+
+    public PlayerGraph(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Returns every account that played with {@code puuid}, most games together first.
+     */
+    public List<CoPlayer> neighbours(String puuid) {
+        return topCoPlayers(puuid, -1);
+    }
+
+    /**
+     * Returns the {@code k} accounts that played the most games with {@code puuid}, a negative {@code k} for all of
+     * them.
+     */
+    public List<CoPlayer> topCoPlayers(String puuid, int k) {
+        return database.read(connection -> {
+            List<CoPlayer> coPlayers = new ArrayList<>();
+            try (var statement = connection.prepareStatement("""
+SELECT accounts.puuid, accounts.game_name, accounts.tag_line, co_plays.games
+FROM co_plays JOIN accounts ON accounts.id = co_plays.other_id
+WHERE co_plays.account_id = (SELECT id FROM accounts WHERE puuid = ?)
+ORDER BY co_plays.games DESC, co_plays.other_id
+LIMIT ?
+""")) {
+                statement.setString(1, puuid);
+                statement.setInt(2, k);
+                try (var resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        coPlayers.add(new CoPlayer(resultSet.getString(1), resultSet.getString(2),
+                                resultSet.getString(3), resultSet.getLong(4)));
+                    }
+                }
+            }
+            return coPlayers;
+        });
+    }
+
+    /**
+     * Returns the least number of matches that link {@code from} to {@code to}, or nothing if they are further apart
+     * than {@code maxDepth} or one of them is unknown. Searches breadth first from both ends at once, always expanding
+     * the smaller side, so the visited accounts grow with half the depth instead of the whole.
+     */
+    public OptionalInt distance(String from, String to, int maxDepth) {
+        return database.read(connection -> {
+            var fromId = getAccountId(connection, from);
+            var toId = getAccountId(connection, to);
+            if (fromId.isEmpty() || toId.isEmpty()) {
+                return OptionalInt.empty();
+            }
+            if (fromId.get().equals(toId.get())) {
+                return OptionalInt.of(0);
+            }
+            Set<Long> fromVisited = new HashSet<>(Set.of(fromId.get()));
+            Set<Long> toVisited = new HashSet<>(Set.of(toId.get()));
+            List<Long> fromFrontier = List.of(fromId.get());
+            List<Long> toFrontier = List.of(toId.get());
+            for (int depth = 1; depth <= maxDepth; depth++) {
+                boolean forward = fromFrontier.size() <= toFrontier.size();
+                var visited = forward ? fromVisited : toVisited;
+                var other = forward ? toVisited : fromVisited;
+                List<Long> next = new ArrayList<>();
+                for (long neighbour: getNeighbourIds(connection, forward ? fromFrontier : toFrontier)) {
+                    if (other.contains(neighbour)) {
+                        return OptionalInt.of(depth);
+                    }
+                    if (visited.add(neighbour)) {
+                        next.add(neighbour);
+                    }
+                }
+                if (next.isEmpty()) {
+                    return OptionalInt.empty();
+                }
+                if (forward) {
+                    fromFrontier = next;
+                } else {
+                    toFrontier = next;
+                }
+            }
+            return OptionalInt.empty();
+        });
+    }
+
+    private static Optional<Long> getAccountId(Connection connection, String puuid) throws SQLException {
+        try (var statement = connection.prepareStatement("SELECT id FROM accounts WHERE puuid = ?")) {
+            statement.setString(1, puuid);
+            try (var resultSet = statement.executeQuery()) {
+                return resultSet.next() ? Optional.of(resultSet.getLong(1)) : Optional.empty();
+            }
+        }
+    }
+
+    private static List<Long> getNeighbourIds(Connection connection, List<Long> ids) throws SQLException {
+        List<Long> neighbours = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += IN_LIMIT) {
+            var chunk = ids.subList(from, Math.min(ids.size(), from + IN_LIMIT));
+            try (var statement = connection.prepareStatement(
+                    "SELECT other_id FROM co_plays WHERE account_id IN (%s)".formatted(
+                            String.join(",", Collections.nCopies(chunk.size(), "?"))))) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setLong(i + 1, chunk.get(i));
+                }
+                try (var resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        neighbours.add(resultSet.getLong(1));
+                    }
+                }
+            }
+        }
+        return neighbours;
+    }
+
+    /**
+     * An account and the number of matches it played together with the queried account.
+     */
+    public record CoPlayer(String puuid, String gameName, String tagLine, long games) {
+    }
+}
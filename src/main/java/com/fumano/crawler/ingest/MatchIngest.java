@@ -0,0 +1,432 @@
+package com.fumano.crawler.ingest;
+
+import com.fumano.crawler.FrontierScore;
+import com.fumano.crawler.mapper.Mapper;
+import com.fumano.crawler.store.AccountBuffer;
+import com.fumano.crawler.store.PayloadStore;
+import com.fumano.crawler.store.Ranked;
+import com.fumano.crawler.store.Store;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Adds matches from local dumps without going through the riot api. A reader thread streams the dump files and hands
+ * chunks of documents to a pool of parsers, a single writer takes the parsed chunks in the order they were read and
+ * commits them in large batches, each with the participants, the payloads and the matches marked as crawled. Dumps are
+ * either newline delimited, one match per line, or one match per {@code .json} file, both optionally gzipped. A match
+ * is either the flat match the crawler stores as payload or a match v5 response with its {@code metadata} and
+ * {@code info}. Matches that are crawled already are skipped, so a dump can be ingested again after an interruption.
+ * Flat matches are read with a streaming parser that only picks the participants and keeps the document itself as the
+ * payload, participants are collected column wise in {@link AccountBuffer}s instead of one object per participant.
+ * Unless disabled, the co-plays among the participants of every new match are counted with the batch.
+ */
+public class MatchIngest {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int CHUNK_LINES = 256;
+    private static final int CHUNK_FILES = 64;
+    private static final long REPORT_MATCHES = 100_000;
+    private static final int PARTICIPANT_DEPTH = 1;
+    private static final int PARTICIPANTS = 10;
+
+    private final Logger logger = LoggerFactory.getLogger(MatchIngest.class);
+    private final Store store;
+    private final PayloadStore payloadStore;
+    private final String region;
+    private final FrontierScore score;
+    private final int batchSize;
+    private final int parsers;
+    private final boolean coPlays;
+    private final AccountBuffer accounts;
+
+    /**
+     * @param payloadStore store for the match payloads, null to only keep the matches and their participants
+     * @param coPlays whether to count the co-plays among the participants
+     */
+    public MatchIngest(Store store, PayloadStore payloadStore, String region, FrontierScore score, int batchSize,
+                       int parsers, boolean coPlays) {
+        this.store = store;
+        this.payloadStore = payloadStore;
+        this.region = region;
+        this.score = score;
+        this.batchSize = batchSize;
+        this.parsers = parsers;
+        this.coPlays = coPlays;
+        this.accounts = new AccountBuffer(batchSize * PARTICIPANTS);
+    }
+
+    /**
+     * Ingests the dump files and the dump files found below the directories of {@code inputs}.
+     */
+    public Result run(List<Path> inputs) throws IOException {
+        long start = System.nanoTime();
+        var pool = Executors.newFixedThreadPool(parsers);
+        var chunks = new ArrayBlockingQueue<Future<Chunk>>(parsers * 4);
+        var readerError = new AtomicReference<IOException>();
+        var reader = new Thread(() -> read(inputs, pool, chunks, readerError), "ingest-reader");
+        reader.start();
+        long[] counts = new long[3];
+        List<Parsed> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                var chunk = chunks.poll(100, TimeUnit.MILLISECONDS);
+                if (chunk == null) {
+                    if (!reader.isAlive() && chunks.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                var parsed = await(chunk);
+                counts[2] += parsed.invalid();
+                batch.addAll(parsed.matches());
+                accounts.addAll(parsed.participants(), 0, parsed.participants().size());
+                if (batch.size() >= batchSize) {
+                    write(batch, counts, start);
+                }
+            }
+            write(batch, counts, start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("ingest interrupted");
+        } finally {
+            reader.interrupt();
+            pool.shutdownNow();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (readerError.get() != null) {
+            throw readerError.get();
+        }
+        return new Result(counts[0], counts[1], counts[2], Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Commits the batch. The participants of skipped matches are inserted as well, they are either stored already or
+     * also took part in another match of the batch.
+     */
+    private void write(List<Parsed> batch, long[] counts, long start) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        var crawled = store.getCrawledMatchIds(batch.stream().map(Parsed::matchId).toList());
+        Set<String> added = new HashSet<>();
+        List<Ranked<String>> matchIds = new ArrayList<>(batch.size());
+        List<PayloadStore.Entry> payloads = new ArrayList<>(payloadStore == null ? 0 : batch.size());
+        List<List<String>> players = new ArrayList<>(coPlays ? batch.size() : 0);
+        for (var match: batch) {
+            if (crawled.contains(match.matchId()) || !added.add(match.matchId())) {
+                continue;
+            }
+            matchIds.add(new Ranked<>(match.matchId(), 0, 0));
+            if (coPlays) {
+                players.add(match.players());
+            }
+            if (payloadStore != null) {
+                payloads.add(payloadStore.append(match.matchId(), match.payload()));
+            }
+        }
+        if (!payloads.isEmpty()) {
+            payloadStore.sync();
+        }
+        if (!matchIds.isEmpty()) {
+            store.ingestMatches(matchIds, accounts, payloads, region, players);
+        }
+        long before = counts[0] + counts[1];
+        counts[0] += matchIds.size();
+        counts[1] += batch.size() - matchIds.size();
+        batch.clear();
+        accounts.clear();
+        if ((counts[0] + counts[1]) / REPORT_MATCHES > before / REPORT_MATCHES) {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d matches %.0f/s\n", counts[0] + counts[1],
+                    seconds > 0 ? (counts[0] + counts[1]) / seconds : 0);
+        }
+    }
+
+    private Chunk await(Future<Chunk> chunk) throws IOException, InterruptedException {
+        try {
+            return chunk.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw new IOException("failed to parse dump", e.getCause());
+        }
+    }
+
+    private void read(List<Path> inputs, ExecutorService pool, BlockingQueue<Future<Chunk>> chunks,
+                      AtomicReference<IOException> error) {
+        try {
+            List<Path> documents = new ArrayList<>(CHUNK_FILES);
+            for (var file: files(inputs)) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".ndjson") || name.endsWith(".ndjson.gz") || name.endsWith(".jsonl")
+                        || name.endsWith(".jsonl.gz")) {
+                    readLines(file, pool, chunks);
+                } else if (name.endsWith(".json") || name.endsWith(".json.gz")) {
+                    documents.add(file);
+                    if (documents.size() == CHUNK_FILES) {
+                        var chunk = documents;
+                        chunks.put(pool.submit(() -> parseFiles(chunk)));
+                        documents = new ArrayList<>(CHUNK_FILES);
+                    }
+                } else {
+                    logger.warn("skipping '%s', not a json or ndjson dump".formatted(file));
+                }
+            }
+            if (!documents.isEmpty()) {
+                var chunk = documents;
+                chunks.put(pool.submit(() -> parseFiles(chunk)));
+            }
+        } catch (IOException e) {
+            error.set(e);
+        } catch (InterruptedException | RejectedExecutionException ignored) {
+        }
+    }
+
+    private static List<Path> files(List<Path> inputs) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (var input: inputs) {
+            if (!Files.isDirectory(input)) {
+                files.add(input);
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(input)) {
+                walk.filter(Files::isRegularFile).sorted().forEach(files::add);
+            }
+        }
+        return files;
+    }
+
+    private void readLines(Path file, ExecutorService pool, BlockingQueue<Future<Chunk>> chunks)
+            throws IOException, InterruptedException {
+        try (var lines = new BufferedReader(new InputStreamReader(open(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            List<String> chunk = new ArrayList<>(CHUNK_LINES);
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                chunk.add(line);
+                if (chunk.size() == CHUNK_LINES) {
+                    var full = chunk;
+                    chunks.put(pool.submit(() -> parseLines(full)));
+                    chunk = new ArrayList<>(CHUNK_LINES);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                var rest = chunk;
+                chunks.put(pool.submit(() -> parseLines(rest)));
+            }
+        }
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        var input = Files.newInputStream(file);
+        return file.getFileName().toString().endsWith(".gz") ? new GZIPInputStream(input, BUFFER_SIZE) : input;
+    }
+
+    private Chunk parseLines(List<String> lines) {
+        List<Parsed> matches = new ArrayList<>(lines.size());
+        var participants = new AccountBuffer(lines.size() * PARTICIPANTS);
+        int invalid = 0;
+        for (var line: lines) {
+            try {
+                var match = parseFlat(line, participants);
+                matches.add(match != null ? match : parse(JsonParser.parseString(line), participants));
+            } catch (IOException | RuntimeException e) {
+                invalid++;
+            }
+        }
+        return new Chunk(matches, participants, invalid);
+    }
+
+    private Chunk parseFiles(List<Path> files) {
+        List<Parsed> matches = new ArrayList<>(files.size());
+        var participants = new AccountBuffer(files.size() * PARTICIPANTS);
+        int invalid = 0;
+        for (var file: files) {
+            try (var reader = new JsonReader(new InputStreamReader(open(file), StandardCharsets.UTF_8))) {
+                matches.add(parse(JsonParser.parseReader(reader), participants));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                logger.warn("skipping '%s': %s".formatted(file, e.getMessage()));
+                invalid++;
+            }
+        }
+        return new Chunk(matches, participants, invalid);
+    }
+
+    /**
+     * Reads a flat match without building it: only the match id, queue, creation time and the riot ids of the
+     * participants are picked, everything else is skipped and the line itself becomes the payload. Returns null for a
+     * match v5 response, which is left to {@link #parse(JsonElement, AccountBuffer)}.
+     */
+    private Parsed parseFlat(String line, AccountBuffer participants) throws IOException {
+        String matchId = null;
+        String platformId = null;
+        long gameId = 0;
+        String queue = "";
+        long gameCreation = 0;
+        String[] riotIds = new String[PARTICIPANTS * 3];
+        int players = 0;
+        try (var reader = new JsonReader(new StringReader(line))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "info", "metadata" -> {
+                        return null;
+                    }
+                    case "matchId" -> matchId = reader.nextString();
+                    case "platformId" -> platformId = reader.nextString();
+                    case "gameId" -> gameId = reader.nextLong();
+                    case "gameCreation" -> gameCreation = reader.nextLong();
+                    case "queue", "queueId" -> {
+                        if (reader.peek() == JsonToken.STRING) {
+                            queue = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    case "participants" -> {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            if (players * 3 == riotIds.length) {
+                                riotIds = Arrays.copyOf(riotIds, riotIds.length * 2);
+                            }
+                            readParticipant(reader, riotIds, players * 3);
+                            players++;
+                        }
+                        reader.endArray();
+                    }
+                    default -> reader.skipValue();
+                }
+            }
+        }
+        if (matchId == null) {
+            if (platformId == null) {
+                throw new JsonParseException("match without id");
+            }
+            matchId = platformId + "_" + gameId;
+        }
+        List<String> puuids = coPlays ? new ArrayList<>(players) : List.of();
+        for (int player = 0; player < players; player++) {
+            String puuid = riotIds[player * 3];
+            if (puuid == null || puuid.equals("BOT")) {
+                continue;
+            }
+            var candidate = new FrontierScore.AccountCandidate(puuid, queue, gameCreation, PARTICIPANT_DEPTH);
+            participants.add(puuid, riotIds[player * 3 + 1], riotIds[player * 3 + 2], score.account(candidate),
+                    PARTICIPANT_DEPTH);
+            if (coPlays) {
+                puuids.add(puuid);
+            }
+        }
+        return new Parsed(matchId, payloadStore == null ? null : line.getBytes(StandardCharsets.UTF_8), puuids);
+    }
+
+    private static void readParticipant(JsonReader reader, String[] riotIds, int offset) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "puuid" -> riotIds[offset] = nextStringOrNull(reader);
+                case "riotIdName" -> riotIds[offset + 1] = nextStringOrNull(reader);
+                case "riotIdGameName" -> {
+                    String gameName = nextStringOrNull(reader);
+                    if (riotIds[offset + 1] == null) {
+                        riotIds[offset + 1] = gameName;
+                    }
+                }
+                case "riotIdTagline" -> riotIds[offset + 2] = nextStringOrNull(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private Parsed parse(JsonElement element, AccountBuffer participants) {
+        var document = element.getAsJsonObject();
+        var info = document.has("info") ? document.getAsJsonObject("info") : document;
+        String matchId;
+        if (info.has("matchId")) {
+            matchId = info.get("matchId").getAsString();
+        } else if (document.has("metadata")) {
+            matchId = document.getAsJsonObject("metadata").get("matchId").getAsString();
+        } else {
+            matchId = info.get("platformId").getAsString() + "_" + info.get("gameId").getAsLong();
+        }
+        var match = Mapper.JsonMatch.map(info);
+        if (match.getParticipants() == null) {
+            throw new JsonParseException("match '%s' has no participants".formatted(matchId));
+        }
+        String queue = match.getQueue() == null ? "" : match.getQueue().name();
+        List<String> puuids = coPlays ? new ArrayList<>(match.getParticipants().size()) : List.of();
+        for (var participant: match.getParticipants()) {
+            if (participant.getPuuid().equals("BOT")) {
+                continue;
+            }
+            if (coPlays) {
+                puuids.add(participant.getPuuid());
+            }
+            var candidate = new FrontierScore.AccountCandidate(participant.getPuuid(), queue, match.getGameCreation(),
+                    PARTICIPANT_DEPTH);
+            participants.add(participant.getPuuid(), participant.getRiotIdName(), participant.getRiotIdTagline(),
+                    score.account(candidate), PARTICIPANT_DEPTH);
+        }
+        return new Parsed(matchId, payloadStore == null ? null : Mapper.MatchPayload.map(match), puuids);
+    }
+
+    private record Parsed(String matchId, byte[] payload, List<String> players) {
+    }
+
+    private record Chunk(List<Parsed> matches, AccountBuffer participants, int invalid) {
+    }
+
+    /**
+     * Matches added, matches skipped because they were crawled already and documents that were no readable match.
+     */
+    public record Result(long ingested, long known, long invalid, Duration elapsed) {
+
+        public double matchesPerSecond() {
+            return elapsed.isZero() ? 0 : (ingested + known) / (elapsed.toNanos() / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return "ingested %d matches, %d known, %d invalid in %.1fs, %.0f matches/s".formatted(ingested, known,
+                    invalid, elapsed.toNanos() / 1e9, matchesPerSecond());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.fumano.crawler.maintenance;
+
+import com.fumano.crawler.Config;
+import com.fumano.crawler.metrics.Counter;
+import com.fumano.crawler.metrics.Metrics;
+import com.fumano.crawler.store.Ranked;
+import com.fumano.crawler.store.Row;
+import com.fumano.crawler.store.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the database small while the crawl is running. Crawled match ids are never read again once they are older
+ * than the frontier, so they move to gzipped CSV files, one per batch and region, and the table only keeps the match
+ * id itself to skip it when it shows up again. The pages freed by the archive and by deleted rows go back to the file
+ * system through incremental vacuum in short time slices, each step its own transaction, so crawler writes only ever
+ * wait for one step. The planner statistics are refreshed from a sample on a schedule.
+ */
+public class Maintenance {
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final Logger logger = LoggerFactory.getLogger(Maintenance.class);
+    private final Store store;
+    private final Config.Maintenance config;
+    private final Path directory;
+    private final Counter vacuumedPages;
+    private final Counter archivedMatchIds;
+    private boolean warnedAutoVacuum;
+
+    public Maintenance(Store store, Config.Maintenance config, Path directory, Metrics metrics) {
+        this.store = store;
+        this.config = config;
+        this.directory = directory;
+        this.vacuumedPages = metrics.counter("maintenance_vacuumed_pages_total",
+                "free pages returned to the file system");
+        this.archivedMatchIds = metrics.counter("maintenance_archived_total", "rows moved to archive files",
+                "table", "match_ids");
+    }
+
+    /**
+     * Schedules vacuum, archive and analyze on {@code executor}, a failed run is logged and tried again at the next
+     * interval.
+     */
+    public void schedule(ScheduledExecutorService executor) {
+        long vacuumMillis = config.vacuumInterval().toMillis();
+        executor.scheduleWithFixedDelay(() -> run("vacuum", () -> vacuum(config.vacuumSlice())), vacuumMillis,
+                vacuumMillis, TimeUnit.MILLISECONDS);
+        long archiveMillis = config.archiveInterval().toMillis();
+        executor.scheduleWithFixedDelay(() -> run("archive", this::archive), archiveMillis, archiveMillis,
+                TimeUnit.MILLISECONDS);
+        long analyzeMillis = config.analyzeInterval().toMillis();
+        executor.scheduleWithFixedDelay(() -> run("analyze", this::analyze), analyzeMillis, analyzeMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void run(String task, Task job) {
+        try {
+            job.run();
+        } catch (IOException | RuntimeException e) {
+            logger.error("%s failed: %s".formatted(task, e.getMessage()));
+        }
+    }
+
+    /**
+     * Returns free pages to the file system until none are left or {@code budget} is used up and returns how many
+     * were freed. Does nothing for a database without incremental auto vacuum.
+     */
+    public long vacuum(Duration budget) {
+        if (store.getAutoVacuum() != AUTO_VACUUM_INCREMENTAL) {
+            if (!warnedAutoVacuum) {
+                logger.warn("the database does not use incremental vacuum, run the maintenance command with "
+                        + "--vacuum once while the crawler is stopped");
+                warnedAutoVacuum = true;
+            }
+            return 0;
+        }
+        long deadline = System.nanoTime() + budget.toNanos();
+        int free = store.getFreePages();
+        long freed = 0;
+        while (free > 0 && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            int left = store.vacuumStep(Math.min(free, config.vacuumPages()));
+            freed += Math.max(0, free - left);
+            free = left;
+        }
+        vacuumedPages.add(freed);
+        return freed;
+    }
+
+    /**
+     * Moves the crawled match ids of every region except the newest ones to archive files and returns how many were
+     * moved. A file is forced to disk before its rows are dropped, after a crash in between the next run writes the
+     * batch again under the same name.
+     */
+    public long archive() throws IOException {
+        long archived = 0;
+        for (var stats: store.getRegionStats()) {
+            String region = stats.region();
+            long until = store.getLastMatchIdRow(region) - config.archiveKeep();
+            long after = 0;
+            while (until > after && !Thread.currentThread().isInterrupted()) {
+                var rows = store.getCrawledMatchIds(region, after, until, config.archiveBatch());
+                if (rows.isEmpty()) {
+                    break;
+                }
+                write(region, rows);
+                int dropped = store.archiveMatchIds(region, rows);
+                archivedMatchIds.add(dropped);
+                archived += dropped;
+                after = rows.get(rows.size() - 1).id();
+            }
+        }
+        if (archived > 0) {
+            logger.info("archived %d match ids".formatted(archived));
+        }
+        return archived;
+    }
+
+    private void write(String region, List<Row<Ranked<String>>> rows) throws IOException {
+        var folder = directory.resolve("match_ids").resolve(region.isEmpty() ? "unassigned" : region);
+        Files.createDirectories(folder);
+        var file = folder.resolve("%d-%d.csv.gz".formatted(rows.get(0).id(), rows.get(rows.size() - 1).id()));
+        var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var output = new FileOutputStream(temporary.toFile())) {
+            var gzip = new GZIPOutputStream(output, 64 * 1024);
+            var writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), 64 * 1024);
+            writer.write("id,match_id,region,priority,depth\n");
+            for (var row: rows) {
+                writer.write("%d,%s,%s,%d,%d\n".formatted(row.id(), row.value().value(), region,
+                        row.value().priority(), row.value().depth()));
+            }
+            writer.flush();
+            gzip.finish();
+            output.getChannel().force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void analyze() {
+        store.analyze(config.analyzeLimit());
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+}
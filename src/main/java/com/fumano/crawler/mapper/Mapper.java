@@ -1,13 +1,29 @@
 package com.fumano.crawler.mapper;
 
 import com.fumano.crawler.model.Account;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
 import no.stelar7.api.r4j.pojo.lol.match.v5.MatchParticipant;
 import no.stelar7.api.r4j.pojo.shared.RiotAccount;
 
+import java.nio.charset.StandardCharsets;
+
 public class Mapper {
+    private static final Gson gson = new Gson();
+
     public static final Mapping<RiotAccount, Account> RiotAccount = (a) ->
             new Account(a.getPUUID(), a.getName(), a.getTag());
 
     public static final Mapping<MatchParticipant, Account> Participant = (p) ->
             new Account(p.getPuuid(), p.getRiotIdName(), p.getRiotIdTagline());
+
+    public static final Mapping<LOLMatch, byte[]> MatchPayload = (m) ->
+            gson.toJson(m).getBytes(StandardCharsets.UTF_8);
+
+    public static final Mapping<String, LOLMatch> PayloadMatch = (json) ->
+            gson.fromJson(json, LOLMatch.class);
+
+    public static final Mapping<JsonElement, LOLMatch> JsonMatch = (json) ->
+            gson.fromJson(json, LOLMatch.class);
 }
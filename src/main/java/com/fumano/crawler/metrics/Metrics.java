@@ -0,0 +1,158 @@
+package com.fumano.crawler.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the crawler metrics. Components register their metrics once at construction and keep the returned
+ * handles, so recording never looks anything up. Labels are given as alternating names and values.
+ */
+public class Metrics {
+
+    static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    static final String[] PERCENTILES = {"p50", "p90", "p99", "p999"};
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public synchronized Counter counter(String name, String help, String... labels) {
+        var counter = new Counter();
+        register(name, help, Type.Counter, labels, counter);
+        return counter;
+    }
+
+    public synchronized void counter(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, Type.Counter, labels, value);
+    }
+
+    public synchronized void gauge(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, Type.Gauge, labels, value);
+    }
+
+    public synchronized Histogram histogram(String name, String help, String... labels) {
+        var histogram = new Histogram();
+        register(name, help, Type.Summary, labels, histogram);
+        return histogram;
+    }
+
+    private void register(String name, String help, Type type, String[] labels, Object metric) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels of %s are not name value pairs".formatted(name));
+        }
+        var family = families.computeIfAbsent(name, n -> new Family(n, help, type, new ArrayList<>()));
+        if (family.type() != type) {
+            throw new IllegalArgumentException("%s is already registered as a %s".formatted(name, family.type()));
+        }
+        family.samples().add(new Sample(labels, metric));
+    }
+
+    /**
+     * Writes all metrics in the prometheus text exposition format. Histograms are exported as summaries in seconds.
+     */
+    public synchronized void write(Appendable out) throws IOException {
+        for (var family: families.values()) {
+            out.append("# HELP ").append(family.name()).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(family.name()).append(' ').append(family.type().toString()).append('\n');
+            for (var sample: family.samples()) {
+                if (sample.metric() instanceof Histogram histogram) {
+                    for (double quantile: QUANTILES) {
+                        line(out, family.name(), sample.labels(), "quantile", String.valueOf(quantile),
+                                seconds(histogram.getValueAt(quantile)));
+                    }
+                    line(out, family.name() + "_sum", sample.labels(), null, null, seconds(histogram.getSum()));
+                    line(out, family.name() + "_count", sample.labels(), null, null,
+                            String.valueOf(histogram.getCount()));
+                } else {
+                    line(out, family.name(), sample.labels(), null, null, String.valueOf(sample.value()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Flattens all metrics into named values, histograms into their count and percentiles in milliseconds.
+     */
+    public synchronized Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (var family: families.values()) {
+            for (var sample: family.samples()) {
+                String name = family.name() + sample.suffix();
+                if (sample.metric() instanceof Histogram histogram) {
+                    values.put(name + ".count", histogram.getCount());
+                    for (int i = 0; i < QUANTILES.length; i++) {
+                        values.put(name + "." + PERCENTILES[i] + ".ms", histogram.getValueAt(QUANTILES[i]) / 1e6);
+                    }
+                    values.put(name + ".max.ms", histogram.getMax() / 1e6);
+                } else {
+                    values.put(name, sample.value());
+                }
+            }
+        }
+        return values;
+    }
+
+    private static String seconds(long nanos) {
+        return String.valueOf(nanos / 1e9);
+    }
+
+    private static void line(Appendable out, String name, String[] labels, String extraName, String extraValue,
+                             String value) throws IOException {
+        out.append(name);
+        if (labels.length > 0 || extraName != null) {
+            out.append('{');
+            String separator = "";
+            for (int i = 0; i < labels.length; i += 2) {
+                out.append(separator).append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+                separator = ",";
+            }
+            if (extraName != null) {
+                out.append(separator).append(extraName).append("=\"").append(extraValue).append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private enum Type {
+        Counter("counter"), Gauge("gauge"), Summary("summary");
+
+        private final String name;
+
+        Type(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private record Family(String name, String help, Type type, List<Sample> samples) {
+    }
+
+    private record Sample(String[] labels, Object metric) {
+
+        long value() {
+            if (metric instanceof Counter counter) {
+                return counter.get();
+            }
+            return ((LongSupplier) metric).getAsLong();
+        }
+
+        String suffix() {
+            var suffix = new StringBuilder();
+            for (int i = 0; i < labels.length; i += 2) {
+                suffix.append('.').append(labels[i]).append('=').append(labels[i + 1]);
+            }
+            return suffix.toString();
+        }
+    }
+}
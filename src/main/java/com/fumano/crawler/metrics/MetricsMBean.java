@@ -0,0 +1,78 @@
+package com.fumano.crawler.metrics;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * Exposes a live view of the metrics as read only JMX attributes under {@value #NAME}.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    public static final String NAME = "com.fumano.crawler:type=Metrics";
+
+    private final Metrics metrics;
+
+    private MetricsMBean(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public static void register(Metrics metrics) throws JMException {
+        var server = ManagementFactory.getPlatformMBeanServer();
+        var name = new ObjectName(NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(new MetricsMBean(metrics), name);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        var value = metrics.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        var snapshot = metrics.snapshot();
+        var list = new AttributeList();
+        for (var attribute: attributes) {
+            var value = snapshot.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        var attributes = metrics.snapshot().entrySet().stream()
+                .map(MetricsMBean::attributeInfo)
+                .toArray(MBeanAttributeInfo[]::new);
+        return new MBeanInfo(MetricsMBean.class.getName(), "crawler metrics", attributes, null, null, null);
+    }
+
+    private static MBeanAttributeInfo attributeInfo(Map.Entry<String, Number> entry) {
+        return new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(),
+                true, false, false);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("metrics are read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new UnsupportedOperationException(actionName));
+    }
+}
@@ -45,6 +45,8 @@ public class Account {
 
     @Override
     public int hashCode() {
-        return Objects.hash(puuid, gameName, tagLine);
+        int result = Objects.hashCode(puuid);
+        result = 31 * result + Objects.hashCode(gameName);
+        return 31 * result + Objects.hashCode(tagLine);
     }
 }
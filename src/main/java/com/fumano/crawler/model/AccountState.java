@@ -0,0 +1,5 @@
+package com.fumano.crawler.model;
+
+public record AccountState(long accountId, String puuid, String lastMatchId, long lastRefresh, long nextRefresh,
+                           long refreshInterval, int depth) {
+}
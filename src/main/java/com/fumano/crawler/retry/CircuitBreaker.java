@@ -0,0 +1,76 @@
+package com.fumano.crawler.retry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+public class CircuitBreaker {
+
+    public enum State {
+        Closed, Open, HalfOpen
+    }
+
+    private final int threshold;
+    private final long cooldownNanos;
+    private final LongSupplier clock;
+    private final AtomicReference<State> state = new AtomicReference<>(State.Closed);
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong openedAt = new AtomicLong();
+    private final AtomicBoolean probing = new AtomicBoolean();
+
+    public CircuitBreaker(int threshold, Duration cooldown) {
+        this(threshold, cooldown, System::nanoTime);
+    }
+
+    public CircuitBreaker(int threshold, Duration cooldown, LongSupplier clock) {
+        this.threshold = threshold;
+        this.cooldownNanos = cooldown.toNanos();
+        this.clock = clock;
+    }
+
+    /**
+     * @return 0 when a call may go through now, otherwise the nanos to wait before asking again
+     */
+    public long permit() {
+        var current = state.get();
+        if (current == State.Closed) {
+            return 0;
+        }
+        if (current == State.Open) {
+            long wait = openedAt.get() + cooldownNanos - clock.getAsLong();
+            if (wait > 0) {
+                return wait;
+            }
+            state.compareAndSet(State.Open, State.HalfOpen);
+        }
+        return probing.compareAndSet(false, true) ? 0 : Math.max(1, cooldownNanos / 10);
+    }
+
+    public void onSuccess() {
+        failures.set(0);
+        if (state.get() != State.Closed) {
+            state.set(State.Closed);
+            probing.set(false);
+        }
+    }
+
+    public void onFailure() {
+        if (state.get() == State.HalfOpen || failures.incrementAndGet() >= threshold) {
+            openedAt.set(clock.getAsLong());
+            state.set(State.Open);
+            failures.set(0);
+            probing.set(false);
+        }
+    }
+
+    public void onThrottled() {
+        probing.set(false);
+    }
+
+    public State getState() {
+        return state.get();
+    }
+}
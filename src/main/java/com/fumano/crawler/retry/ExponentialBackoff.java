@@ -0,0 +1,36 @@
+package com.fumano.crawler.retry;
+
+import com.fumano.crawler.api.RateLimitedException;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class ExponentialBackoff implements RetryPolicy {
+
+    private final int attempts;
+    private final long baseNanos;
+    private final long maxNanos;
+
+    public ExponentialBackoff(int attempts, Duration base, Duration max) {
+        this.attempts = attempts;
+        this.baseNanos = base.toNanos();
+        this.maxNanos = max.toNanos();
+    }
+
+    @Override
+    public Optional<Duration> delay(int attempt, Throwable failure) {
+        if (attempt >= attempts) {
+            return Optional.empty();
+        }
+        long ceiling = baseNanos << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxNanos) {
+            ceiling = maxNanos;
+        }
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (failure instanceof RateLimitedException rateLimited) {
+            delay = Math.max(delay, rateLimited.getRetryAfter().toNanos());
+        }
+        return Optional.of(Duration.ofNanos(delay));
+    }
+}
@@ -0,0 +1,5 @@
+package com.fumano.crawler.retry;
+
+public enum Failure {
+    Retryable, Throttled, Terminal
+}
@@ -0,0 +1,44 @@
+package com.fumano.crawler.retry;
+
+import com.fumano.crawler.api.ApiException;
+import com.fumano.crawler.api.RateLimitedException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+public interface FailureClassifier {
+
+    /**
+     * Sorts api failures by their http status, as translated by the riot api, and network failures by type. A
+     * wrapped failure is classified by its cause. Anything else is a bug or a response the crawler cannot handle,
+     * which a retry would only repeat, so it is terminal.
+     */
+    FailureClassifier DEFAULT = (e) -> {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RateLimitedException) {
+                return Failure.Throttled;
+            }
+            if (cause instanceof ApiException apiException) {
+                int status = apiException.getStatus();
+                if (status == 429) {
+                    return Failure.Throttled;
+                }
+                return status >= 500 || status == 408 ? Failure.Retryable : Failure.Terminal;
+            }
+            if (cause instanceof IOException || cause instanceof UncheckedIOException
+                    || cause instanceof TimeoutException) {
+                return Failure.Retryable;
+            }
+            if (cause instanceof IllegalArgumentException || cause instanceof NullPointerException
+                    || cause instanceof ClassCastException || cause instanceof UnsupportedOperationException
+                    || cause instanceof CancellationException) {
+                return Failure.Terminal;
+            }
+        }
+        return Failure.Terminal;
+    };
+
+    Failure classify(Throwable e);
+}
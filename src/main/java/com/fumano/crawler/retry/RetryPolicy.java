@@ -0,0 +1,13 @@
+package com.fumano.crawler.retry;
+
+import java.time.Duration;
+import java.util.Optional;
+
+public interface RetryPolicy {
+
+    /**
+     * @param attempt the attempt that just failed, starting at 1
+     * @return the delay before the next attempt or empty when the call should give up
+     */
+    Optional<Duration> delay(int attempt, Throwable failure);
+}
@@ -0,0 +1,98 @@
+package com.fumano.crawler.simulation;
+
+import com.fumano.crawler.api.Endpoint;
+import com.fumano.crawler.api.RiotApi;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
+import no.stelar7.api.r4j.pojo.shared.RiotAccount;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Passes requests on to another api and appends every response to a gzipped file of json lines, one object with the
+ * endpoint, the request key and the response body per line, for {@link ReplayRiotApi} to serve later. Failed requests
+ * are not recorded, their retry is. Every line is flushed through the compressor, so a crawler that is killed leaves
+ * a file that can be read up to its last response, and a new session is appended to the file of the last one.
+ */
+public class RecordingRiotApi implements RiotApi, Closeable {
+
+    private final Logger logger = LoggerFactory.getLogger(RecordingRiotApi.class);
+    private final Gson gson = new Gson();
+    private final RiotApi api;
+    private final Writer writer;
+
+    private RecordingRiotApi(RiotApi api, Writer writer) {
+        this.api = api;
+        this.writer = writer;
+    }
+
+    public static RecordingRiotApi open(RiotApi api, Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        var output = new GZIPOutputStream(new FileOutputStream(file.toFile(), true), 64 * 1024, true);
+        return new RecordingRiotApi(api, new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+    }
+
+    static String accountByTagKey(String gameName, String tagLine) {
+        return gameName + "#" + tagLine;
+    }
+
+    static String matchListKey(String puuid, int beginIndex, int count, long startTime) {
+        return "%s:%d:%d:%d".formatted(puuid, beginIndex, count, startTime);
+    }
+
+    private <T> T record(Endpoint endpoint, String key, T response) {
+        var line = new JsonObject();
+        line.addProperty("endpoint", endpoint.name());
+        line.addProperty("key", key);
+        line.add("body", gson.toJsonTree(response));
+        String json = gson.toJson(line);
+        synchronized (writer) {
+            try {
+                writer.write(json);
+                writer.write('\n');
+                writer.flush();
+            } catch (IOException e) {
+                // the response is still good, only the recording misses it
+                logger.error("failed to record a response: " + e.getMessage());
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public RiotAccount getAccountByTag(String gameName, String tagLine) {
+        return record(Endpoint.AccountByTag, accountByTagKey(gameName, tagLine),
+                api.getAccountByTag(gameName, tagLine));
+    }
+
+    @Override
+    public RiotAccount getAccountByPuuid(String puuid) {
+        return record(Endpoint.AccountByPuuid, puuid, api.getAccountByPuuid(puuid));
+    }
+
+    @Override
+    public List<String> getMatchIds(String puuid, int beginIndex, int count, long startTime) {
+        return record(Endpoint.MatchList, matchListKey(puuid, beginIndex, count, startTime),
+                api.getMatchIds(puuid, beginIndex, count, startTime));
+    }
+
+    @Override
+    public LOLMatch getMatch(String matchId) {
+        return record(Endpoint.Match, matchId, api.getMatch(matchId));
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writer) {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.fumano.crawler.simulation;
+
+import com.fumano.crawler.api.Endpoint;
+import com.fumano.crawler.api.RiotApi;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
+import no.stelar7.api.r4j.pojo.shared.RiotAccount;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Serves the responses of a session recorded by {@link RecordingRiotApi}. A replayed crawl follows the recorded one
+ * as long as it asks for the same resources, which a crawl from an empty database with the same seed and settings
+ * does. Requests that were not recorded, such as refreshes whose start time moved on, are answered as not found and
+ * counted as misses.
+ */
+public class ReplayRiotApi implements RiotApi {
+
+    private static final Type MATCH_IDS = new TypeToken<List<String>>() {}.getType();
+
+    private final Gson gson = new Gson();
+    private final Map<Endpoint, Map<String, String>> responses = new EnumMap<>(Endpoint.class);
+    private final AtomicLong misses = new AtomicLong();
+
+    private ReplayRiotApi() {
+        for (var endpoint: Endpoint.values()) {
+            responses.put(endpoint, new HashMap<>());
+        }
+    }
+
+    /**
+     * Reads every response of {@code file} into memory, a later response to the same request replaces the earlier
+     * one. A file cut off by a crash is read up to its last complete line.
+     */
+    public static ReplayRiotApi load(Path file) throws IOException {
+        Logger logger = LoggerFactory.getLogger(ReplayRiotApi.class);
+        var replay = new ReplayRiotApi();
+        long lines = 0;
+        try (var reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file.toFile()), 64 * 1024), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                replay.add(line);
+                lines++;
+            }
+        } catch (EOFException e) {
+            logger.warn("recording '%s' ends early, replaying its first %d responses".formatted(file, lines));
+        } catch (JsonParseException | IllegalArgumentException e) {
+            throw new IOException("invalid recording '%s' at line %d: %s".formatted(file, lines + 1, e.getMessage()));
+        }
+        logger.info("replaying %d responses of '%s'".formatted(lines, file));
+        return replay;
+    }
+
+    private void add(String line) {
+        var entry = gson.fromJson(line, JsonObject.class);
+        var endpoint = Endpoint.valueOf(entry.get("endpoint").getAsString());
+        responses.get(endpoint).put(entry.get("key").getAsString(), entry.get("body").toString());
+    }
+
+    /**
+     * Requests that were not part of the recording.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private <T> T replay(Endpoint endpoint, String key, Type type) {
+        String body = responses.get(endpoint).get(key);
+        if (body == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        return gson.fromJson(body, type);
+    }
+
+    @Override
+    public RiotAccount getAccountByTag(String gameName, String tagLine) {
+        return replay(Endpoint.AccountByTag, RecordingRiotApi.accountByTagKey(gameName, tagLine), RiotAccount.class);
+    }
+
+    @Override
+    public RiotAccount getAccountByPuuid(String puuid) {
+        return replay(Endpoint.AccountByPuuid, puuid, RiotAccount.class);
+    }
+
+    @Override
+    public List<String> getMatchIds(String puuid, int beginIndex, int count, long startTime) {
+        List<String> matchIds = replay(Endpoint.MatchList,
+                RecordingRiotApi.matchListKey(puuid, beginIndex, count, startTime), MATCH_IDS);
+        return matchIds == null ? List.of() : matchIds;
+    }
+
+    @Override
+    public LOLMatch getMatch(String matchId) {
+        return replay(Endpoint.Match, matchId, LOLMatch.class);
+    }
+}
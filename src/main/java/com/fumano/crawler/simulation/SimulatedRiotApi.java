@@ -0,0 +1,254 @@
+package com.fumano.crawler.simulation;
+
+import com.fumano.crawler.Config;
+import com.fumano.crawler.api.ApiException;
+import com.fumano.crawler.api.Endpoint;
+import com.fumano.crawler.api.RateLimit;
+import com.fumano.crawler.api.RateLimitedException;
+import com.fumano.crawler.api.RiotApi;
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
+import no.stelar7.api.r4j.pojo.shared.RiotAccount;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Puts the behaviour of the riot servers in front of a {@link SyntheticRiotApi} or {@link ReplayRiotApi}: every
+ * response waits for a latency drawn from a log-normal distribution, the configured rate limits are enforced in fixed
+ * windows like riot does and answered with 429 once used up, and a share of requests fails with 429 or 503 or finds
+ * nothing. Latency and failures are drawn from the seed, the request and how often it was tried before, so a run with
+ * the same settings sees the same failures no matter how the requests interleave. Counts every request for the
+ * report of the simulation.
+ */
+public class SimulatedRiotApi implements RiotApi {
+
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(1);
+    private static final double P99_SIGMAS = 2.3263478740408408;
+
+    private final RiotApi api;
+    private final long seed;
+    private final long medianNanos;
+    private final double sigma;
+    private final double notFoundRate;
+    private final double rateLimitedRate;
+    private final double errorRate;
+    private final List<RateLimit> applicationLimits;
+    private final Window[] application;
+    private final Map<Endpoint, Window[]> methods = new EnumMap<>(Endpoint.class);
+    private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+    private final Map<Endpoint, Counters> counters = new EnumMap<>(Endpoint.class);
+    private final LongAdder admitted = new LongAdder();
+    private volatile long since = System.nanoTime();
+
+    public SimulatedRiotApi(RiotApi api, Config.Simulation simulation, Config.RateLimits rateLimits) {
+        this.api = api;
+        this.seed = simulation.seed();
+        this.medianNanos = simulation.latencyMedian().toNanos();
+        this.sigma = medianNanos > 0
+                ? Math.log((double) simulation.latencyP99().toNanos() / medianNanos) / P99_SIGMAS
+                : 0;
+        this.notFoundRate = simulation.notFoundRate();
+        this.rateLimitedRate = simulation.rateLimitedRate();
+        this.errorRate = simulation.errorRate();
+        this.applicationLimits = rateLimits.application();
+        this.application = windows(rateLimits.application());
+        for (var endpoint: Endpoint.values()) {
+            methods.put(endpoint, windows(rateLimits.methods().getOrDefault(endpoint, List.of())));
+            counters.put(endpoint, new Counters());
+        }
+    }
+
+    private static Window[] windows(List<RateLimit> limits) {
+        return limits.stream().map(Window::new).toArray(Window[]::new);
+    }
+
+    /**
+     * Takes a permit of every window of {@code endpoint}, or fails like riot without taking any if one is used up.
+     */
+    private synchronized void admit(Endpoint endpoint, long now) {
+        for (var windows: List.of(application, methods.get(endpoint))) {
+            for (var window: windows) {
+                if (now - window.start >= window.nanos) {
+                    window.start = now;
+                    window.used = 0;
+                }
+                if (window.used >= window.permits) {
+                    throw new RateLimitedException(Duration.ofNanos(window.start + window.nanos - now),
+                            windows == application);
+                }
+            }
+        }
+        for (var window: application) {
+            window.used++;
+        }
+        for (var window: methods.get(endpoint)) {
+            window.used++;
+        }
+        admitted.increment();
+    }
+
+    private <T> T serve(Endpoint endpoint, String key, boolean missing, Supplier<T> response) {
+        var count = counters.get(endpoint);
+        count.requests.increment();
+        long start = System.nanoTime();
+        try {
+            admit(endpoint, start);
+            String request = endpoint.name() + ":" + key;
+            int failed = failures.getOrDefault(request, 0);
+            var random = new SplittableRandom(hash(request) ^ (seed * 31 + failed));
+            sleep(start + latency(random));
+            double roll = random.nextDouble();
+            if (roll < rateLimitedRate + errorRate) {
+                failures.merge(request, 1, Integer::sum);
+                if (roll < rateLimitedRate) {
+                    throw new RateLimitedException(RETRY_AFTER, false);
+                }
+                throw new ApiException(503, "simulated outage");
+            }
+            if (failed > 0) {
+                failures.remove(request);
+            }
+            if (missing && fraction(hash(key) ^ seed) < notFoundRate) {
+                count.notFound.increment();
+                return null;
+            }
+            T value = response.get();
+            if (value == null) {
+                count.notFound.increment();
+            }
+            return value;
+        } catch (RateLimitedException e) {
+            count.throttled.increment();
+            throw e;
+        } catch (ApiException e) {
+            count.errors.increment();
+            throw e;
+        } finally {
+            count.latencyNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private long latency(SplittableRandom random) {
+        return sigma > 0 ? (long) (medianNanos * Math.exp(sigma * random.nextGaussian())) : medianNanos;
+    }
+
+    private static void sleep(long deadline) {
+        long wait;
+        while ((wait = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static double fraction(long value) {
+        return (new SplittableRandom(value).nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public RiotAccount getAccountByTag(String gameName, String tagLine) {
+        return serve(Endpoint.AccountByTag, RecordingRiotApi.accountByTagKey(gameName, tagLine), false,
+                () -> api.getAccountByTag(gameName, tagLine));
+    }
+
+    @Override
+    public RiotAccount getAccountByPuuid(String puuid) {
+        return serve(Endpoint.AccountByPuuid, puuid, true, () -> api.getAccountByPuuid(puuid));
+    }
+
+    @Override
+    public List<String> getMatchIds(String puuid, int beginIndex, int count, long startTime) {
+        return serve(Endpoint.MatchList, RecordingRiotApi.matchListKey(puuid, beginIndex, count, startTime), false,
+                () -> api.getMatchIds(puuid, beginIndex, count, startTime));
+    }
+
+    @Override
+    public LOLMatch getMatch(String matchId) {
+        return serve(Endpoint.Match, matchId, true, () -> api.getMatch(matchId));
+    }
+
+    /**
+     * Starts counting from zero, for a report of the next phase of the simulation.
+     */
+    public void reset() {
+        for (var count: counters.values()) {
+            count.requests.reset();
+            count.notFound.reset();
+            count.throttled.reset();
+            count.errors.reset();
+            count.latencyNanos.reset();
+        }
+        admitted.reset();
+        since = System.nanoTime();
+    }
+
+    public List<Usage> getUsage() {
+        List<Usage> usage = new ArrayList<>();
+        for (var entry: counters.entrySet()) {
+            var count = entry.getValue();
+            long requests = count.requests.sum();
+            usage.add(new Usage(entry.getKey(), requests, count.notFound.sum(), count.throttled.sum(),
+                    count.errors.sum(), Duration.ofNanos(requests > 0 ? count.latencyNanos.sum() / requests : 0)));
+        }
+        return usage;
+    }
+
+    /**
+     * Requests let through since the last {@link #reset()} as a share of what the tightest application rate limit
+     * allows in that time, 1 for a crawler that uses all of its quota. NaN without application rate limits.
+     */
+    public double getUtilisation() {
+        double seconds = (System.nanoTime() - since) / 1e9;
+        double utilisation = Double.NaN;
+        for (var limit: applicationLimits) {
+            double allowed = limit.permits() * seconds / limit.window().toSeconds();
+            double used = admitted.sum() / allowed;
+            utilisation = Double.isNaN(utilisation) ? used : Math.max(utilisation, used);
+        }
+        return utilisation;
+    }
+
+    /**
+     * Requests of one endpoint, how many of them found nothing, were rate limited or failed, and their mean latency.
+     */
+    public record Usage(Endpoint endpoint, long requests, long notFound, long throttled, long errors,
+                        Duration meanLatency) {
+    }
+
+    private static class Window {
+
+        private final int permits;
+        private final long nanos;
+        private long start;
+        private int used;
+
+        private Window(RateLimit limit) {
+            this.permits = limit.permits();
+            this.nanos = limit.window().toNanos();
+            this.start = System.nanoTime() - nanos;
+        }
+    }
+
+    private static class Counters {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder notFound = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder latencyNanos = new LongAdder();
+    }
+}
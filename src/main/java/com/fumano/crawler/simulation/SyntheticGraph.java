@@ -0,0 +1,114 @@
+package com.fumano.crawler.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Player graph generated from a seed without storing it. Every player has {@code matchesPerPlayer} seats and every
+ * match ten, a keyed permutation of all seats deals them to the matches, so the match list of a player and the
+ * participants of a match are both computed on demand and always agree. The permutation is a four round Feistel
+ * network over the next even power of two, walked until it lands inside the seats.
+ */
+class SyntheticGraph {
+
+    static final int PARTICIPANTS = 10;
+
+    private final long seed;
+    private final long players;
+    private final int matchesPerPlayer;
+    private final long seats;
+    private final int halfBits;
+    private final long halfMask;
+
+    SyntheticGraph(long seed, long players, int matchesPerPlayer) {
+        this.seed = seed;
+        this.players = players;
+        this.matchesPerPlayer = matchesPerPlayer;
+        this.seats = (players * matchesPerPlayer + PARTICIPANTS - 1) / PARTICIPANTS * PARTICIPANTS;
+        int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(seats - 1));
+        this.halfBits = (bits + 1) / 2;
+        this.halfMask = (1L << halfBits) - 1;
+    }
+
+    long players() {
+        return players;
+    }
+
+    long matches() {
+        return seats / PARTICIPANTS;
+    }
+
+    /**
+     * Returns the distinct matches of {@code player}, newest first.
+     */
+    long[] matchesOf(long player) {
+        long[] matches = new long[matchesPerPlayer];
+        for (int i = 0; i < matchesPerPlayer; i++) {
+            matches[i] = permute(player * matchesPerPlayer + i) / PARTICIPANTS;
+        }
+        Arrays.sort(matches);
+        long[] newestFirst = new long[matches.length];
+        int distinct = 0;
+        for (int i = matches.length - 1; i >= 0; i--) {
+            if (distinct == 0 || newestFirst[distinct - 1] != matches[i]) {
+                newestFirst[distinct++] = matches[i];
+            }
+        }
+        return Arrays.copyOf(newestFirst, distinct);
+    }
+
+    /**
+     * Returns the player in {@code slot} of {@code match}, seats left over after the last player go to players
+     * drawn from the whole pool.
+     */
+    long participant(long match, int slot) {
+        long seat = unpermute(match * PARTICIPANTS + slot);
+        long player = seat / matchesPerPlayer;
+        return player < players ? player : mix(seat) % players;
+    }
+
+    /**
+     * Deterministic value in [0, 1) for {@code value}, to decide properties of a key that stay the same across runs.
+     */
+    double fraction(long value) {
+        return (mix(value ^ seed) >>> 11) * 0x1.0p-53;
+    }
+
+    long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (z ^ (z >>> 31)) & Long.MAX_VALUE;
+    }
+
+    private long round(long half, int round) {
+        return mix(half ^ (seed + round * 0x632BE59BD9B4E019L)) & halfMask;
+    }
+
+    private long permute(long seat) {
+        do {
+            long left = seat >>> halfBits;
+            long right = seat & halfMask;
+            for (int round = 0; round < 4; round++) {
+                long next = left ^ round(right, round);
+                left = right;
+                right = next;
+            }
+            seat = (left << halfBits) | right;
+        } while (seat >= seats);
+        return seat;
+    }
+
+    private long unpermute(long seat) {
+        do {
+            long left = seat >>> halfBits;
+            long right = seat & halfMask;
+            for (int round = 3; round >= 0; round--) {
+                long previous = right ^ round(left, round);
+                right = left;
+                left = previous;
+            }
+            seat = (left << halfBits) | right;
+        } while (seat >= seats);
+        return seat;
+    }
+}
@@ -0,0 +1,165 @@
+package com.fumano.crawler.simulation;
+
+import com.fumano.crawler.api.RiotApi;
+import com.google.gson.Gson;
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
+import no.stelar7.api.r4j.pojo.shared.RiotAccount;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Serves the accounts, match lists and matches of a {@link SyntheticGraph} of one region in the shape of the riot
+ * api. Responses are built as json and decoded like the real client does, so the crawler pays the same decoding cost.
+ * Matches are one minute apart, the newest one an hour ago, so refreshes find nothing new. Any riot id resolves to a
+ * player, the seed of the config file works unchanged.
+ */
+public class SyntheticRiotApi implements RiotApi {
+
+    private static final String[] STATS = {
+            "assists", "champExperience", "champLevel", "championId", "damageDealtToBuildings",
+            "damageDealtToObjectives", "damageSelfMitigated", "deaths", "goldEarned", "goldSpent", "item0", "item1",
+            "item2", "item3", "item4", "item5", "item6", "kills", "magicDamageDealtToChampions",
+            "neutralMinionsKilled", "physicalDamageDealtToChampions", "summoner1Id", "summoner2Id", "timePlayed",
+            "totalDamageDealtToChampions", "totalDamageTaken", "totalMinionsKilled", "visionScore", "wardsPlaced"
+    };
+
+    private final Gson gson = new Gson();
+    private final String region;
+    private final String prefix;
+    private final SyntheticGraph graph;
+    private final long newest;
+
+    public SyntheticRiotApi(String region, long seed, long players, int matchesPerPlayer) {
+        this.region = region;
+        this.prefix = "sim-" + region.toLowerCase() + "-";
+        this.graph = new SyntheticGraph(seed ^ region.hashCode(), players, matchesPerPlayer);
+        this.newest = System.currentTimeMillis() / 1000 - 3600;
+    }
+
+    private String puuid(long player) {
+        return prefix + player;
+    }
+
+    private long player(String puuid) {
+        if (!puuid.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            long player = Long.parseLong(puuid.substring(prefix.length()));
+            return player < graph.players() ? player : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long match(String matchId) {
+        if (!matchId.startsWith(region + "_")) {
+            return -1;
+        }
+        try {
+            long match = Long.parseLong(matchId.substring(region.length() + 1));
+            return match < graph.matches() ? match : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Epoch second the match started at.
+     */
+    private long created(long match) {
+        return newest - (graph.matches() - 1 - match) * 60;
+    }
+
+    private RiotAccount account(long player) {
+        return gson.fromJson("{\"puuid\":\"%s\",\"gameName\":\"Player%d\",\"tagLine\":\"SIM\"}"
+                .formatted(puuid(player), player), RiotAccount.class);
+    }
+
+    @Override
+    public RiotAccount getAccountByTag(String gameName, String tagLine) {
+        long player;
+        try {
+            player = gameName.startsWith("Player") && tagLine.equals("SIM")
+                    ? Long.parseLong(gameName.substring("Player".length()))
+                    : -1;
+        } catch (NumberFormatException e) {
+            player = -1;
+        }
+        if (player < 0 || player >= graph.players()) {
+            player = graph.mix((gameName + "#" + tagLine).hashCode()) % graph.players();
+        }
+        return account(player);
+    }
+
+    @Override
+    public RiotAccount getAccountByPuuid(String puuid) {
+        long player = player(puuid);
+        return player < 0 ? null : account(player);
+    }
+
+    @Override
+    public List<String> getMatchIds(String puuid, int beginIndex, int count, long startTime) {
+        long player = player(puuid);
+        if (player < 0) {
+            return List.of();
+        }
+        long[] matches = graph.matchesOf(player);
+        List<String> matchIds = new ArrayList<>();
+        for (int i = beginIndex; i < Math.min(matches.length, beginIndex + count); i++) {
+            if (created(matches[i]) < startTime) {
+                break;
+            }
+            matchIds.add(region + "_" + matches[i]);
+        }
+        return matchIds;
+    }
+
+    @Override
+    public LOLMatch getMatch(String matchId) {
+        long match = match(matchId);
+        return match < 0 ? null : gson.fromJson(matchJson(matchId, match), LOLMatch.class);
+    }
+
+    /**
+     * A player dealt two seats of the same match keeps the first one, the second one is played by a bot.
+     */
+    private String matchJson(String matchId, long match) {
+        var random = new SplittableRandom(graph.mix(match));
+        var json = new StringBuilder(8 << 10);
+        json.append("{\"matchId\":\"").append(matchId).append("\",\"gameCreation\":").append(created(match) * 1000)
+                .append(",\"gameDuration\":").append(random.nextInt(900, 2700))
+                .append(",\"gameMode\":\"CLASSIC\",\"queueId\":420,\"participants\":[");
+        long[] players = new long[SyntheticGraph.PARTICIPANTS];
+        for (int slot = 0; slot < players.length; slot++) {
+            long player = graph.participant(match, slot);
+            for (int i = 0; i < slot; i++) {
+                if (players[i] == player) {
+                    player = -1;
+                    break;
+                }
+            }
+            players[slot] = player;
+            if (slot > 0) {
+                json.append(',');
+            }
+            if (player < 0) {
+                json.append("{\"puuid\":\"BOT\"");
+            } else {
+                json.append("{\"puuid\":\"").append(puuid(player))
+                        .append("\",\"riotIdName\":\"Player").append(player)
+                        .append("\",\"riotIdGameName\":\"Player").append(player)
+                        .append("\",\"riotIdTagline\":\"SIM\"");
+            }
+            json.append(",\"teamId\":").append(slot < 5 ? 100 : 200)
+                    .append(",\"win\":").append(slot < 5 == (match % 2 == 0));
+            for (var stat: STATS) {
+                json.append(",\"").append(stat).append("\":").append(random.nextInt(0, 30000));
+            }
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,115 @@
+package com.fumano.crawler.store;
+
+import com.fumano.crawler.model.Account;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reusable, column wise batch of ranked accounts waiting for their insert. Rows are kept in parallel arrays instead of
+ * one {@link Account} and one {@link Ranked} per participant, and a puuid that is added again, as players show up in
+ * several matches of a batch, updates its row instead of adding one: the higher priority, the lower depth and a known
+ * riot id win. {@link #clear()} keeps the arrays for the next batch.
+ */
+public final class AccountBuffer {
+
+    private final Map<String, Integer> rows;
+    private String[] puuids;
+    private String[] gameNames;
+    private String[] tagLines;
+    private int[] priorities;
+    private int[] depths;
+    private int size;
+
+    public AccountBuffer(int capacity) {
+        int initial = Math.max(16, capacity);
+        rows = new HashMap<>(initial * 4 / 3 + 1);
+        puuids = new String[initial];
+        gameNames = new String[initial];
+        tagLines = new String[initial];
+        priorities = new int[initial];
+        depths = new int[initial];
+    }
+
+    public void add(String puuid, String gameName, String tagLine, int priority, int depth) {
+        var row = rows.putIfAbsent(puuid, size);
+        if (row != null) {
+            priorities[row] = Math.max(priorities[row], priority);
+            depths[row] = Math.min(depths[row], depth);
+            if ((gameNames[row].isEmpty() || tagLines[row].isEmpty()) && gameName != null && !gameName.isEmpty()
+                    && tagLine != null && !tagLine.isEmpty()) {
+                gameNames[row] = gameName;
+                tagLines[row] = tagLine;
+            }
+            return;
+        }
+        if (size == puuids.length) {
+            int capacity = size * 2;
+            puuids = Arrays.copyOf(puuids, capacity);
+            gameNames = Arrays.copyOf(gameNames, capacity);
+            tagLines = Arrays.copyOf(tagLines, capacity);
+            priorities = Arrays.copyOf(priorities, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+        }
+        puuids[size] = puuid;
+        gameNames[size] = gameName == null ? "" : gameName;
+        tagLines[size] = tagLine == null ? "" : tagLine;
+        priorities[size] = priority;
+        depths[size] = depth;
+        size++;
+    }
+
+    public void addAll(List<Ranked<Account>> accounts) {
+        for (var ranked: accounts) {
+            var account = ranked.value();
+            add(account.getPuuid(), account.getGameName(), account.getTagLine(), ranked.priority(), ranked.depth());
+        }
+    }
+
+    /**
+     * Adds the rows {@code from} to {@code to} of another buffer.
+     */
+    public void addAll(AccountBuffer other, int from, int to) {
+        for (int row = from; row < to; row++) {
+            add(other.puuids[row], other.gameNames[row], other.tagLines[row], other.priorities[row], other.depths[row]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String puuid(int row) {
+        return puuids[row];
+    }
+
+    public String gameName(int row) {
+        return gameNames[row];
+    }
+
+    public String tagLine(int row) {
+        return tagLines[row];
+    }
+
+    public int priority(int row) {
+        return priorities[row];
+    }
+
+    public int depth(int row) {
+        return depths[row];
+    }
+
+    public void clear() {
+        Arrays.fill(puuids, 0, size, null);
+        Arrays.fill(gameNames, 0, size, null);
+        Arrays.fill(tagLines, 0, size, null);
+        rows.clear();
+        size = 0;
+    }
+}
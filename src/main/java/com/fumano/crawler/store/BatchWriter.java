@@ -0,0 +1,108 @@
+package com.fumano.crawler.store;
+
+import com.fumano.crawler.model.Account;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups the participants of several crawled matches into one transaction that also marks the matches as crawled, so
+ * the accounts and the frontier are always committed atomically and a crash only loses matches that will be
+ * re-fetched.
+ * Match payloads are appended to the {@link PayloadStore} right away and their index entries join the same
+ * transaction once the segment has been forced to disk. Unless disabled, the co-plays among the participants of each
+ * match are counted in the same transaction as well, and so are the responses queued for the response cache.
+ */
+public class BatchWriter {
+
+    private final Store store;
+    private final PayloadStore payloadStore;
+    private final String region;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+    private final AccountBuffer accounts;
+    private final List<PayloadStore.Entry> payloads = new ArrayList<>();
+    private final List<Long> matchIds = new ArrayList<>();
+    private final boolean coPlays;
+    private final List<List<String>> players = new ArrayList<>();
+    private final List<CachedResponse> responses = new ArrayList<>();
+    private int matches;
+    private long pendingSince;
+
+    public BatchWriter(Store store, PayloadStore payloadStore, String region, int flushSize, Duration flushInterval,
+                       boolean coPlays) {
+        this.store = store;
+        this.payloadStore = payloadStore;
+        this.region = region;
+        this.flushSize = flushSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.accounts = new AccountBuffer(flushSize * 10);
+        this.coPlays = coPlays;
+    }
+
+    public boolean storesPayloads() {
+        return payloadStore != null;
+    }
+
+    public synchronized void addMatch(long matchIdId, List<Ranked<Account>> participants, String matchId,
+                                      byte[] payload) {
+        if (matches == 0 && responses.isEmpty()) {
+            pendingSince = System.nanoTime();
+        }
+        accounts.addAll(participants);
+        if (payloadStore != null && payload != null) {
+            try {
+                payloads.add(payloadStore.append(matchId, payload));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        matchIds.add(matchIdId);
+        if (coPlays) {
+            players.add(participants.stream().map(ranked -> ranked.value().getPuuid()).toList());
+        }
+        matches++;
+        flushIfDue();
+    }
+
+    /**
+     * Queues a response to be stored with the next batch, a batch of responses alone is flushed like one of matches.
+     */
+    public synchronized void addCachedResponse(CachedResponse response) {
+        if (matches == 0 && responses.isEmpty()) {
+            pendingSince = System.nanoTime();
+        }
+        responses.add(response);
+        flushIfDue();
+    }
+
+    private void flushIfDue() {
+        if (matches >= flushSize || responses.size() >= flushSize
+                || System.nanoTime() - pendingSince >= flushIntervalNanos) {
+            flush();
+        }
+    }
+
+    public synchronized void flush() {
+        if (matches == 0 && responses.isEmpty()) {
+            return;
+        }
+        if (!payloads.isEmpty()) {
+            try {
+                payloadStore.sync();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        store.addOrIgnoreAccounts(accounts, payloads, region, matchIds, players, responses);
+        accounts.clear();
+        payloads.clear();
+        matchIds.clear();
+        players.clear();
+        responses.clear();
+        matches = 0;
+    }
+}
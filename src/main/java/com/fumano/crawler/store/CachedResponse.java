@@ -0,0 +1,8 @@
+package com.fumano.crawler.store;
+
+/**
+ * A gzipped riot api response for the {@code response_cache} table that expires at {@code expires}, in epoch ms, or
+ * never if it is 0.
+ */
+public record CachedResponse(String key, byte[] value, long expires) {
+}
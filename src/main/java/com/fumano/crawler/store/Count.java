@@ -1,7 +1,7 @@
 package com.fumano.crawler.store;
 
 public enum Count {
-    AccountRow("account_row"), MatchIdRow("match_id_row");
+    BackfillCursor("backfill_cursor");
 
     private final String name;
 
@@ -0,0 +1,9 @@
+package com.fumano.crawler.store;
+
+import java.time.LocalDate;
+
+/**
+ * Accounts discovered and matches crawled in a region on one day.
+ */
+public record DailyStats(LocalDate day, String region, long accounts, long matches) {
+}
@@ -0,0 +1,152 @@
+package com.fumano.crawler.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Owns the connections to the crawler database: a single writer used by {@link Store}, a pool of read only
+ * connections for reporting queries and, in WAL mode, a connection running periodic passive checkpoints. With WAL
+ * readers see the last committed state and neither block nor get blocked by the writer.
+ */
+public class Database implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Database.class);
+
+    private final String url;
+    private final SqliteProfile profile;
+    private final Connection writer;
+    private final BlockingQueue<Connection> readers;
+    private final List<Connection> connections = new ArrayList<>();
+    private final ScheduledExecutorService checkpoints;
+
+    private Database(String file, SqliteProfile profile) throws SQLException {
+        this.url = "jdbc:sqlite:" + file;
+        this.profile = profile;
+        this.readers = new ArrayBlockingQueue<>(profile.readConnections());
+        try {
+            this.writer = open(false);
+            for (int i = 0; i < profile.readConnections(); i++) {
+                readers.add(open(true));
+            }
+            this.checkpoints = profile.isWal() ? startCheckpoints(open(false)) : null;
+        } catch (SQLException | RuntimeException e) {
+            // the caller never gets a database to close, so the connections opened so far are closed here
+            var failure = closeConnections();
+            if (failure != null) {
+                e.addSuppressed(failure);
+            }
+            throw e;
+        }
+    }
+
+    private ScheduledExecutorService startCheckpoints(Connection checkpointer) {
+        var executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "sqlite-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = profile.checkpointInterval().toMillis();
+        executor.scheduleWithFixedDelay(() -> checkpoint(checkpointer), interval, interval, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    public static Database open(String file, SqliteProfile profile) throws SQLException {
+        return new Database(file, profile);
+    }
+
+    private Connection open(boolean readOnly) throws SQLException {
+        var connection = DriverManager.getConnection(url);
+        connections.add(connection);
+        try (var statement = connection.createStatement()) {
+            statement.execute("PRAGMA busy_timeout = 5000");
+            if (!readOnly) {
+                // only takes effect on a new database, an existing one keeps its mode until a full vacuum
+                statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                statement.execute("PRAGMA page_size = " + profile.pageSize());
+                statement.execute("PRAGMA journal_mode = " + profile.journalMode());
+            }
+            statement.execute("PRAGMA synchronous = " + profile.synchronous());
+            statement.execute("PRAGMA mmap_size = " + profile.mmapSize());
+            statement.execute("PRAGMA cache_size = " + profile.cacheSize());
+            statement.execute("PRAGMA temp_store = " + profile.tempStore());
+            if (readOnly) {
+                statement.execute("PRAGMA query_only = ON");
+            }
+        }
+        return connection;
+    }
+
+    private void checkpoint(Connection connection) {
+        try (var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("PRAGMA wal_checkpoint(PASSIVE)")) {
+            if (resultSet.next() && resultSet.getInt(1) != 0) {
+                logger.warn("wal checkpoint was blocked");
+            }
+        } catch (SQLException e) {
+            logger.error("wal checkpoint failed: {}", e.getMessage());
+        }
+    }
+
+    public Connection writer() {
+        return writer;
+    }
+
+    public <T> T read(Query<T> query) {
+        Connection connection;
+        try {
+            connection = readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        try {
+            return query.run(connection);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            readers.add(connection);
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (checkpoints != null) {
+            checkpoints.shutdown();
+            try {
+                checkpoints.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        var failure = closeConnections();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Closes every connection, returns the last failure or null.
+     */
+    private SQLException closeConnections() {
+        SQLException failure = null;
+        for (var connection: connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        return failure;
+    }
+
+    public interface Query<T> {
+        T run(Connection connection) throws SQLException;
+    }
+}
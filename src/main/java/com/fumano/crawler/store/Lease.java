@@ -0,0 +1,19 @@
+package com.fumano.crawler.store;
+
+/**
+ * Kinds of leased rows, named after their table.
+ */
+public enum Lease {
+    Account("accounts"), MatchId("match_ids");
+
+    private final String table;
+
+    Lease(String table) {
+        this.table = table;
+    }
+
+    @Override
+    public String toString() {
+        return table;
+    }
+}
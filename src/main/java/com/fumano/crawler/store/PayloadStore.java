@@ -0,0 +1,452 @@
+package com.fumano.crawler.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append only store for full match payloads. Payloads are deflated against a preset dictionary, which is the first
+ * payload written to a segment, and appended to segment files next to the database. The match id to position index
+ * lives in the {@code match_payloads} table and is committed together with the crawled matches by {@link BatchWriter},
+ * so on open every segment is truncated back to the last indexed record and a crash never leaves stray payloads.
+ * <p>
+ * Every crawler node sharing a dataset writes the segments of its own folder below the payload folder, named after
+ * the node and recorded with every index entry, and holds a lock on it while open, so a second process of the same
+ * node refuses to start instead of truncating the appends of the first. Entries without a node predate the folders
+ * and live in the payload folder itself.
+ * <p>
+ * Segment layout: magic, version, dictionary length, dictionary, then records of
+ * {@code [record length][id length][id][raw length][deflated payload]}.
+ */
+public class PayloadStore implements AutoCloseable {
+
+    private static final int MAGIC = 0x4C4F4C50;
+    private static final int VERSION = 1;
+    private static final int MAX_DICTIONARY = 32 * 1024;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".lolp";
+    private static final String LOCK_FILE = ".lock";
+
+    private final Path root;
+    private final String node;
+    private final Path directory;
+    private final long segmentSize;
+    private final Database database;
+    private final Deflater deflater = new Deflater();
+    private byte[] compressed = new byte[64 * 1024];
+    private FileChannel lock;
+    private FileChannel active;
+    private int activeSegment;
+    private byte[] activeDictionary;
+    private long activePosition;
+    private long records;
+    private long rawBytes;
+    private long storedBytes;
+
+    private PayloadStore(Path root, String node, long segmentSize, Database database) {
+        this.root = root;
+        this.node = node;
+        this.directory = nodeDirectory(root, node);
+        this.segmentSize = segmentSize;
+        this.database = database;
+    }
+
+    /**
+     * Opens the segments of {@code node} in its folder below {@code root}, {@code node} has to be a valid file name.
+     * Fails if another process or store holds the segments of the node.
+     */
+    public static PayloadStore open(Path root, String node, long segmentSize, Database database) throws IOException {
+        var store = new PayloadStore(root, node, segmentSize, database);
+        Files.createDirectories(store.directory);
+        store.lock = FileChannel.open(store.directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        try {
+            if (!tryLock(store.lock)) {
+                throw new IOException(("payloads of node '%s' are in use by another process, every process sharing "
+                        + "the dataset needs its own crawler.node").formatted(node));
+            }
+            store.repair();
+        } catch (IOException e) {
+            store.lock.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private static boolean tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            return false;
+        }
+    }
+
+    private static Path nodeDirectory(Path root, String node) {
+        return node.isEmpty() ? root : root.resolve(node);
+    }
+
+    /**
+     * Truncates every segment back to its last indexed record, drops segments whose header never made it to disk and
+     * continues the last one.
+     */
+    private void repair() throws IOException {
+        for (int segment: segments()) {
+            boolean complete;
+            try (var channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                var header = ByteBuffer.allocate(12);
+                channel.read(header, 0);
+                complete = header.position() == 12 && channel.size() >= 12 + header.getInt(8);
+                if (complete) {
+                    long committed = Math.max(committedEnd(segment), 12 + header.getInt(8));
+                    if (channel.size() > committed) {
+                        channel.truncate(committed);
+                    }
+                }
+            }
+            if (!complete) {
+                Files.delete(segmentPath(segment));
+            }
+        }
+        var segments = segments();
+        if (!segments.isEmpty()) {
+            openActive(segments.get(segments.size() - 1));
+        }
+    }
+
+    private List<Integer> segments() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return segmentPath(directory, segment);
+    }
+
+    private static Path segmentPath(Path directory, int segment) {
+        return directory.resolve(SEGMENT_PREFIX + "%06d".formatted(segment) + SEGMENT_SUFFIX);
+    }
+
+    private long committedEnd(int segment) {
+        return database.read(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT MAX(position + length) FROM match_payloads WHERE node = ? AND segment = ?")) {
+                statement.setString(1, node);
+                statement.setInt(2, segment);
+                try (var resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getLong(1) : 0L;
+                }
+            }
+        });
+    }
+
+    private void openActive(int segment) throws IOException {
+        active = FileChannel.open(segmentPath(segment), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeSegment = segment;
+        var header = ByteBuffer.allocate(12);
+        active.read(header, 0);
+        header.flip();
+        if (header.remaining() < 12 || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("invalid payload segment " + segmentPath(segment));
+        }
+        activeDictionary = new byte[header.getInt()];
+        active.read(ByteBuffer.wrap(activeDictionary), 12);
+        activePosition = Math.max(active.size(), 12 + activeDictionary.length);
+    }
+
+    private void rotate(byte[] dictionary) throws IOException {
+        if (active != null) {
+            active.force(false);
+            active.close();
+        }
+        int segment = active == null ? 0 : activeSegment + 1;
+        activeDictionary = Arrays.copyOf(dictionary, Math.min(dictionary.length, MAX_DICTIONARY));
+        active = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        activeSegment = segment;
+        var header = ByteBuffer.allocate(12 + activeDictionary.length);
+        header.putInt(MAGIC).putInt(VERSION).putInt(activeDictionary.length).put(activeDictionary).flip();
+        writeFully(header, 0);
+        activePosition = header.capacity();
+    }
+
+    public synchronized Entry append(String matchId, byte[] payload) throws IOException {
+        if (active == null || activePosition >= segmentSize) {
+            rotate(payload);
+        }
+        deflater.reset();
+        deflater.setDictionary(activeDictionary);
+        deflater.setInput(payload);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        byte[] id = matchId.getBytes(StandardCharsets.UTF_8);
+        int recordLength = 4 + 2 + id.length + 4 + length;
+        var record = ByteBuffer.allocate(recordLength);
+        record.putInt(recordLength).putShort((short) id.length).put(id).putInt(payload.length).put(compressed, 0, length);
+        record.flip();
+        long offset = activePosition;
+        writeFully(record, offset);
+        activePosition += recordLength;
+        records++;
+        rawBytes += payload.length;
+        storedBytes += recordLength;
+        return new Entry(matchId, node, activeSegment, offset, recordLength);
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += active.write(buffer, position);
+        }
+    }
+
+    /**
+     * Forces appended payloads to disk, must happen before their index entries are committed.
+     */
+    public synchronized void sync() throws IOException {
+        if (active != null) {
+            active.force(false);
+        }
+    }
+
+    public Optional<byte[]> get(String matchId) throws IOException {
+        Optional<Entry> entry = database.read(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT node, segment, position, length FROM match_payloads WHERE match_id = ?")) {
+                statement.setString(1, matchId);
+                try (var resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return Optional.empty();
+                    }
+                    return Optional.of(new Entry(matchId, resultSet.getString(1), resultSet.getInt(2),
+                            resultSet.getLong(3), resultSet.getInt(4)));
+                }
+            }
+        });
+        if (entry.isEmpty()) {
+            return Optional.empty();
+        }
+        try (var channel = FileChannel.open(segmentPath(nodeDirectory(root, entry.get().node()),
+                entry.get().segment()), StandardOpenOption.READ)) {
+            var header = ByteBuffer.allocate(12);
+            channel.read(header, 0);
+            byte[] dictionary = new byte[header.getInt(8)];
+            channel.read(ByteBuffer.wrap(dictionary), 12);
+            var record = ByteBuffer.allocate(entry.get().length());
+            channel.read(record, entry.get().position());
+            record.flip();
+            var reader = new SegmentReader(dictionary);
+            return Optional.of(Arrays.copyOf(reader.inflate(record), reader.length));
+        }
+    }
+
+    /**
+     * Streams every payload stored by this node in write order. The payload array passed to the visitor is reused
+     * between records, only its first {@code length} bytes are valid and it must not be kept.
+     */
+    public void scan(Visitor visitor) throws IOException {
+        for (int segment: segments()) {
+            try (var channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    throw new IOException("invalid payload segment " + segmentPath(segment));
+                }
+                byte[] dictionary = new byte[buffer.getInt()];
+                buffer.get(dictionary);
+                var reader = new SegmentReader(dictionary);
+                while (buffer.remaining() >= 4) {
+                    int recordLength = buffer.getInt(buffer.position());
+                    if (recordLength < 10 || recordLength > buffer.remaining()) {
+                        break;
+                    }
+                    var record = buffer.slice(buffer.position(), recordLength);
+                    buffer.position(buffer.position() + recordLength);
+                    String matchId = reader.matchId(record);
+                    visitor.visit(matchId, reader.inflate(record), reader.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the segments of every node below {@code root} for reading only. Unlike {@link #open} nothing is truncated
+     * or locked, so a reader is safe next to processes appending to the segments as long as it only reads committed
+     * index entries.
+     */
+    public static Reader openReader(Path root) {
+        return new Reader(root);
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(records, rawBytes, storedBytes);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        deflater.end();
+        if (active != null) {
+            active.force(false);
+            active.close();
+        }
+        lock.close();
+    }
+
+    private static class SegmentReader {
+
+        private final byte[] dictionary;
+        private final Inflater inflater = new Inflater();
+        private byte[] output = new byte[64 * 1024];
+        private byte[] input = new byte[16 * 1024];
+        private int length;
+
+        SegmentReader(byte[] dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        String matchId(ByteBuffer record) {
+            int idLength = record.getShort(4);
+            byte[] id = new byte[idLength];
+            record.get(6, id);
+            return new String(id, StandardCharsets.UTF_8);
+        }
+
+        byte[] inflate(ByteBuffer record) throws IOException {
+            int idLength = record.getShort(4);
+            int rawLength = record.getInt(6 + idLength);
+            int dataOffset = 10 + idLength;
+            int dataLength = record.limit() - dataOffset;
+            if (input.length < dataLength) {
+                input = new byte[dataLength];
+            }
+            record.get(dataOffset, input, 0, dataLength);
+            if (output.length < rawLength) {
+                output = new byte[rawLength];
+            }
+            inflater.reset();
+            inflater.setInput(input, 0, dataLength);
+            length = 0;
+            try {
+                while (length < rawLength) {
+                    int inflated = inflater.inflate(output, length, rawLength - length);
+                    if (inflated == 0 && inflater.needsDictionary()) {
+                        inflater.setDictionary(dictionary);
+                    } else if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("corrupt payload record", e);
+            }
+            return output;
+        }
+    }
+
+    /**
+     * Reads payloads by their index entries, keeping the segment of the last entry open, so entries read in node,
+     * segment and position order touch every segment once.
+     */
+    public static class Reader implements AutoCloseable {
+
+        private final Path root;
+        private FileChannel channel;
+        private String node;
+        private int segment = -1;
+        private SegmentReader reader;
+        private ByteBuffer record = ByteBuffer.allocate(16 * 1024);
+
+        private Reader(Path root) {
+            this.root = root;
+        }
+
+        /**
+         * Passes the payload of {@code entry} to the visitor, with the same reuse rules as {@link #scan}.
+         */
+        public void read(Entry entry, Visitor visitor) throws IOException {
+            if (entry.segment() != segment || !entry.node().equals(node)) {
+                close();
+                var path = segmentPath(nodeDirectory(root, entry.node()), entry.segment());
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                var header = ByteBuffer.allocate(12);
+                readFully(header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException("invalid payload segment " + path);
+                }
+                var dictionary = ByteBuffer.allocate(header.getInt());
+                readFully(dictionary, 12);
+                reader = new SegmentReader(dictionary.array());
+                node = entry.node();
+                segment = entry.segment();
+            }
+            if (record.capacity() < entry.length()) {
+                record = ByteBuffer.allocate(entry.length());
+            }
+            record.clear().limit(entry.length());
+            readFully(record, entry.position());
+            record.flip();
+            visitor.visit(entry.matchId(), reader.inflate(record), reader.length);
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("truncated payload segment");
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+                node = null;
+                segment = -1;
+            }
+        }
+    }
+
+    public record Entry(String matchId, String node, int segment, long position, int length) {
+    }
+
+    public record Stats(long records, long rawBytes, long storedBytes) {
+
+        public double bytesPerMatch() {
+            return records == 0 ? 0 : (double) storedBytes / records;
+        }
+
+        @Override
+        public String toString() {
+            return "%d payloads, %.0f bytes per match, %.1fx compression".formatted(records, bytesPerMatch(),
+                    storedBytes == 0 ? 0 : (double) rawBytes / storedBytes);
+        }
+    }
+
+    public interface Visitor {
+        void visit(String matchId, byte[] payload, int length) throws IOException;
+    }
+}
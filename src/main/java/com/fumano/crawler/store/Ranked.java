@@ -0,0 +1,7 @@
+package com.fumano.crawler.store;
+
+/**
+ * A row of the crawl frontier with its priority, higher is crawled first, and its discovery depth from the seed.
+ */
+public record Ranked<T>(T value, int priority, int depth) {
+}
@@ -0,0 +1,29 @@
+package com.fumano.crawler.store;
+
+/**
+ * Row counts of a region. Rows that are neither pending nor crawled are leased to a running crawl, crawled match ids
+ * include the archived ones.
+ */
+public record RegionStats(String region, long accounts, long pendingAccounts, long crawledAccounts,
+                          long incompleteAccounts, long matchIds, long pendingMatchIds, long crawledMatchIds,
+                          long archivedMatchIds) {
+
+    public long leasedAccounts() {
+        return accounts - pendingAccounts - crawledAccounts;
+    }
+
+    public long leasedMatchIds() {
+        return matchIds - pendingMatchIds - crawledMatchIds;
+    }
+
+    /**
+     * Share of the accounts that have their riot id, the progress of the account backfill.
+     */
+    public double completeness() {
+        return accounts == 0 ? 1 : 1 - (double) incompleteAccounts / accounts;
+    }
+
+    public double matchIdsPerAccount() {
+        return crawledAccounts == 0 ? 0 : (double) matchIds / crawledAccounts;
+    }
+}
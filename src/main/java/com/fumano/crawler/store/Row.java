@@ -0,0 +1,4 @@
+package com.fumano.crawler.store;
+
+public record Row<T>(long id, T value) {
+}
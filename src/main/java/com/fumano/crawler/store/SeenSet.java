@@ -0,0 +1,210 @@
+package com.fumano.crawler.store;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Dedup cache in front of an INSERT OR IGNORE: the 64 bit hashes of the recently inserted keys in two open addressing
+ * tables of longs. A key whose hash is in either table is skipped, every other key goes to the insert and the unique
+ * index decides, so the cache needs nothing loaded at startup, a snapshot may restore the tables of the last run.
+ * Once the current table holds {@code recentKeys} hashes the older table is cleared and takes its place, a hit in the
+ * older table moves the hash back into the current one. Only a collision of two 64 bit hashes could skip a new key.
+ */
+public class SeenSet {
+
+    private static final long EMPTY = 0;
+
+    private final int capacity;
+    private long[] current;
+    private long[] previous;
+    private int currentSize;
+    private long lookups;
+    private long hits;
+    private long ignored;
+
+    /**
+     * @param recentKeys hashes kept per table, 0 disables the cache
+     */
+    public SeenSet(int recentKeys) {
+        this.capacity = recentKeys;
+        int length = recentKeys > 0 ? Integer.highestOneBit(recentKeys * 2 - 1) << 1 : 1;
+        this.current = new long[Math.max(length, 2)];
+        this.previous = new long[current.length];
+    }
+
+    /**
+     * Whether {@code key} was inserted recently and the insert can be skipped.
+     */
+    public boolean check(String key) {
+        lookups++;
+        if (capacity == 0) {
+            return false;
+        }
+        long hash = hash(key);
+        if (contains(current, hash)) {
+            hits++;
+            return true;
+        }
+        if (contains(previous, hash)) {
+            hits++;
+            put(hash);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the outcome of an insert the cache let through, {@code changed} tells whether a row was inserted.
+     */
+    public void inserted(String key, boolean changed) {
+        if (!changed) {
+            ignored++;
+        }
+        add(key);
+    }
+
+    public void add(String key) {
+        if (capacity > 0) {
+            put(hash(key));
+        }
+    }
+
+    public void remove(String key) {
+        if (capacity == 0) {
+            return;
+        }
+        long hash = hash(key);
+        if (remove(current, hash)) {
+            currentSize--;
+        }
+        remove(previous, hash);
+    }
+
+    private void put(long hash) {
+        if (contains(current, hash)) {
+            return;
+        }
+        if (currentSize >= capacity) {
+            var cleared = previous;
+            Arrays.fill(cleared, EMPTY);
+            previous = current;
+            current = cleared;
+            currentSize = 0;
+        }
+        int mask = current.length - 1;
+        int i = (int) hash & mask;
+        while (current[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        current[i] = hash;
+        currentSize++;
+    }
+
+    private static boolean contains(long[] table, long hash) {
+        return find(table, hash) >= 0;
+    }
+
+    private static int find(long[] table, long hash) {
+        int mask = table.length - 1;
+        for (int i = (int) hash & mask; table[i] != EMPTY; i = (i + 1) & mask) {
+            if (table[i] == hash) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes {@code hash} and shifts the hashes probed past it back, so lookups never stop at the gap it leaves.
+     */
+    private static boolean remove(long[] table, long hash) {
+        int i = find(table, hash);
+        if (i < 0) {
+            return false;
+        }
+        int mask = table.length - 1;
+        for (int j = (i + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+            int home = (int) table[j] & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = EMPTY;
+        return true;
+    }
+
+    /**
+     * FNV-1a over the chars, mixed so the low bits used as table index depend on the whole key. Never {@link #EMPTY}.
+     */
+    static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    /**
+     * Writes both tables, for {@link #read(ByteBuffer)} to restore at the next start.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(capacity);
+        out.writeInt(currentSize);
+        out.writeInt(current.length);
+        for (long hash: current) {
+            out.writeLong(hash);
+        }
+        for (long hash: previous) {
+            out.writeLong(hash);
+        }
+    }
+
+    /**
+     * Restores the tables written by {@link #write(DataOutputStream)}, returns false and skips them if they were
+     * written for another number of recent keys.
+     */
+    public boolean read(ByteBuffer buffer) {
+        int capacity = buffer.getInt();
+        int size = buffer.getInt();
+        int length = buffer.getInt();
+        if (length < 0 || buffer.remaining() < 2L * length * Long.BYTES) {
+            throw new BufferUnderflowException();
+        }
+        int end = buffer.position() + 2 * length * Long.BYTES;
+        if (capacity != this.capacity || length != current.length) {
+            buffer.position(end);
+            return false;
+        }
+        buffer.asLongBuffer().get(current).get(previous);
+        buffer.position(end);
+        currentSize = size;
+        return true;
+    }
+
+    public Stats getStats() {
+        return new Stats(lookups, hits, ignored, (long) (current.length + previous.length) * Long.BYTES);
+    }
+
+    /**
+     * @param ignored inserts the cache let through that the unique index turned away
+     */
+    public record Stats(long lookups, long hits, long ignored, long tableBytes) {
+
+        public double hitRate() {
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "%d lookups, %.1f%% hits, %d ignored inserts, %d KiB tables".formatted(
+                    lookups, hitRate() * 100, ignored, tableBytes >> 10);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.fumano.crawler.store;
+
+import java.time.Duration;
+import java.util.Set;
+
+public record SqliteProfile(String journalMode, String synchronous, long mmapSize, int cacheSize, String tempStore,
+                            int pageSize, Duration checkpointInterval, int readConnections) {
+
+    public static final Set<String> JOURNAL_MODES = Set.of("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+    public static final Set<String> SYNCHRONOUS_LEVELS = Set.of("OFF", "NORMAL", "FULL", "EXTRA");
+    public static final Set<String> TEMP_STORES = Set.of("DEFAULT", "FILE", "MEMORY");
+
+    public static final SqliteProfile DEFAULT = new SqliteProfile("WAL", "NORMAL", 256L << 20, -64 << 10,
+            "MEMORY", 4096, Duration.ofSeconds(60), 2);
+
+    public boolean isWal() {
+        return journalMode.equals("WAL");
+    }
+}
@@ -0,0 +1,99 @@
+package com.fumano.crawler.store;
+
+import com.fumano.crawler.model.Account;
+import com.fumano.crawler.model.AccountState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link WorkLease} kept in the leases table of the shared sqlite file, so several crawler processes on one machine
+ * coordinate through the database alone. A heartbeat renews the leases of this owner three times per lease duration
+ * and reclaims the expired leases of owners that stopped sending theirs.
+ */
+public class SqliteWorkLease implements WorkLease {
+
+    private final Logger logger = LoggerFactory.getLogger(SqliteWorkLease.class);
+    private final Store store;
+    private final String owner;
+    private final long ttlMillis;
+    private final ScheduledExecutorService heartbeat;
+
+    private SqliteWorkLease(Store store, String owner, Duration ttl) {
+        this.store = store;
+        this.owner = owner;
+        this.ttlMillis = ttl.toMillis();
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "lease-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the leases of {@code owner}. Leases left by an earlier run of the same owner are released right away
+     * instead of waiting for them to expire.
+     */
+    public static SqliteWorkLease open(Store store, String owner, Duration ttl) {
+        var lease = new SqliteWorkLease(store, owner, ttl);
+        store.releaseLeases(owner);
+        lease.beat();
+        long period = Math.max(1, lease.ttlMillis / 3);
+        lease.heartbeat.scheduleAtFixedRate(lease::beat, period, period, TimeUnit.MILLISECONDS);
+        return lease;
+    }
+
+    private void beat() {
+        try {
+            long now = System.currentTimeMillis();
+            store.renewLeases(owner, now + ttlMillis);
+            int reclaimed = store.reclaimExpiredLeases(now);
+            if (reclaimed > 0) {
+                logger.warn("reclaimed %d rows of expired leases".formatted(reclaimed));
+            }
+        } catch (RuntimeException e) {
+            logger.error("lease heartbeat failed: %s".formatted(e.getMessage()));
+        }
+    }
+
+    private long expires() {
+        return System.currentTimeMillis() + ttlMillis;
+    }
+
+    @Override
+    public String owner() {
+        return owner;
+    }
+
+    @Override
+    public List<Row<Ranked<String>>> claimMatchIds(String region, int limit) {
+        return store.claimMatchIds(region, limit, owner, expires());
+    }
+
+    @Override
+    public Optional<Row<Ranked<Account>>> claimAccount(String region) {
+        return store.claimAccount(region, owner, expires());
+    }
+
+    @Override
+    public Optional<AccountState> claimRefresh(String region, long now) {
+        return store.claimAccountDueForRefresh(region, now, now + TimeUnit.MILLISECONDS.toSeconds(ttlMillis));
+    }
+
+    @Override
+    public void release(Lease kind, List<Long> ids) {
+        store.releaseLeases(kind, ids, owner);
+    }
+
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        store.releaseLeases(owner);
+    }
+}
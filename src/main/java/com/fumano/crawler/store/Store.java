@@ -1,71 +1,609 @@
 package com.fumano.crawler.store;
 
 import com.fumano.crawler.model.Account;
+import com.fumano.crawler.metrics.Counter;
+import com.fumano.crawler.metrics.Histogram;
+import com.fumano.crawler.metrics.Metrics;
+import com.fumano.crawler.model.AccountState;
 
 import java.sql.*;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 public class Store {
 
+    private static final List<List<String>> MIGRATIONS = List.of(
+            // v1: explicit crawl sequence ids, counts hold the last id seen instead of a row offset
+            List.of("""
+CREATE TABLE accounts_v1 (
+    id INTEGER PRIMARY KEY AUTOINCREMENT,
+    puuid TEXT UNIQUE NOT NULL,
+    game_name TEXT NOT NULL,
+    tag_line TEXT NOT NULL
+);
+""",
+                    "INSERT INTO accounts_v1 (puuid, game_name, tag_line) SELECT puuid, game_name, tag_line FROM accounts ORDER BY rowid",
+                    "DROP TABLE accounts",
+                    "ALTER TABLE accounts_v1 RENAME TO accounts",
+                    """
+CREATE TABLE match_ids_v1 (
+    id INTEGER PRIMARY KEY AUTOINCREMENT,
+    match_id TEXT UNIQUE NOT NULL
+);
+""",
+                    "INSERT INTO match_ids_v1 (match_id) SELECT match_id FROM match_ids ORDER BY rowid",
+                    "DROP TABLE match_ids",
+                    "ALTER TABLE match_ids_v1 RENAME TO match_ids",
+                    "UPDATE counts SET name = 'account_cursor' WHERE name = 'account_row'",
+                    "UPDATE counts SET name = 'match_id_cursor' WHERE name = 'match_id_row'"
+            ),
+            // v2: per account crawl state for incremental match list refreshes
+            List.of("""
+CREATE TABLE account_state (
+    account_id INTEGER PRIMARY KEY NOT NULL,
+    last_match_id TEXT,
+    last_refresh INTEGER NOT NULL,
+    next_refresh INTEGER NOT NULL,
+    refresh_interval INTEGER NOT NULL
+);
+""",
+                    "CREATE INDEX account_state_next_refresh ON account_state (next_refresh)",
+                    """
+CREATE TRIGGER accounts_delete_state AFTER DELETE ON accounts BEGIN
+    DELETE FROM account_state WHERE account_id = OLD.id;
+END;
+""",
+                    """
+INSERT INTO account_state (account_id, last_match_id, last_refresh, next_refresh, refresh_interval)
+SELECT id, NULL, 0, 0, 86400 FROM accounts WHERE id <= (SELECT value FROM counts WHERE name = 'account_cursor')
+"""
+            ),
+            // v3: index of full match payloads kept in the segment files of PayloadStore
+            List.of("""
+CREATE TABLE match_payloads (
+    match_id TEXT PRIMARY KEY NOT NULL,
+    segment INTEGER NOT NULL,
+    position INTEGER NOT NULL,
+    length INTEGER NOT NULL
+) WITHOUT ROWID;
+""",
+                    "CREATE INDEX match_payloads_position ON match_payloads (segment, position)"
+            ),
+            // v4: partial index over accounts still missing their riot id, checkpoint for the backfill
+            List.of(
+                    "CREATE INDEX accounts_incomplete ON accounts (id) WHERE game_name = '' OR tag_line = ''",
+                    "INSERT OR IGNORE INTO counts (name, value) VALUES ('backfill_cursor', 0)"
+            ),
+            // v5: rows partitioned by region, cursors move to per region counts in addRegion
+            List.of(
+                    "ALTER TABLE accounts ADD COLUMN region TEXT NOT NULL DEFAULT ''",
+                    "ALTER TABLE match_ids ADD COLUMN region TEXT NOT NULL DEFAULT ''",
+                    "UPDATE match_ids SET region = substr(match_id, 1, instr(match_id, '_') - 1) WHERE instr(match_id, '_') > 1",
+                    "CREATE INDEX accounts_region ON accounts (region, id)",
+                    "CREATE INDEX match_ids_region ON match_ids (region, id)"
+            ),
+            // v6: priority frontier, crawled replaces the cursors (0 pending, 1 crawled, 2 claimed by a running crawl)
+            List.of(
+                    "ALTER TABLE accounts ADD COLUMN priority INTEGER NOT NULL DEFAULT 0",
+                    "ALTER TABLE accounts ADD COLUMN depth INTEGER NOT NULL DEFAULT 0",
+                    "ALTER TABLE accounts ADD COLUMN crawled INTEGER NOT NULL DEFAULT 0",
+                    "UPDATE accounts SET crawled = 1 WHERE id IN (SELECT account_id FROM account_state)",
+                    "ALTER TABLE match_ids ADD COLUMN priority INTEGER NOT NULL DEFAULT 0",
+                    "ALTER TABLE match_ids ADD COLUMN depth INTEGER NOT NULL DEFAULT 0",
+                    "ALTER TABLE match_ids ADD COLUMN crawled INTEGER NOT NULL DEFAULT 0",
+                    """
+UPDATE match_ids SET crawled = 1 WHERE id <= COALESCE(
+    (SELECT value FROM counts WHERE name = 'match_id_cursor.' || match_ids.region),
+    (SELECT value FROM counts WHERE name = 'match_id_cursor'),
+    0)
+""",
+                    "DELETE FROM counts WHERE name LIKE 'account_cursor%' OR name LIKE 'match_id_cursor%'",
+                    "CREATE INDEX accounts_frontier ON accounts (region, priority DESC, id) WHERE crawled = 0",
+                    "CREATE INDEX match_ids_frontier ON match_ids (region, priority DESC, id) WHERE crawled = 0",
+                    "CREATE INDEX match_ids_claimed ON match_ids (region) WHERE crawled = 2"
+            ),
+            // v7: claimed rows are leased to a crawler process, so several processes can share one database
+            List.of(
+                    "UPDATE match_ids SET crawled = 0 WHERE crawled = 2",
+                    "DROP INDEX match_ids_claimed",
+                    """
+CREATE TABLE leases (
+    kind TEXT NOT NULL,
+    row_id INTEGER NOT NULL,
+    owner TEXT NOT NULL,
+    expires INTEGER NOT NULL,
+    PRIMARY KEY (kind, row_id)
+) WITHOUT ROWID;
+""",
+                    "CREATE INDEX leases_owner ON leases (owner)",
+                    "CREATE INDEX leases_expires ON leases (expires)"
+            ),
+            // v8: riot api responses cached across retries and restarts, evicted in insertion order
+            List.of("""
+CREATE TABLE response_cache (
+    id INTEGER PRIMARY KEY,
+    key TEXT UNIQUE NOT NULL,
+    expires INTEGER NOT NULL,
+    size INTEGER NOT NULL,
+    value BLOB NOT NULL
+);
+""",
+                    "CREATE INDEX response_cache_expires ON response_cache (expires) WHERE expires > 0"
+            ),
+            // v9: co-play edges between accounts, stored in both directions so neighbours are a key prefix
+            List.of("""
+CREATE TABLE co_plays (
+    account_id INTEGER NOT NULL,
+    other_id INTEGER NOT NULL,
+    games INTEGER NOT NULL,
+    PRIMARY KEY (account_id, other_id)
+) WITHOUT ROWID;
+"""
+            ),
+            // v10: row counts per region and state and per day, kept up to date by triggers so reads never scan
+            List.of("""
+CREATE TABLE stats (
+    name TEXT NOT NULL,
+    region TEXT NOT NULL,
+    value INTEGER NOT NULL,
+    PRIMARY KEY (name, region)
+) WITHOUT ROWID;
+""",
+                    """
+CREATE TABLE daily_stats (
+    day INTEGER NOT NULL,
+    region TEXT NOT NULL,
+    accounts INTEGER NOT NULL,
+    matches INTEGER NOT NULL,
+    PRIMARY KEY (day, region)
+) WITHOUT ROWID;
+""",
+                    """
+INSERT INTO stats (name, region, value)
+SELECT 'accounts', region, COUNT() FROM accounts GROUP BY region
+UNION ALL SELECT 'accounts_pending', region, COUNT() FROM accounts WHERE crawled = 0 GROUP BY region
+UNION ALL SELECT 'accounts_crawled', region, COUNT() FROM accounts WHERE crawled = 1 GROUP BY region
+UNION ALL SELECT 'accounts_incomplete', region, COUNT() FROM accounts
+    WHERE game_name = '' OR tag_line = '' GROUP BY region
+UNION ALL SELECT 'match_ids', region, COUNT() FROM match_ids GROUP BY region
+UNION ALL SELECT 'match_ids_pending', region, COUNT() FROM match_ids WHERE crawled = 0 GROUP BY region
+UNION ALL SELECT 'match_ids_crawled', region, COUNT() FROM match_ids WHERE crawled = 1 GROUP BY region
+""",
+                    """
+CREATE TRIGGER accounts_stats_insert AFTER INSERT ON accounts BEGIN
+    INSERT INTO stats (name, region, value) VALUES
+        ('accounts', NEW.region, 1),
+        ('accounts_pending', NEW.region, NEW.crawled = 0),
+        ('accounts_crawled', NEW.region, NEW.crawled = 1),
+        ('accounts_incomplete', NEW.region, NEW.game_name = '' OR NEW.tag_line = '')
+    ON CONFLICT (name, region) DO UPDATE SET value = value + excluded.value;
+    INSERT INTO daily_stats (day, region, accounts, matches)
+    VALUES (CAST(strftime('%s', 'now') AS INTEGER) / 86400, NEW.region, 1, 0)
+    ON CONFLICT (day, region) DO UPDATE SET accounts = accounts + 1;
+END;
+""",
+                    """
+CREATE TRIGGER accounts_stats_update AFTER UPDATE OF region, crawled, game_name, tag_line ON accounts
+WHEN OLD.region != NEW.region OR OLD.crawled != NEW.crawled
+    OR (OLD.game_name = '' OR OLD.tag_line = '') != (NEW.game_name = '' OR NEW.tag_line = '')
+BEGIN
+    INSERT INTO stats (name, region, value) VALUES
+        ('accounts', OLD.region, -1),
+        ('accounts_pending', OLD.region, -(OLD.crawled = 0)),
+        ('accounts_crawled', OLD.region, -(OLD.crawled = 1)),
+        ('accounts_incomplete', OLD.region, -(OLD.game_name = '' OR OLD.tag_line = ''))
+    ON CONFLICT (name, region) DO UPDATE SET value = value + excluded.value;
+    INSERT INTO stats (name, region, value) VALUES
+        ('accounts', NEW.region, 1),
+        ('accounts_pending', NEW.region, NEW.crawled = 0),
+        ('accounts_crawled', NEW.region, NEW.crawled = 1),
+        ('accounts_incomplete', NEW.region, NEW.game_name = '' OR NEW.tag_line = '')
+    ON CONFLICT (name, region) DO UPDATE SET value = value + excluded.value;
+END;
+""",
+                    """
+CREATE TRIGGER accounts_stats_delete AFTER DELETE ON accounts BEGIN
+    INSERT INTO stats (name, region, value) VALUES
+        ('accounts', OLD.region, -1),
+        ('accounts_pending', OLD.region, -(OLD.crawled = 0)),
+        ('accounts_crawled', OLD.region, -(OLD.crawled = 1)),
+        ('accounts_incomplete', OLD.region, -(OLD.game_name = '' OR OLD.tag_line = ''))
+    ON CONFLICT (name, region) DO UPDATE SET value = value + excluded.value;
+END;
+""",
+                    """
+CREATE TRIGGER match_ids_stats_insert AFTER INSERT ON match_ids BEGIN
+    INSERT INTO stats (name, region, value) VALUES
+        ('match_ids', NEW.region, 1),
+        ('match_ids_pending', NEW.region, NEW.crawled = 0),
+        ('match_ids_crawled', NEW.region, NEW.crawled = 1)
+    ON CONFLICT (name, region) DO UPDATE SET value = value + excluded.value;
+    INSERT INTO daily_stats (day, region, accounts, matches)
+    SELECT CAST(strftime('%s', 'now') AS INTEGER) / 86400, NEW.region, 0, 1 WHERE NEW.crawled = 1
+    ON CONFLICT (day, region) DO UPDATE SET matches = matches + 1;
+END;
+""",
+                    """
+CREATE TRIGGER match_ids_stats_update AFTER UPDATE OF region, crawled ON match_ids
+WHEN OLD.region != NEW.region OR OLD.crawled != NEW.crawled
+BEGIN
+    INSERT INTO stats (name, region, value) VALUES
+        ('match_ids', OLD.region, -1),
+        ('match_ids_pending', OLD.region, -(OLD.crawled = 0)),
+        ('match_ids_crawled', OLD.region, -(OLD.crawled = 1))
+    ON CONFLICT (name, region) DO UPDATE SET value = value + excluded.value;
+    INSERT INTO stats (name, region, value) VALUES
+        ('match_ids', NEW.region, 1),
+        ('match_ids_pending', NEW.region, NEW.crawled = 0),
+        ('match_ids_crawled', NEW.region, NEW.crawled = 1)
+    ON CONFLICT (name, region) DO UPDATE SET value = value + excluded.value;
+    INSERT INTO daily_stats (day, region, accounts, matches)
+    SELECT CAST(strftime('%s', 'now') AS INTEGER) / 86400, NEW.region, 0, 1 WHERE NEW.crawled = 1 AND OLD.crawled != 1
+    ON CONFLICT (day, region) DO UPDATE SET matches = matches + 1;
+END;
+""",
+                    """
+CREATE TRIGGER match_ids_stats_delete AFTER DELETE ON match_ids BEGIN
+    INSERT INTO stats (name, region, value) VALUES
+        ('match_ids', OLD.region, -1),
+        ('match_ids_pending', OLD.region, -(OLD.crawled = 0)),
+        ('match_ids_crawled', OLD.region, -(OLD.crawled = 1))
+    ON CONFLICT (name, region) DO UPDATE SET value = value + excluded.value;
+END;
+"""
+            ),
+            // v11: crawled match ids moved to archive files keep only their id here, so they are never added again
+            List.of("""
+CREATE TABLE archived_match_ids (
+    match_id TEXT PRIMARY KEY NOT NULL
+) WITHOUT ROWID;
+"""
+            ),
+            // v12: payload segments live in a folder per crawler node, entries written before keep the empty node
+            List.of(
+                    "ALTER TABLE match_payloads ADD COLUMN node TEXT NOT NULL DEFAULT ''",
+                    "DROP INDEX match_payloads_position",
+                    "CREATE INDEX match_payloads_position ON match_payloads (node, segment, position)"
+            ),
+            // v13: co-plays of deleted accounts go with them, in both directions, so the graph never walks through them
+            List.of("""
+DELETE FROM co_plays WHERE NOT EXISTS (SELECT 1 FROM accounts WHERE id = co_plays.account_id)
+    OR NOT EXISTS (SELECT 1 FROM accounts WHERE id = co_plays.other_id)
+""",
+                    """
+CREATE TRIGGER accounts_delete_co_plays AFTER DELETE ON accounts BEGIN
+    DELETE FROM co_plays WHERE other_id = OLD.id
+        AND account_id IN (SELECT other_id FROM co_plays WHERE account_id = OLD.id);
+    DELETE FROM co_plays WHERE account_id = OLD.id;
+END;
+"""
+            ),
+            // v14: crawled rows are numbered in the order they were crawled, so exports continue after the last one,
+            // counts hold the last number so rows archived or deleted never hand theirs out again
+            List.of(
+                    "ALTER TABLE accounts ADD COLUMN crawled_seq INTEGER",
+                    "ALTER TABLE match_ids ADD COLUMN crawled_seq INTEGER",
+                    "UPDATE accounts SET crawled_seq = id WHERE crawled = 1",
+                    "UPDATE match_ids SET crawled_seq = id WHERE crawled = 1",
+                    """
+INSERT OR REPLACE INTO counts (name, value) VALUES
+    ('account_crawled_seq', COALESCE((SELECT seq FROM sqlite_sequence WHERE name = 'accounts'), 0)),
+    ('match_id_crawled_seq', COALESCE((SELECT seq FROM sqlite_sequence WHERE name = 'match_ids'), 0))
+""",
+                    "CREATE INDEX accounts_crawled_seq ON accounts (crawled_seq) WHERE crawled_seq IS NOT NULL",
+                    "CREATE INDEX match_ids_crawled_seq ON match_ids (crawled_seq) WHERE crawled_seq IS NOT NULL",
+                    """
+CREATE TRIGGER accounts_crawled_seq AFTER UPDATE OF crawled ON accounts
+WHEN NEW.crawled = 1 AND OLD.crawled != 1
+BEGIN
+    UPDATE counts SET value = value + 1 WHERE name = 'account_crawled_seq';
+    UPDATE accounts SET crawled_seq = (SELECT value FROM counts WHERE name = 'account_crawled_seq')
+        WHERE id = NEW.id;
+END;
+""",
+                    """
+CREATE TRIGGER match_ids_crawled_seq_insert AFTER INSERT ON match_ids WHEN NEW.crawled = 1 BEGIN
+    UPDATE counts SET value = value + 1 WHERE name = 'match_id_crawled_seq';
+    UPDATE match_ids SET crawled_seq = (SELECT value FROM counts WHERE name = 'match_id_crawled_seq')
+        WHERE id = NEW.id;
+END;
+""",
+                    """
+CREATE TRIGGER match_ids_crawled_seq_update AFTER UPDATE OF crawled ON match_ids
+WHEN NEW.crawled = 1 AND OLD.crawled != 1
+BEGIN
+    UPDATE counts SET value = value + 1 WHERE name = 'match_id_crawled_seq';
+    UPDATE match_ids SET crawled_seq = (SELECT value FROM counts WHERE name = 'match_id_crawled_seq')
+        WHERE id = NEW.id;
+END;
+"""
+            )
+    );
+
+    /**
+     * Bound parameters per IN list, below the limit of older sqlite versions.
+     */
+    private static final int IN_LIMIT = 500;
+    private static final String INSERT_MATCH_ID = """
+INSERT OR IGNORE INTO match_ids (match_id, region, priority, depth) SELECT ?1, ?2, ?3, ?4
+WHERE NOT EXISTS (SELECT 1 FROM archived_match_ids WHERE match_id = ?1)
+""";
+
+    private final Database database;
     private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private final SeenSet seenAccounts;
+    private final SeenSet seenMatchIds;
+    private final Histogram transactionLatency;
+    private final Histogram readLatency;
+    private final Counter commits;
+    private final Counter rollbacks;
+    private final Counter deletedAccounts;
+    private final Counter deletedMatchIds;
 
-    public Store(Connection connection) {
-        this.connection = connection;
+    public Store(Database database, SeenSet seenAccounts, SeenSet seenMatchIds, Metrics metrics) {
+        this.database = database;
+        this.connection = database.writer();
+        this.seenAccounts = seenAccounts;
+        this.seenMatchIds = seenMatchIds;
+        this.transactionLatency = metrics.histogram("store_statement_seconds",
+                "latency of store transactions and pooled reads", "kind", "transaction");
+        this.readLatency = metrics.histogram("store_statement_seconds",
+                "latency of store transactions and pooled reads", "kind", "read");
+        this.commits = metrics.counter("store_commits_total", "committed store transactions");
+        this.rollbacks = metrics.counter("store_rollbacks_total", "rolled back store transactions");
+        this.deletedAccounts = metrics.counter("store_deleted_total", "rows deleted after a 404 from the api",
+                "table", "accounts");
+        this.deletedMatchIds = metrics.counter("store_deleted_total", "rows deleted after a 404 from the api",
+                "table", "match_ids");
         prepareTables();
+        migrate();
+    }
+
+    private PreparedStatement prepare(String sql) throws SQLException {
+        var statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    private void inTransaction(Transaction transaction) {
+        long start = System.nanoTime();
+        try {
+            prepare("BEGIN IMMEDIATE").execute();
+            try {
+                transaction.run();
+                prepare("COMMIT").execute();
+                commits.increment();
+                transactionLatency.recordSince(start);
+            } catch (SQLException | RuntimeException e) {
+                prepare("ROLLBACK").execute();
+                rollbacks.increment();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private <T> T read(Database.Query<T> query) {
+        long start = System.nanoTime();
+        try {
+            return database.read(query);
+        } finally {
+            readLatency.recordSince(start);
+        }
+    }
+
+    private int getSchemaVersion() {
+        try (var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("PRAGMA user_version")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void migrate() {
+        for (int version = getSchemaVersion(); version < MIGRATIONS.size(); version++) {
+            int target = version + 1;
+            try {
+                inTransaction(() -> {
+                    try (var statement = connection.createStatement()) {
+                        for (String sql: MIGRATIONS.get(target - 1)) {
+                            statement.addBatch(sql);
+                        }
+                        statement.addBatch("PRAGMA user_version = " + target);
+                        statement.executeBatch();
+                    }
+                });
+            } catch (RuntimeException e) {
+                throw new RuntimeException("failed to migrate database to version " + target, e);
+            }
+        }
     }
 
     private void prepareTables() {
-        try (var statement = connection.createStatement()) {
-            connection.setAutoCommit(false);
-            statement.addBatch("""
+        if (getSchemaVersion() > 0) {
+            return;
+        }
+        inTransaction(() -> {
+            try (var statement = connection.createStatement()) {
+                statement.addBatch("""
 CREATE TABLE IF NOT EXISTS accounts (
     puuid TEXT PRIMARY KEY NOT NULL,
     game_name TEXT NOT NULL,
     tag_line TEXT NOT NULL
 );
 """
-            );
-            statement.addBatch("""
+                );
+                statement.addBatch("""
 CREATE TABLE IF NOT EXISTS match_ids (
     match_id TEXT PRIMARY KEY NOT NULL
 );
 """);
-            statement.addBatch("""
+                statement.addBatch("""
 CREATE TABLE IF NOT EXISTS counts (
     name TEXT PRIMARY KEY NOT NULL,
     value INTEGER NOT NULL
 );
 """);
-            statement.addBatch("""
+                statement.addBatch("""
 INSERT OR IGNORE INTO counts (name, value) VALUES
     ('account_row', 0),
     ('match_id_row', 0)
 """);
-            statement.executeBatch();
-            connection.commit();
-            connection.setAutoCommit(true);
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+                statement.executeBatch();
+            }
+        });
+    }
+
+    private <T> void insertOrIgnore(String sql, List<T> items, SeenSet seen, Function<T, String> key,
+                                    Binder<T> binder, Transaction then) {
+        insertOrIgnore(sql, items.size(), seen, i -> key.apply(items.get(i)),
+                (statement, i) -> binder.bind(statement, items.get(i)), then);
+    }
+
+    /**
+     * Inserts the rows {@code 0} to {@code size} that the seen set does not know, binding them by index so column
+     * wise batches need no object per row.
+     */
+    private void insertOrIgnore(String sql, int size, SeenSet seen, IntFunction<String> key, Binder<Integer> binder,
+                                Transaction then) {
+        int[] unseen = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (!seen.check(key.apply(i))) {
+                unseen[count++] = i;
+            }
+        }
+        int unseenCount = count;
+        int[][] changes = {new int[0]};
+        inTransaction(() -> {
+            if (unseenCount > 0) {
+                var statement = prepare(sql);
+                for (int i = 0; i < unseenCount; i++) {
+                    binder.bind(statement, unseen[i]);
+                    statement.addBatch();
+                }
+                changes[0] = statement.executeBatch();
+            }
+            then.run();
+        });
+        for (int i = 0; i < unseenCount; i++) {
+            seen.inserted(key.apply(unseen[i]), i < changes[0].length && changes[0][i] > 0);
         }
     }
 
-    public void addOrIgnoreAccount(Account account) {
-        try (var statement = connection.prepareStatement(
-                "INSERT OR IGNORE INTO accounts (puuid, game_name, tag_line) VALUES (?,?,?)")) {
-            statement.setString(1, account.getPuuid());
-            statement.setString(2, account.getGameName());
-            statement.setString(3, account.getTagLine());
-            statement.execute();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+    private static void bindAccount(PreparedStatement statement, Account account) throws SQLException {
+        statement.setString(1, account.getPuuid());
+        statement.setString(2, account.getGameName());
+        statement.setString(3, account.getTagLine());
+    }
+
+    private static <T> Binder<Ranked<T>> rankedBinder(Binder<T> binder, int columns) {
+        return (statement, ranked) -> {
+            binder.bind(statement, ranked.value());
+            statement.setInt(columns + 1, ranked.priority());
+            statement.setInt(columns + 2, ranked.depth());
+        };
+    }
+
+    private static Binder<Account> accountBinder(String region) {
+        return (statement, account) -> {
+            bindAccount(statement, account);
+            statement.setString(4, region);
+        };
+    }
+
+    /**
+     * Prepares a region. The region adopting unassigned rows takes over all rows crawled before the store was
+     * partitioned.
+     */
+    public synchronized void addRegion(String region, boolean adoptUnassigned) {
+        if (!adoptUnassigned) {
+            return;
         }
+        inTransaction(() -> {
+            for (var table: List.of("accounts", "match_ids")) {
+                var update = prepare("UPDATE " + table + " SET region = ? WHERE region = ''");
+                update.setString(1, region);
+                update.execute();
+            }
+        });
+    }
+
+    public long getLastAccountRow() {
+        return getLastRow("accounts");
     }
 
-    public Optional<Account> getAccount(String puuid) {
-        try (var statement = connection.prepareStatement(
-                "SELECT puuid, game_name, tag_line FROM accounts WHERE puuid = ?")) {
+    public long getLastMatchIdRow() {
+        return getLastRow("match_ids");
+    }
+
+    private long getLastRow(String table) {
+        return read(connection -> {
+            try (var statement = connection.createStatement();
+                 var resultSet = statement.executeQuery("SELECT MAX(id) FROM " + table)) {
+                return resultSet.next() ? resultSet.getLong(1) : 0L;
+            }
+        });
+    }
+
+    public long getAccountsUpTo(long lastRow) {
+        return getRowsUpTo("accounts", lastRow);
+    }
+
+    public long getMatchIdsUpTo(long lastRow) {
+        return getRowsUpTo("match_ids", lastRow);
+    }
+
+    /**
+     * Rows of {@code table} with an id up to {@code lastRow}, the count of the stats less the rows added after it, so
+     * only those are scanned. Archived match ids stay counted.
+     */
+    private long getRowsUpTo(String table, long lastRow) {
+        return read(connection -> {
+            try (var statement = connection.prepareStatement("""
+SELECT (SELECT COALESCE(SUM(value), 0) FROM stats WHERE name = ?1) - (SELECT COUNT() FROM %s WHERE id > ?2)
+""".formatted(table))) {
+                statement.setString(1, table);
+                statement.setLong(2, lastRow);
+                try (var resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getLong(1) : 0L;
+                }
+            }
+        });
+    }
+
+    public synchronized SeenSet.Stats getSeenAccountsStats() {
+        return seenAccounts.getStats();
+    }
+
+    public synchronized SeenSet.Stats getSeenMatchIdsStats() {
+        return seenMatchIds.getStats();
+    }
+
+    public synchronized void addOrIgnoreAccount(Account account, String region) {
+        insertOrIgnore("INSERT OR IGNORE INTO accounts (puuid, game_name, tag_line, region) VALUES (?,?,?,?)",
+                List.of(account), seenAccounts, Account::getPuuid, accountBinder(region), () -> {});
+    }
+
+    public synchronized Optional<Account> getAccount(String puuid) {
+        try {
+            var statement = prepare("SELECT puuid, game_name, tag_line FROM accounts WHERE puuid = ?");
             statement.setString(1, puuid);
             try (var resultSet = statement.executeQuery()) {
                 if (!resultSet.next()) {
@@ -82,54 +620,98 @@ INSERT OR IGNORE INTO counts (name, value) VALUES
         }
     }
 
-    public Optional<Account> getAccountAtRow(int row) {
-        try (var statement = connection.prepareStatement(
-                "SELECT puuid, game_name, tag_line FROM accounts LIMIT 1 OFFSET ?")) {
-            statement.setInt(1, row);
+    /**
+     * Leases the pending account of a region with the highest priority, ties go to the account discovered first.
+     */
+    public synchronized Optional<Row<Ranked<Account>>> claimAccount(String region, String owner, long expires) {
+        List<Row<Ranked<Account>>> rows = new ArrayList<>(1);
+        inTransaction(() -> {
+            var statement = prepare("""
+SELECT id, puuid, game_name, tag_line, priority, depth FROM accounts
+WHERE region = ? AND crawled = 0 ORDER BY priority DESC, id LIMIT 1
+""");
+            statement.setString(1, region);
             try (var resultSet = statement.executeQuery()) {
-                if (!resultSet.next()) {
-                    return Optional.empty();
+                if (resultSet.next()) {
+                    rows.add(new Row<>(resultSet.getLong(1), new Ranked<>(new Account(
+                            resultSet.getString(2),
+                            resultSet.getString(3),
+                            resultSet.getString(4)
+                    ), resultSet.getInt(5), resultSet.getInt(6))));
                 }
-                return Optional.of(new Account(
-                        resultSet.getString(1),
-                        resultSet.getString(2),
-                        resultSet.getString(3)
-                ));
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+            lease(Lease.Account, rows.stream().map(Row::id).toList(), owner, expires);
+        });
+        return rows.stream().findFirst();
     }
 
-    public Optional<Integer> getAccountsCount() {
-        try (var statement = connection.createStatement();
-             var resultSet = statement.executeQuery("SELECT COUNT() FROM accounts")) {
-            if (!resultSet.next()) {
-                return Optional.empty();
+    public Optional<Integer> getAccountsCount(String region) {
+        return Optional.of((int) getStat("accounts", region));
+    }
+
+    public List<Row<String>> getIncompleteAccountsAfter(long id, int limit) {
+        return read(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT id, puuid FROM accounts WHERE (game_name = '' OR tag_line = '') AND id > ? ORDER BY id LIMIT ?")) {
+                statement.setLong(1, id);
+                statement.setInt(2, limit);
+                try (var resultSet = statement.executeQuery()) {
+                    List<Row<String>> rows = new ArrayList<>();
+                    while (resultSet.next()) {
+                        rows.add(new Row<>(resultSet.getLong(1), resultSet.getString(2)));
+                    }
+                    return rows;
+                }
             }
-            return Optional.of(resultSet.getInt(1));
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        });
     }
 
-    public List<String> getIncompleteAccountPuuids() {
-        try (var statement = connection.createStatement();
-             var resultSet = statement.executeQuery(
-                     "SELECT puuid, game_name, tag_line FROM accounts WHERE game_name = '' OR tag_line = ''")) {
-            List<String> puuids = new ArrayList<>();
-            while (resultSet.next()) {
-                puuids.add(resultSet.getString(1));
+    public int getIncompleteAccountsCount(long after) {
+        return read(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT COUNT() FROM accounts WHERE (game_name = '' OR tag_line = '') AND id > ?")) {
+                statement.setLong(1, after);
+                try (var resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getInt(1) : 0;
+                }
             }
-            return puuids;
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+        });
+    }
+
+    public synchronized void completeAccounts(List<Account> accounts, List<String> missing, long cursor) {
+        inTransaction(() -> {
+            if (!accounts.isEmpty()) {
+                var statement = prepare("UPDATE accounts SET game_name = ?, tag_line = ? WHERE puuid = ?");
+                for (var account: accounts) {
+                    statement.setString(1, account.getGameName());
+                    statement.setString(2, account.getTagLine());
+                    statement.setString(3, account.getPuuid());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            if (!missing.isEmpty()) {
+                var statement = prepare("DELETE FROM accounts WHERE puuid = ?");
+                for (var puuid: missing) {
+                    statement.setString(1, puuid);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            var statement = prepare("UPDATE counts SET value = ? WHERE name = ?");
+            statement.setLong(1, cursor);
+            statement.setString(2, Count.BackfillCursor.toString());
+            statement.execute();
+        });
+        for (var puuid: missing) {
+            seenAccounts.remove(puuid);
         }
+        deletedAccounts.add(missing.size());
     }
 
-    public void updateAccount(Account account) {
-        try (var statement = connection.prepareStatement(
-                "UPDATE accounts SET game_name = ?, tag_line = ? WHERE puuid = ?")) {
+    public synchronized void updateAccount(Account account) {
+        try {
+            var statement = prepare("UPDATE accounts SET game_name = ?, tag_line = ? WHERE puuid = ?");
             statement.setString(1, account.getGameName());
             statement.setString(2, account.getTagLine());
             statement.setString(3, account.getPuuid());
@@ -139,95 +721,738 @@ INSERT OR IGNORE INTO counts (name, value) VALUES
         }
     }
 
-    public void deleteAccount(String puuid) {
-        try (var statement = connection.prepareStatement("DELETE FROM accounts WHERE puuid = ?")) {
+    public synchronized void deleteAccount(String puuid) {
+        try {
+            var statement = prepare("DELETE FROM accounts WHERE puuid = ?");
             statement.setString(1, puuid);
             statement.execute();
+            seenAccounts.remove(puuid);
+            deletedAccounts.increment();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public Optional<Integer> getCount(Count count) {
-        try (var statement = connection.prepareStatement("SELECT value FROM counts WHERE name = ?")) {
-            statement.setString(1, count.toString());
+    public synchronized Optional<Long> getCount(Count count) {
+        return getCount(count.toString());
+    }
+
+    private Optional<Long> getCount(String name) {
+        try {
+            var statement = prepare("SELECT value FROM counts WHERE name = ?");
+            statement.setString(1, name);
             try (var resultSet = statement.executeQuery()) {
                 if (!resultSet.next()) {
                     return Optional.empty();
                 }
-                return Optional.of(resultSet.getInt(1));
+                return Optional.of(resultSet.getLong(1));
             }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public void setCount(Count count, int value) {
-        try (var statement = connection.prepareStatement("UPDATE counts SET value = ? WHERE name = ?")) {
-            statement.setInt(1, value);
-            statement.setString(2, count.toString());
+    public synchronized void setCount(Count count, long value) {
+        setCount(count.toString(), value);
+    }
+
+    private void setCount(String name, long value) {
+        try {
+            var statement = prepare("UPDATE counts SET value = ? WHERE name = ?");
+            statement.setLong(1, value);
+            statement.setString(2, name);
             statement.execute();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public void addOrIgnoreMatchIds(List<String> matchIds) {
-        try (var statement = connection.prepareStatement("INSERT OR IGNORE INTO match_ids (match_id) VALUES (?)")) {
-            connection.setAutoCommit(false);
-            int batchSize = 0;
-            for (String matchId: matchIds) {
-                statement.setString(1, matchId);
+    private static Binder<Ranked<String>> matchIdBinder(String region) {
+        return rankedBinder((statement, matchId) -> {
+            statement.setString(1, matchId);
+            statement.setString(2, region);
+        }, 2);
+    }
+
+    public synchronized void addOrIgnoreMatchIds(List<Ranked<String>> matchIds, String region) {
+        insertOrIgnore(INSERT_MATCH_ID,
+                matchIds, seenMatchIds, Ranked::value, matchIdBinder(region), () -> {});
+    }
+
+    /**
+     * Adds the match ids found in the match list of an account and marks the account as crawled together with its
+     * refresh state.
+     */
+    public synchronized void addOrIgnoreMatchIds(List<Ranked<String>> matchIds, String region, AccountState state) {
+        insertOrIgnore(INSERT_MATCH_ID,
+                matchIds, seenMatchIds, Ranked::value, matchIdBinder(region), () -> {
+                    var statement = prepare("""
+INSERT OR REPLACE INTO account_state (account_id, last_match_id, last_refresh, next_refresh, refresh_interval)
+VALUES (?,?,?,?,?)
+""");
+                    statement.setLong(1, state.accountId());
+                    statement.setString(2, state.lastMatchId());
+                    statement.setLong(3, state.lastRefresh());
+                    statement.setLong(4, state.nextRefresh());
+                    statement.setLong(5, state.refreshInterval());
+                    statement.execute();
+                    complete(Lease.Account, List.of(state.accountId()));
+                });
+    }
+
+    /**
+     * Claims the account of a region that is due for a refresh longest by moving its next refresh to
+     * {@code leaseUntil}, the refresh itself overwrites it with the actual next refresh.
+     */
+    public synchronized Optional<AccountState> claimAccountDueForRefresh(String region, long now, long leaseUntil) {
+        List<AccountState> states = new ArrayList<>(1);
+        inTransaction(() -> {
+            var statement = prepare("""
+SELECT s.account_id, a.puuid, s.last_match_id, s.last_refresh, s.next_refresh, s.refresh_interval, a.depth
+FROM account_state s JOIN accounts a ON a.id = s.account_id
+WHERE a.region = ? AND s.next_refresh <= ? ORDER BY s.next_refresh LIMIT 1
+""");
+            statement.setString(1, region);
+            statement.setLong(2, now);
+            try (var resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return;
+                }
+                states.add(new AccountState(
+                        resultSet.getLong(1),
+                        resultSet.getString(2),
+                        resultSet.getString(3),
+                        resultSet.getLong(4),
+                        resultSet.getLong(5),
+                        resultSet.getLong(6),
+                        resultSet.getInt(7)
+                ));
+            }
+            var claim = prepare("UPDATE account_state SET next_refresh = ? WHERE account_id = ?");
+            claim.setLong(1, leaseUntil);
+            claim.setLong(2, states.get(0).accountId());
+            claim.execute();
+        });
+        return states.stream().findFirst();
+    }
+
+    /**
+     * Adds the participants of crawled matches and marks the matches as crawled in one transaction.
+     */
+    public synchronized void addOrIgnoreAccounts(AccountBuffer accounts, List<PayloadStore.Entry> payloads,
+                                                 String region, List<Long> crawledMatchIds) {
+        addOrIgnoreAccounts(accounts, payloads, region, crawledMatchIds, List.of(), List.of());
+    }
+
+    /**
+     * Like {@link #addOrIgnoreAccounts(AccountBuffer, List, String, List)}, also counting the co-plays among the
+     * puuids in {@code players}, one list per crawled match, and storing the cached {@code responses}. Matches that
+     * were committed before add no co-plays.
+     */
+    public synchronized void addOrIgnoreAccounts(AccountBuffer accounts, List<PayloadStore.Entry> payloads,
+                                                 String region, List<Long> crawledMatchIds,
+                                                 List<List<String>> players, List<CachedResponse> responses) {
+        insertOrIgnoreAccounts(accounts, region, () -> {
+            insertPayloads(payloads);
+            int[] completed = complete(Lease.MatchId, crawledMatchIds);
+            addCoPlays(players, completed);
+            insertCachedResponses(responses);
+        });
+    }
+
+    /**
+     * Adds matches read from a dump as crawled, together with their participants and payloads, in one transaction.
+     * Match ids the frontier already holds as pending are marked as crawled.
+     */
+    public synchronized void ingestMatches(List<Ranked<String>> matchIds, AccountBuffer accounts,
+                                           List<PayloadStore.Entry> payloads, String region,
+                                           List<List<String>> players) {
+        insertOrIgnoreAccounts(accounts, region, () -> {
+            insertPayloads(payloads);
+            var statement = prepare("""
+INSERT INTO match_ids (match_id, region, priority, depth, crawled) SELECT ?1, ?2, ?3, ?4, 1
+WHERE NOT EXISTS (SELECT 1 FROM archived_match_ids WHERE match_id = ?1)
+ON CONFLICT (match_id) DO UPDATE SET crawled = 1 WHERE crawled != 1
+""");
+            var binder = matchIdBinder(region);
+            for (var matchId: matchIds) {
+                binder.bind(statement, matchId);
                 statement.addBatch();
-                batchSize++;
-                if (batchSize == 500) {
-                    statement.executeBatch();
-                    connection.commit();
-                    batchSize = 0;
+            }
+            addCoPlays(players, statement.executeBatch());
+        });
+        for (var matchId: matchIds) {
+            seenMatchIds.add(matchId.value());
+        }
+    }
+
+    private void insertOrIgnoreAccounts(AccountBuffer accounts, String region, Transaction then) {
+        insertOrIgnore("""
+INSERT OR IGNORE INTO accounts (puuid, game_name, tag_line, region, priority, depth) VALUES (?,?,?,?,?,?)
+""", accounts.size(), seenAccounts, accounts::puuid, (statement, row) -> {
+            statement.setString(1, accounts.puuid(row));
+            statement.setString(2, accounts.gameName(row));
+            statement.setString(3, accounts.tagLine(row));
+            statement.setString(4, region);
+            statement.setInt(5, accounts.priority(row));
+            statement.setInt(6, accounts.depth(row));
+        }, then);
+    }
+
+    private void insertPayloads(List<PayloadStore.Entry> payloads) throws SQLException {
+        if (payloads.isEmpty()) {
+            return;
+        }
+        var statement = prepare(
+                "INSERT OR REPLACE INTO match_payloads (match_id, node, segment, position, length) VALUES (?,?,?,?,?)");
+        for (var payload: payloads) {
+            statement.setString(1, payload.matchId());
+            statement.setString(2, payload.node());
+            statement.setInt(3, payload.segment());
+            statement.setLong(4, payload.position());
+            statement.setInt(5, payload.length());
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    /**
+     * Returns the ones of {@code matchIds} that are crawled already, archived ones included.
+     */
+    public Set<String> getCrawledMatchIds(List<String> matchIds) {
+        Set<String> crawled = new HashSet<>();
+        for (int from = 0; from < matchIds.size(); from += IN_LIMIT) {
+            var chunk = matchIds.subList(from, Math.min(matchIds.size(), from + IN_LIMIT));
+            read(connection -> {
+                String in = String.join(",", Collections.nCopies(chunk.size(), "?"));
+                try (var statement = connection.prepareStatement("""
+SELECT match_id FROM match_ids WHERE crawled = 1 AND match_id IN (%s)
+UNION ALL SELECT match_id FROM archived_match_ids WHERE match_id IN (%s)
+""".formatted(in, in))) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        statement.setString(i + 1, chunk.get(i));
+                        statement.setString(chunk.size() + i + 1, chunk.get(i));
+                    }
+                    try (var resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            crawled.add(resultSet.getString(1));
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+        return crawled;
+    }
+
+    /**
+     * Leases up to {@code limit} pending match ids of a region in priority order. Leased match ids stay out of the
+     * frontier until they are completed, released or their lease expires.
+     */
+    public synchronized List<Row<Ranked<String>>> claimMatchIds(String region, int limit, String owner,
+                                                                long expires) {
+        List<Row<Ranked<String>>> rows = new ArrayList<>();
+        inTransaction(() -> {
+            var select = prepare("""
+SELECT id, match_id, priority, depth FROM match_ids
+WHERE region = ? AND crawled = 0 ORDER BY priority DESC, id LIMIT ?
+""");
+            select.setString(1, region);
+            select.setInt(2, limit);
+            try (var resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    rows.add(new Row<>(resultSet.getLong(1),
+                            new Ranked<>(resultSet.getString(2), resultSet.getInt(3), resultSet.getInt(4))));
                 }
             }
-            if (batchSize > 0) {
-                statement.executeBatch();
-                connection.commit();
+            lease(Lease.MatchId, rows.stream().map(Row::id).toList(), owner, expires);
+        });
+        return rows;
+    }
+
+    private void lease(Lease kind, List<Long> ids, String owner, long expires) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        var claim = prepare("UPDATE " + kind + " SET crawled = 2 WHERE id = ?");
+        var lease = prepare("INSERT OR REPLACE INTO leases (kind, row_id, owner, expires) VALUES (?,?,?,?)");
+        for (long id: ids) {
+            claim.setLong(1, id);
+            claim.addBatch();
+            lease.setString(1, kind.toString());
+            lease.setLong(2, id);
+            lease.setString(3, owner);
+            lease.setLong(4, expires);
+            lease.addBatch();
+        }
+        claim.executeBatch();
+        lease.executeBatch();
+    }
+
+    /**
+     * Counts one game for every pair of accounts of a match, in both directions, for the matches whose entry in
+     * {@code changed} is positive.
+     */
+    private void addCoPlays(List<List<String>> players, int[] changed) throws SQLException {
+        if (players.isEmpty()) {
+            return;
+        }
+        var select = prepare("SELECT id FROM accounts WHERE puuid = ?");
+        var upsert = prepare("""
+INSERT INTO co_plays (account_id, other_id, games) VALUES (?,?,1)
+ON CONFLICT (account_id, other_id) DO UPDATE SET games = games + 1
+""");
+        Map<String, Long> ids = new HashMap<>();
+        long[] match = new long[0];
+        for (int i = 0; i < players.size() && i < changed.length; i++) {
+            if (changed[i] <= 0) {
+                continue;
+            }
+            var puuids = players.get(i);
+            if (match.length < puuids.size()) {
+                match = new long[puuids.size()];
+            }
+            int resolved = 0;
+            for (var puuid: puuids) {
+                var id = ids.get(puuid);
+                if (id == null) {
+                    select.setString(1, puuid);
+                    try (var resultSet = select.executeQuery()) {
+                        id = resultSet.next() ? resultSet.getLong(1) : -1L;
+                    }
+                    ids.put(puuid, id);
+                }
+                if (id >= 0) {
+                    match[resolved++] = id;
+                }
             }
-            connection.setAutoCommit(true);
+            for (int a = 0; a < resolved; a++) {
+                for (int b = 0; b < resolved; b++) {
+                    if (match[a] == match[b]) {
+                        continue;
+                    }
+                    upsert.setLong(1, match[a]);
+                    upsert.setLong(2, match[b]);
+                    upsert.addBatch();
+                }
+            }
+        }
+        upsert.executeBatch();
+    }
+
+    /**
+     * Marks rows as crawled and drops their leases whoever holds them, so committing a row twice after its lease
+     * expired changes nothing. Returns per row whether it was marked now.
+     */
+    private int[] complete(Lease kind, List<Long> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return new int[0];
+        }
+        var crawled = prepare("UPDATE " + kind + " SET crawled = 1 WHERE id = ? AND crawled != 1");
+        var lease = prepare("DELETE FROM leases WHERE kind = ? AND row_id = ?");
+        for (long id: ids) {
+            crawled.setLong(1, id);
+            crawled.addBatch();
+            lease.setString(1, kind.toString());
+            lease.setLong(2, id);
+            lease.addBatch();
+        }
+        var marked = crawled.executeBatch();
+        lease.executeBatch();
+        return marked;
+    }
+
+    /**
+     * Returns rows leased by {@code owner} to the frontier. Rows whose lease expired and moved to another owner in
+     * the meantime are left alone.
+     */
+    public synchronized void releaseLeases(Lease kind, List<Long> ids, String owner) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        inTransaction(() -> {
+            var release = prepare("""
+UPDATE %s SET crawled = 0 WHERE id = ? AND crawled = 2
+AND EXISTS (SELECT 1 FROM leases WHERE kind = ? AND row_id = ? AND owner = ?)
+""".formatted(kind));
+            var lease = prepare("DELETE FROM leases WHERE kind = ? AND row_id = ? AND owner = ?");
+            for (long id: ids) {
+                release.setLong(1, id);
+                release.setString(2, kind.toString());
+                release.setLong(3, id);
+                release.setString(4, owner);
+                release.addBatch();
+                lease.setString(1, kind.toString());
+                lease.setLong(2, id);
+                lease.setString(3, owner);
+                lease.addBatch();
+            }
+            release.executeBatch();
+            lease.executeBatch();
+        });
+    }
+
+    /**
+     * Returns every row leased by {@code owner}, used when a crawler process starts or stops.
+     */
+    public synchronized void releaseLeases(String owner) {
+        inTransaction(() -> {
+            for (var kind: Lease.values()) {
+                var release = prepare("""
+UPDATE %s SET crawled = 0 WHERE crawled = 2 AND id IN (SELECT row_id FROM leases WHERE kind = ? AND owner = ?)
+""".formatted(kind));
+                release.setString(1, kind.toString());
+                release.setString(2, owner);
+                release.execute();
+            }
+            var lease = prepare("DELETE FROM leases WHERE owner = ?");
+            lease.setString(1, owner);
+            lease.execute();
+        });
+    }
+
+    public synchronized void renewLeases(String owner, long expires) {
+        try {
+            var statement = prepare("UPDATE leases SET expires = ? WHERE owner = ?");
+            statement.setLong(1, expires);
+            statement.setString(2, owner);
+            statement.execute();
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public Optional<String> getMatchIdAtRow(int row) {
-        try (var statement = connection.prepareStatement("SELECT match_id FROM match_ids LIMIT 1 OFFSET ?")) {
-            statement.setInt(1, row);
-            try (var resultSet = statement.executeQuery()) {
+    /**
+     * Returns the rows whose lease expired before {@code now} to the frontier and returns how many were reclaimed.
+     */
+    public synchronized int reclaimExpiredLeases(long now) {
+        int[] reclaimed = {0};
+        inTransaction(() -> {
+            for (var kind: Lease.values()) {
+                var release = prepare("""
+UPDATE %s SET crawled = 0 WHERE crawled = 2 AND id IN (SELECT row_id FROM leases WHERE kind = ? AND expires < ?)
+""".formatted(kind));
+                release.setString(1, kind.toString());
+                release.setLong(2, now);
+                reclaimed[0] += release.executeUpdate();
+            }
+            var lease = prepare("DELETE FROM leases WHERE expires < ?");
+            lease.setLong(1, now);
+            lease.execute();
+        });
+        return reclaimed[0];
+    }
+
+    public synchronized void deleteMatchId(String matchId) {
+        try {
+            var statement = prepare("DELETE FROM match_ids WHERE match_id = ?");
+            statement.setString(1, matchId);
+            statement.execute();
+            seenMatchIds.remove(matchId);
+            deletedMatchIds.increment();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Optional<Integer> getMatchIdsCount() {
+        return read(connection -> {
+            try (var statement = connection.createStatement();
+                 var resultSet = statement.executeQuery("SELECT SUM(value) FROM stats WHERE name = 'match_ids'")) {
                 if (!resultSet.next()) {
                     return Optional.empty();
                 }
-                return Optional.of(resultSet.getString(1));
+                return Optional.of(resultSet.getInt(1));
+            }
+        });
+    }
+
+    public long getPendingAccountsCount(String region) {
+        return getStat("accounts_pending", region);
+    }
+
+    /**
+     * Counts the pending match ids of a region, at most {@code limit} unless it is negative.
+     */
+    public long getPendingMatchIdsCount(String region, long limit) {
+        long pending = getStat("match_ids_pending", region);
+        return limit < 0 ? pending : Math.min(pending, limit);
+    }
+
+    private long getStat(String name, String region) {
+        return read(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT value FROM stats WHERE name = ? AND region = ?")) {
+                statement.setString(1, name);
+                statement.setString(2, region);
+                try (var resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getLong(1) : 0L;
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the row counts of every region from the counts the triggers keep, without scanning the tables.
+     */
+    public List<RegionStats> getRegionStats() {
+        return read(connection -> {
+            Map<String, Map<String, Long>> regions = new TreeMap<>();
+            try (var statement = connection.createStatement();
+                 var resultSet = statement.executeQuery("SELECT name, region, value FROM stats")) {
+                while (resultSet.next()) {
+                    regions.computeIfAbsent(resultSet.getString(2), region -> new HashMap<>())
+                            .put(resultSet.getString(1), resultSet.getLong(3));
+                }
+            }
+            List<RegionStats> stats = new ArrayList<>(regions.size());
+            for (var region: regions.entrySet()) {
+                var values = region.getValue();
+                stats.add(new RegionStats(region.getKey(),
+                        values.getOrDefault("accounts", 0L),
+                        values.getOrDefault("accounts_pending", 0L),
+                        values.getOrDefault("accounts_crawled", 0L),
+                        values.getOrDefault("accounts_incomplete", 0L),
+                        values.getOrDefault("match_ids", 0L),
+                        values.getOrDefault("match_ids_pending", 0L),
+                        values.getOrDefault("match_ids_crawled", 0L),
+                        values.getOrDefault("match_ids_archived", 0L)));
+            }
+            return stats;
+        });
+    }
+
+    /**
+     * Returns the accounts discovered and the matches crawled per region on each of the last {@code days} days, in
+     * UTC, oldest first.
+     */
+    public List<DailyStats> getDailyStats(int days) {
+        return read(connection -> {
+            try (var statement = connection.prepareStatement("""
+SELECT day, region, accounts, matches FROM daily_stats
+WHERE day > CAST(strftime('%s', 'now') AS INTEGER) / 86400 - ?
+ORDER BY day, region
+""")) {
+                statement.setInt(1, days);
+                List<DailyStats> stats = new ArrayList<>();
+                try (var resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        stats.add(new DailyStats(LocalDate.ofEpochDay(resultSet.getLong(1)), resultSet.getString(2),
+                                resultSet.getLong(3), resultSet.getLong(4)));
+                    }
+                }
+                return stats;
+            }
+        });
+    }
+
+    /**
+     * Returns the cached response stored under {@code key} unless it expired before {@code now}, in epoch ms.
+     */
+    public Optional<byte[]> getCachedResponse(String key, long now) {
+        return read(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT value FROM response_cache WHERE key = ? AND (expires = 0 OR expires > ?)")) {
+                statement.setString(1, key);
+                statement.setLong(2, now);
+                try (var resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? Optional.of(resultSet.getBytes(1)) : Optional.empty();
+                }
+            }
+        });
+    }
+
+    private void insertCachedResponses(List<CachedResponse> responses) throws SQLException {
+        if (responses.isEmpty()) {
+            return;
+        }
+        var statement = prepare(
+                "INSERT OR REPLACE INTO response_cache (key, expires, size, value) VALUES (?, ?, ?, ?)");
+        for (var response: responses) {
+            statement.setString(1, response.key());
+            statement.setLong(2, response.expires());
+            statement.setInt(3, response.value().length);
+            statement.setBytes(4, response.value());
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    public long getCachedResponsesSize() {
+        return read(connection -> {
+            try (var statement = connection.createStatement();
+                 var resultSet = statement.executeQuery("SELECT TOTAL(size) FROM response_cache")) {
+                return resultSet.next() ? resultSet.getLong(1) : 0L;
+            }
+        });
+    }
+
+    /**
+     * Deletes the responses expired at {@code now}, then the oldest ones until at most {@code maxBytes} are left,
+     * and returns the size of the responses left.
+     */
+    public synchronized long evictCachedResponses(long now, long maxBytes) {
+        long[] size = {0};
+        inTransaction(() -> {
+            var expired = prepare("DELETE FROM response_cache WHERE expires > 0 AND expires <= ?");
+            expired.setLong(1, now);
+            expired.execute();
+            try (var total = prepare("SELECT TOTAL(size) FROM response_cache").executeQuery()) {
+                size[0] = total.next() ? total.getLong(1) : 0;
+            }
+            if (size[0] <= maxBytes) {
+                return;
+            }
+            long last = -1;
+            try (var oldest = prepare("SELECT id, size FROM response_cache ORDER BY id").executeQuery()) {
+                while (size[0] > maxBytes && oldest.next()) {
+                    last = oldest.getLong(1);
+                    size[0] -= oldest.getLong(2);
+                }
             }
+            var evict = prepare("DELETE FROM response_cache WHERE id <= ?");
+            evict.setLong(1, last);
+            evict.execute();
+        });
+        return size[0];
+    }
+
+    /**
+     * Returns up to {@code limit} crawled match ids of a region with a row id above {@code after} and at most
+     * {@code until}, in row id order.
+     */
+    public List<Row<Ranked<String>>> getCrawledMatchIds(String region, long after, long until, int limit) {
+        return read(connection -> {
+            try (var statement = connection.prepareStatement("""
+SELECT id, match_id, priority, depth FROM match_ids
+WHERE region = ? AND id > ? AND id <= ? AND crawled = 1 ORDER BY id LIMIT ?
+""")) {
+                statement.setString(1, region);
+                statement.setLong(2, after);
+                statement.setLong(3, until);
+                statement.setInt(4, limit);
+                List<Row<Ranked<String>>> rows = new ArrayList<>();
+                try (var resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        rows.add(new Row<>(resultSet.getLong(1),
+                                new Ranked<>(resultSet.getString(2), resultSet.getInt(3), resultSet.getInt(4))));
+                    }
+                }
+                return rows;
+            }
+        });
+    }
+
+    public long getLastMatchIdRow(String region) {
+        return read(connection -> {
+            try (var statement = connection.prepareStatement("SELECT MAX(id) FROM match_ids WHERE region = ?")) {
+                statement.setString(1, region);
+                try (var resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getLong(1) : 0L;
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the rows of crawled match ids that were written to an archive, only their match id is kept so they are
+     * never added to the frontier again. Archived match ids stay part of the stats. Returns the rows dropped.
+     */
+    public synchronized int archiveMatchIds(String region, List<Row<Ranked<String>>> rows) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        int[] archived = {0};
+        inTransaction(() -> {
+            var keep = prepare("INSERT OR IGNORE INTO archived_match_ids (match_id) VALUES (?)");
+            var delete = prepare("DELETE FROM match_ids WHERE id = ? AND crawled = 1");
+            for (var row: rows) {
+                keep.setString(1, row.value().value());
+                keep.addBatch();
+                delete.setLong(1, row.id());
+                delete.addBatch();
+            }
+            keep.executeBatch();
+            for (int deleted: delete.executeBatch()) {
+                archived[0] += Math.max(0, deleted);
+            }
+            var stats = prepare("""
+INSERT INTO stats (name, region, value) VALUES ('match_ids', ?1, ?2), ('match_ids_crawled', ?1, ?2),
+    ('match_ids_archived', ?1, ?2)
+ON CONFLICT (name, region) DO UPDATE SET value = value + excluded.value
+""");
+            stats.setString(1, region);
+            stats.setLong(2, archived[0]);
+            stats.execute();
+        });
+        return archived[0];
+    }
+
+    /**
+     * Returns the auto vacuum mode of the database file: 0 none, 1 full, 2 incremental.
+     */
+    public synchronized int getAutoVacuum() {
+        return queryPragma("PRAGMA auto_vacuum");
+    }
+
+    public synchronized int getFreePages() {
+        return queryPragma("PRAGMA freelist_count");
+    }
+
+    private int queryPragma(String pragma) {
+        try (var resultSet = prepare(pragma).executeQuery()) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public void deleteMatchId(String matchId) {
-        try (var statement = connection.prepareStatement("DELETE FROM match_ids WHERE match_id = ?")) {
-            statement.setString(1, matchId);
-            statement.execute();
+    /**
+     * Returns up to {@code pages} free pages to the file system in one short transaction, which needs incremental
+     * auto vacuum. Returns the free pages left.
+     */
+    public synchronized int vacuumStep(int pages) {
+        inTransaction(() -> {
+            // every execution frees a single page, whatever the argument, so the pages are freed one at a time
+            var vacuum = prepare("PRAGMA incremental_vacuum(1)");
+            for (int i = 0; i < pages; i++) {
+                vacuum.execute();
+            }
+        });
+        return getFreePages();
+    }
+
+    /**
+     * Rebuilds the whole database file with incremental auto vacuum. Blocks every write until it is done, meant to
+     * run once while no crawler is running.
+     */
+    public synchronized void vacuum() {
+        try (var statement = connection.createStatement()) {
+            statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            statement.execute("VACUUM");
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public Optional<Integer> getMatchIdsCount() {
-        try (var statement = connection.prepareStatement("SELECT COUNT() FROM match_ids");
-             var resultSet = statement.executeQuery()) {
-            if (!resultSet.next()) {
-                return Optional.empty();
-            }
-            return Optional.of(resultSet.getInt(1));
+    /**
+     * Refreshes the statistics of the query planner, looking at no more than about {@code limit} rows per index so it
+     * takes milliseconds even on large tables.
+     */
+    public synchronized void analyze(int limit) {
+        try (var statement = connection.createStatement()) {
+            statement.execute("PRAGMA analysis_limit = " + limit);
+            statement.execute("ANALYZE");
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
+
+    private interface Transaction {
+        void run() throws SQLException;
+    }
+
+    private interface Binder<T> {
+        void bind(PreparedStatement statement, T item) throws SQLException;
+    }
 }
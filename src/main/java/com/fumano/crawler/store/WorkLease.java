@@ -0,0 +1,31 @@
+package com.fumano.crawler.store;
+
+import com.fumano.crawler.model.Account;
+import com.fumano.crawler.model.AccountState;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Hands out frontier rows to crawler processes sharing one dataset. A claimed row is leased to its owner until the
+ * row is committed or released, or until the lease expires without a heartbeat and any process may claim the row
+ * again. Committing a row is idempotent, so a row crawled twice after its lease expired only costs the api calls.
+ */
+public interface WorkLease extends AutoCloseable {
+
+    String owner();
+
+    List<Row<Ranked<String>>> claimMatchIds(String region, int limit);
+
+    Optional<Row<Ranked<Account>>> claimAccount(String region);
+
+    /**
+     * Claims the account of a region due for a refresh at {@code now}, in epoch seconds.
+     */
+    Optional<AccountState> claimRefresh(String region, long now);
+
+    void release(Lease kind, List<Long> ids);
+
+    @Override
+    void close();
+}
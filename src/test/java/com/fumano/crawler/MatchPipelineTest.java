@@ -0,0 +1,109 @@
+package com.fumano.crawler;
+
+import com.fumano.crawler.exception.CrawlerException;
+import com.fumano.crawler.model.Account;
+import com.fumano.crawler.model.AccountState;
+import com.fumano.crawler.store.Ranked;
+import com.fumano.crawler.store.Row;
+import no.stelar7.api.r4j.pojo.lol.match.v5.LOLMatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatchPipelineTest {
+
+    private static final Config.Pipeline CONFIG = new Config.Pipeline(4, 8);
+
+    @Test
+    void failedFetchOnlyReleasesItsOwnMatch() throws CrawlerException {
+        var frontier = new ListFrontier(20);
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        var pipeline = new MatchPipeline(frontier, matchId -> {
+            if (matchId.equals("M_3")) {
+                throw new CrawlerException("failed to fetch match '%s'".formatted(matchId));
+            }
+            return new LOLMatch();
+        }, (row, match) -> written.add(row.value().value()), () -> false, () -> false, () -> false, CONFIG);
+
+        assertEquals(19, pipeline.run(19, null));
+        assertEquals(19, written.size());
+        assertFalse(written.contains("M_3"));
+        assertTrue(frontier.released.contains("M_3"));
+    }
+
+    @Test
+    void stopsAfterFailuresInARow() {
+        var frontier = new ListFrontier(20);
+        var pipeline = new MatchPipeline(frontier, matchId -> {
+            throw new CrawlerException("failed to fetch match '%s'".formatted(matchId));
+        }, (row, match) -> true, () -> false, () -> false, () -> false, CONFIG);
+
+        assertThrows(CrawlerException.class, () -> pipeline.run(20, null));
+        assertTrue(frontier.released.size() >= MatchPipeline.MAX_FAILURES);
+    }
+
+    /**
+     * Hands out {@code M_0} to {@code M_<count - 1>} once each and records what was released.
+     */
+    private static class ListFrontier implements Frontier {
+
+        private final Deque<Row<Ranked<String>>> rows = new ArrayDeque<>();
+        private final List<String> released = Collections.synchronizedList(new ArrayList<>());
+
+        ListFrontier(int count) {
+            for (int i = 0; i < count; i++) {
+                rows.add(new Row<>(i, new Ranked<>("M_" + i, 0, 0)));
+            }
+        }
+
+        @Override
+        public synchronized List<Row<Ranked<String>>> claimMatches(int limit) {
+            List<Row<Ranked<String>>> claimed = new ArrayList<>();
+            while (claimed.size() < limit && !rows.isEmpty()) {
+                claimed.add(rows.poll());
+            }
+            return claimed;
+        }
+
+        @Override
+        public void release(List<Row<Ranked<String>>> rows) {
+            rows.forEach(row -> released.add(row.value().value()));
+        }
+
+        @Override
+        public Optional<Row<Ranked<Account>>> nextAccount() {
+            return Optional.empty();
+        }
+
+        @Override
+        public void releaseAccount(Row<Ranked<Account>> row) {
+        }
+
+        @Override
+        public Optional<AccountState> nextRefresh(long now) {
+            return Optional.empty();
+        }
+
+        @Override
+        public boolean shouldExpand() {
+            return false;
+        }
+
+        @Override
+        public List<Ranked<String>> rankMatchIds(List<String> matchIds, int depth) {
+            return List.of();
+        }
+
+        @Override
+        public List<Ranked<Account>> rankParticipants(LOLMatch match, List<Account> participants, int depth) {
+            return List.of();
+        }
+    }
+}
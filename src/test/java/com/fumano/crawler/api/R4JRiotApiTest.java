@@ -0,0 +1,68 @@
+package com.fumano.crawler.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class R4JRiotApiTest {
+
+    @Test
+    void translatesRateLimitWithRetryAfterAndLimitType() {
+        var e = assertInstanceOf(RateLimitedException.class,
+                R4JRiotApi.translate("ERROR_429 - Rate limit exceeded, Retry-After: 7, X-Rate-Limit-Type: method"));
+        assertEquals(Duration.ofSeconds(7), e.getRetryAfter());
+        assertFalse(e.isApplication());
+    }
+
+    @Test
+    void translatesApplicationRateLimit() {
+        var e = assertInstanceOf(RateLimitedException.class,
+                R4JRiotApi.translate("429 Too Many Requests: retry after 12 seconds, application limit"));
+        assertEquals(Duration.ofSeconds(12), e.getRetryAfter());
+        assertTrue(e.isApplication());
+    }
+
+    @Test
+    void rateLimitWithoutHeadersWaitsTheDefault() {
+        var e = assertInstanceOf(RateLimitedException.class, R4JRiotApi.translate("ERROR_429"));
+        assertEquals(RateLimitedException.DEFAULT_RETRY_AFTER, e.getRetryAfter());
+        assertFalse(e.isApplication());
+    }
+
+    @Test
+    void translatesOtherStatuses() {
+        assertEquals(403, assertInstanceOf(ApiException.class,
+                R4JRiotApi.translate("ERROR_403 - Forbidden, the api key is expired")).getStatus());
+        assertEquals(404, assertInstanceOf(ApiException.class, R4JRiotApi.translate("404 - Not Found")).getStatus());
+        assertEquals(502, assertInstanceOf(ApiException.class, R4JRiotApi.translate("ERROR_502")).getStatus());
+    }
+
+    @Test
+    void messageWithoutStatusIsUnavailable() {
+        assertEquals(503, assertInstanceOf(ApiException.class,
+                R4JRiotApi.translate("Unable to get a valid response from the server")).getStatus());
+        assertEquals(503, assertInstanceOf(ApiException.class, R4JRiotApi.translate(null)).getStatus());
+    }
+
+    @Test
+    void parsesRetryAfterHeader() {
+        assertEquals(Duration.ofSeconds(3), RateLimitedException.fromHeaders(" 3 ", "service").getRetryAfter());
+        assertEquals(RateLimitedException.DEFAULT_RETRY_AFTER,
+                RateLimitedException.fromHeaders("Wed, 21 Oct 2015 07:28:00 GMT", null).getRetryAfter());
+        assertEquals(RateLimitedException.DEFAULT_RETRY_AFTER,
+                RateLimitedException.fromHeaders("-1", "method").getRetryAfter());
+        assertTrue(RateLimitedException.fromHeaders("1", "Application").isApplication());
+    }
+
+    @Test
+    void passesOtherExceptionsThrough() {
+        var failure = new IllegalStateException("ERROR_429");
+        assertSame(failure, assertThrows(IllegalStateException.class, () -> R4JRiotApi.call(() -> {
+            throw failure;
+        }, null)));
+        assertEquals(List.of("EUW1_1"), R4JRiotApi.call(() -> List.of("EUW1_1"), List.of()));
+    }
+}
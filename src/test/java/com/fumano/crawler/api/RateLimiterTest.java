@@ -0,0 +1,187 @@
+package com.fumano.crawler.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the limiter against a local server that enforces a fixed window limit the way riot does and answers requests
+ * over it with a 429 and the {@code Retry-After} and {@code X-Rate-Limit-Type} headers.
+ */
+class RateLimiterTest {
+
+    private static final int PERMITS = 5;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final AtomicInteger served = new AtomicInteger();
+    private final AtomicInteger limited = new AtomicInteger();
+    private HttpServer server;
+    private long windowStart;
+    private int windowUsed;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.createContext("/status", exchange -> {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        // opens the connection, so the first counted request does not arrive later than the limiter's margin allows
+        send("/status");
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        boolean admitted;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (windowUsed == 0 || now - windowStart >= WINDOW_NANOS) {
+                windowStart = now;
+                windowUsed = 0;
+            }
+            admitted = windowUsed < PERMITS;
+            if (admitted) {
+                windowUsed++;
+            }
+        }
+        if (admitted) {
+            served.incrementAndGet();
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            limited.incrementAndGet();
+            exchange.getResponseHeaders().add("Retry-After", "1");
+            exchange.getResponseHeaders().add("X-Rate-Limit-Type", "application");
+            exchange.sendResponseHeaders(429, -1);
+        }
+        exchange.close();
+    }
+
+    private int get() {
+        return send("/");
+    }
+
+    private int send(String path) {
+        try {
+            var request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:%d%s".formatted(
+                    server.getAddress().getPort(), path))).build();
+            var response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() == 429) {
+                throw RateLimitedException.fromHeaders(response.headers().firstValue("Retry-After").orElse(null),
+                        response.headers().firstValue("X-Rate-Limit-Type").orElse(null));
+            }
+            return response.statusCode();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void staysWithinTheServerLimit() {
+        var limiter = new RateLimiter(List.of(new RateLimit(PERMITS, Duration.ofSeconds(1))), Map.of());
+        long start = System.nanoTime();
+        for (int i = 0; i < 2 * PERMITS + 1; i++) {
+            assertEquals(200, limiter.call(Endpoint.Match, this::get));
+        }
+        assertEquals(0, limited.get());
+        assertEquals(2 * PERMITS + 1, served.get());
+        assertTrue(System.nanoTime() - start >= 2 * WINDOW_NANOS, "two full windows were needed");
+    }
+
+    @Test
+    void waitsForRetryAfterOnceRateLimited() {
+        var limiter = new RateLimiter(List.of(new RateLimit(100, Duration.ofSeconds(1))), Map.of());
+        RateLimitedException rateLimited = null;
+        for (int i = 0; i <= PERMITS && rateLimited == null; i++) {
+            try {
+                limiter.call(Endpoint.Match, this::get);
+            } catch (RateLimitedException e) {
+                rateLimited = e;
+            }
+        }
+        assertNotNull(rateLimited);
+        assertEquals(Duration.ofSeconds(1), rateLimited.getRetryAfter());
+        assertTrue(rateLimited.isApplication());
+        long start = System.nanoTime();
+        assertEquals(200, limiter.call(Endpoint.Match, this::get));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900), "waited for Retry-After");
+        assertEquals(1, limited.get());
+    }
+
+    @Test
+    void interruptedWaitSendsNothing() {
+        var limiter = new RateLimiter(List.of(new RateLimit(1, Duration.ofSeconds(10))), Map.of());
+        assertEquals(200, limiter.call(Endpoint.Match, this::get));
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(CancellationException.class, () -> limiter.call(Endpoint.Match, this::get));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(1, served.get());
+    }
+
+    @Test
+    void methodRateLimitOnlyBlocksItsEndpoint() {
+        var now = new AtomicLong();
+        var limits = List.of(new RateLimit(100, Duration.ofSeconds(10)));
+        var limiter = new RateLimiter(limits, Map.of(Endpoint.Match, limits, Endpoint.MatchList, limits), now::get);
+        limiter.penalize(Endpoint.Match, new RateLimitedException(Duration.ofSeconds(5), false));
+        assertTrue(limiter.reserve(Endpoint.Match) >= TimeUnit.SECONDS.toNanos(5));
+        assertEquals(0, limiter.reserve(Endpoint.MatchList));
+        limiter.penalize(Endpoint.MatchList, new RateLimitedException(Duration.ofSeconds(3), true));
+        assertTrue(limiter.reserve(Endpoint.MatchList) >= TimeUnit.SECONDS.toNanos(3));
+    }
+
+    @Test
+    void cappedCallsLeaveTheFreeShareToOthers() {
+        var now = new AtomicLong();
+        var limiter = new RateLimiter(List.of(new RateLimit(8, Duration.ofSeconds(10))), Map.of(), now::get);
+        limiter.keepFree(0.25);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(0, limiter.reserve(Endpoint.Match, true));
+        }
+        assertTrue(limiter.reserve(Endpoint.Match, true) >= TimeUnit.SECONDS.toNanos(10));
+        assertEquals(0, limiter.reserve(Endpoint.MatchList));
+    }
+
+    @Test
+    void keepingNothingFreeLiftsTheCap() {
+        var now = new AtomicLong();
+        var limiter = new RateLimiter(List.of(new RateLimit(8, Duration.ofSeconds(10))), Map.of(), now::get);
+        limiter.keepFree(0.25);
+        limiter.keepFree(0);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(0, limiter.reserve(Endpoint.Match, true));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.fumano.crawler.ingest;
+
+import com.fumano.crawler.FrontierScore;
+import com.fumano.crawler.metrics.Metrics;
+import com.fumano.crawler.store.Database;
+import com.fumano.crawler.store.PayloadStore;
+import com.fumano.crawler.store.SeenSet;
+import com.fumano.crawler.store.SqliteProfile;
+import com.fumano.crawler.store.Store;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ingests the dumps under {@code src/test/resources/ingest}: a gzipped ndjson dump with two flat matches, one of them
+ * identified by platform and game id, a match v5 response, a duplicate line and two lines that are no match, and a
+ * match v5 response in a {@code .json} file of its own.
+ */
+class MatchIngestTest {
+
+    private static final String REGION = "EUW1";
+    private static final List<String> MATCH_IDS = List.of("EUW1_1", "EUW1_2", "EUW1_3", "EUW1_4");
+
+    @TempDir
+    Path directory;
+
+    private Database database;
+    private Store store;
+    private PayloadStore payloadStore;
+
+    @BeforeEach
+    void setUp() throws SQLException, IOException {
+        database = Database.open(directory.resolve("data.sqlite").toString(), SqliteProfile.DEFAULT);
+        store = new Store(database, new SeenSet(100), new SeenSet(100), new Metrics());
+        store.addRegion(REGION, true);
+        payloadStore = PayloadStore.open(directory.resolve("payloads"), "test", 1 << 20, database);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        payloadStore.close();
+        database.close();
+    }
+
+    @Test
+    void ingestsFlatAndMatchV5Documents() throws Exception {
+        var result = ingest(payloadStore);
+
+        assertEquals(4, result.ingested());
+        assertEquals(1, result.known());
+        assertEquals(2, result.invalid());
+        assertEquals(Set.copyOf(MATCH_IDS), store.getCrawledMatchIds(MATCH_IDS));
+    }
+
+    @Test
+    void skipsMatchesCrawledAlready() throws Exception {
+        ingest(payloadStore);
+        long stored = payloadStore.getStats().records();
+
+        var result = ingest(payloadStore);
+
+        assertEquals(0, result.ingested());
+        assertEquals(5, result.known());
+        assertEquals(2, result.invalid());
+        assertEquals(stored, payloadStore.getStats().records());
+    }
+
+    @Test
+    void storesPayloadsAndParticipants() throws Exception {
+        ingest(payloadStore);
+
+        var flat = new String(payloadStore.get("EUW1_1").orElseThrow(), StandardCharsets.UTF_8);
+        assertTrue(flat.startsWith("{\"matchId\":\"EUW1_1\""), flat);
+        var matchV5 = new String(payloadStore.get("EUW1_3").orElseThrow(), StandardCharsets.UTF_8);
+        assertTrue(matchV5.contains("player-4"), matchV5);
+        assertTrue(payloadStore.get("EUW1_4").isPresent());
+
+        var one = store.getAccount("player-1").orElseThrow();
+        assertEquals("One", one.getGameName());
+        assertEquals("EUW", one.getTagLine());
+        assertEquals("Three", store.getAccount("player-3").orElseThrow().getGameName());
+        for (var puuid: List.of("player-2", "player-4", "player-5", "player-6")) {
+            assertTrue(store.getAccount(puuid).isPresent(), puuid);
+        }
+    }
+
+    @Test
+    void keepsOnlyMatchesWithoutPayloadStore() throws Exception {
+        var result = ingest(null);
+
+        assertEquals(4, result.ingested());
+        assertEquals(0, payloadStore.getStats().records());
+        assertTrue(payloadStore.get("EUW1_1").isEmpty());
+        assertTrue(store.getAccount("player-6").isPresent());
+    }
+
+    private MatchIngest.Result ingest(PayloadStore payloads) throws IOException, URISyntaxException {
+        var ingest = new MatchIngest(store, payloads, REGION, FrontierScore.depth(1), 1000, 2, true);
+        return ingest.run(List.of(Path.of(MatchIngestTest.class.getResource("/ingest").toURI())));
+    }
+}
@@ -0,0 +1,47 @@
+package com.fumano.crawler.retry;
+
+import com.fumano.crawler.api.ApiException;
+import com.fumano.crawler.api.RateLimitedException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FailureClassifierTest {
+
+    private static Failure classify(Throwable e) {
+        return FailureClassifier.DEFAULT.classify(e);
+    }
+
+    @Test
+    void classifiesApiFailuresByStatus() {
+        assertEquals(Failure.Throttled, classify(new RateLimitedException(Duration.ofSeconds(1), false)));
+        assertEquals(Failure.Throttled, classify(new ApiException(429, "too many requests")));
+        assertEquals(Failure.Retryable, classify(new ApiException(503, "unavailable")));
+        assertEquals(Failure.Retryable, classify(new ApiException(408, "timeout")));
+        assertEquals(Failure.Terminal, classify(new ApiException(400, "bad request")));
+        assertEquals(Failure.Terminal, classify(new ApiException(401, "unauthorized")));
+        assertEquals(Failure.Terminal, classify(new ApiException(403, "forbidden, the api key expired")));
+    }
+
+    @Test
+    void retriesNetworkFailures() {
+        assertEquals(Failure.Retryable, classify(new UncheckedIOException(new IOException("connection reset"))));
+    }
+
+    @Test
+    void classifiesWrappedFailuresByTheirCause() {
+        assertEquals(Failure.Terminal, classify(new CompletionException(new ApiException(403, "forbidden"))));
+        assertEquals(Failure.Retryable, classify(new RuntimeException(new ApiException(502, "bad gateway"))));
+    }
+
+    @Test
+    void unknownFailuresAreTerminal() {
+        assertEquals(Failure.Terminal, classify(new IllegalStateException("unexpected response")));
+        assertEquals(Failure.Terminal, classify(new RuntimeException()));
+    }
+}
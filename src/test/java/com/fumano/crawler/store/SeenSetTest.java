@@ -0,0 +1,105 @@
+package com.fumano.crawler.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeenSetTest {
+
+    @Test
+    void skipsRecentlyInsertedKeysOnly() {
+        var seen = new SeenSet(100);
+        assertFalse(seen.check("a"));
+        seen.inserted("a", true);
+        assertTrue(seen.check("a"));
+        assertFalse(seen.check("b"));
+    }
+
+    @Test
+    void removedKeysGoBackToTheInsert() {
+        var seen = new SeenSet(1000);
+        for (int i = 0; i < 1000; i++) {
+            seen.add("key" + i);
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            seen.remove("key" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 3 != 0, seen.check("key" + i), "key" + i);
+        }
+    }
+
+    @Test
+    void keepsTwoGenerationsOfKeys() {
+        var seen = new SeenSet(4);
+        for (int i = 0; i < 8; i++) {
+            seen.add("key" + i);
+        }
+        assertTrue(seen.check("key7"));
+        assertTrue(seen.check("key0"));
+        // moving "key0" into the full current generation cleared the generation of the other first four keys
+        assertFalse(seen.check("key1"));
+        assertTrue(seen.check("key4"));
+    }
+
+    @Test
+    void hitsInTheOlderGenerationAreKept() {
+        var seen = new SeenSet(2);
+        seen.add("a");
+        seen.add("b");
+        seen.add("c");
+        // moves "a" into the current generation next to "c"
+        assertTrue(seen.check("a"));
+        seen.add("d");
+        assertTrue(seen.check("a"));
+        assertTrue(seen.check("c"));
+        assertFalse(seen.check("b"));
+    }
+
+    @Test
+    void noRecentKeysDisablesTheCache() {
+        var seen = new SeenSet(0);
+        seen.inserted("a", true);
+        assertFalse(seen.check("a"));
+    }
+
+    @Test
+    void countsInsertsTheIndexTurnedAway() {
+        var seen = new SeenSet(10);
+        seen.check("a");
+        seen.inserted("a", false);
+        seen.check("a");
+        var stats = seen.getStats();
+        assertEquals(2, stats.lookups());
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.ignored());
+    }
+
+    @Test
+    void restoresWrittenTables() throws IOException {
+        var seen = new SeenSet(16);
+        for (int i = 0; i < 6; i++) {
+            seen.add("key" + i);
+        }
+        var bytes = new ByteArrayOutputStream();
+        seen.write(new DataOutputStream(bytes));
+
+        var restored = new SeenSet(16);
+        assertTrue(restored.read(ByteBuffer.wrap(bytes.toByteArray())));
+        for (int i = 0; i < 6; i++) {
+            assertTrue(restored.check("key" + i), "key" + i);
+        }
+        assertFalse(restored.check("key6"));
+
+        var resized = new SeenSet(32);
+        var buffer = ByteBuffer.wrap(bytes.toByteArray());
+        assertFalse(resized.read(buffer));
+        assertEquals(0, buffer.remaining());
+        assertFalse(resized.check("key0"));
+    }
+}